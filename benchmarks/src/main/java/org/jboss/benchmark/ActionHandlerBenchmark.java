@@ -0,0 +1,69 @@
+package org.jboss.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.handler.AbstractExceptionActionHandler.ServiceRunner;
+import org.jbpm.graph.exe.ProcessInstance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of <code>AbstractExceptionActionHandler.execute</code> for a service call that does nothing: on a Node (performed
+ * right away) and on a State (handed to a <code>ServiceRunner</code> after the commit), and of the
+ * <code>ServiceRunner</code> itself (lock the token, perform the action, signal and commit).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class ActionHandlerBenchmark {
+
+	@Setup(Level.Trial)
+	public void deploy() {
+		BenchmarkSupport.deploy();
+	}
+
+	/**
+	 * New instance entering a Node with the handler, in one transaction.
+	 */
+	@Benchmark
+	public ProcessInstance executeSync() {
+		return BenchmarkSupport.startInstance(BenchmarkSupport.NODE_PROCESS_NAME);
+	}
+
+	/**
+	 * New instance entering a State with the handler, in one transaction; the service call itself then runs on the
+	 * pool, outside the measurement.
+	 */
+	@Benchmark
+	public ProcessInstance executeAsync() {
+		return BenchmarkSupport.startInstance(BenchmarkSupport.STATE_PROCESS_NAME);
+	}
+
+	/**
+	 * State for the ServiceRunner benchmark: a fresh token waiting in a State per invocation.
+	 */
+	@State(Scope.Thread)
+	public static class WaitingToken {
+		ProcessInstance procInst;
+
+		@Setup(Level.Invocation)
+		public void start() {
+			procInst = BenchmarkSupport.startInstance(BenchmarkSupport.WAIT_PROCESS_NAME);
+		}
+	}
+
+	/**
+	 * A dispatched service call as run on the pool, here in the benchmark thread.
+	 */
+	@Benchmark
+	public void serviceRunner(WaitingToken waiting) {
+		new ServiceRunner(waiting.procInst.getId(), waiting.procInst.getRootToken().getId(),
+				NoOpServiceHandler.class.getName()).run();
+	}
+}
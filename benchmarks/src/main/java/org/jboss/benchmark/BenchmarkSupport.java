@@ -0,0 +1,211 @@
+package org.jboss.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.jboss.util.BatchingServiceDispatcher;
+import org.jboss.util.ProcessDefinitionCache;
+import org.jboss.util.ThreadPoolSingleton;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+import org.jbpm.graph.def.ProcessDefinition;
+import org.jbpm.graph.exe.ProcessInstance;
+
+/**
+ * Process definitions and helpers shared by the benchmarks. Everything runs against the in-memory HSQLDB database of
+ * the framework's own <code>hibernate.cfg.xml</code>, unless a benchmark configures another persistence profile through
+ * {@link #configure(String)}.
+ */
+public final class BenchmarkSupport {
+	/** The global jBPM configuration. */
+	public static final JbpmConfiguration JBPM_CONF = JbpmConfiguration.getInstance();
+
+	public static final String NODE_PROCESS_NAME = "Benchmark Node";
+	public static final String STATE_PROCESS_NAME = "Benchmark State";
+	public static final String WAIT_PROCESS_NAME = "Benchmark Wait";
+	public static final String THROUGHPUT_PROCESS_NAME = "Benchmark Throughput";
+	public static final String ORIGINATOR_PROCESS_NAME = "Benchmark Originator";
+	public static final String EXCEPTION_FRAMEWORK_PROCESS_NAME = "Exception Framework";
+
+	/** Name of the node the benchmark processes wait in. */
+	public static final String SERVICE_NODE_NAME = "service";
+
+	private static final Set<JbpmConfiguration> DEPLOYED = new HashSet<JbpmConfiguration>();
+
+	/** Utility class. */
+	private BenchmarkSupport() {
+	}
+
+	/**
+	 * The framework's <code>jbpm.cfg.xml</code> with another Hibernate configuration. Does not create the schema; the
+	 * production profile leaves that to the caller.
+	 *
+	 * @param hibernateCfg The resource name of the Hibernate configuration, e.g. <code>hibernate.cfg.production.xml</code>.
+	 * @return The jBPM configuration, the global one for <code>hibernate.cfg.xml</code>.
+	 */
+	public static JbpmConfiguration configure(String hibernateCfg) {
+		if ("hibernate.cfg.xml".equals(hibernateCfg)) {
+			return JBPM_CONF;
+		}
+		String jbpmCfg = readResource("jbpm.cfg.xml");
+		String entry = "name=\"resource.hibernate.cfg.xml\" value=\"";
+		return JbpmConfiguration.parseXmlString(jbpmCfg.replace(entry + "hibernate.cfg.xml\"", entry + hibernateCfg + "\""));
+	}
+
+	/**
+	 * Initialise the service call pool and the batching dispatcher from the framework's <code>jbpm.cfg.xml</code> with
+	 * some entries changed. They read their configuration once, through the context current on the thread, so call this
+	 * before anything else touches the framework; everything else keeps using the global configuration.
+	 *
+	 * @param entries The values by configuration entry name, e.g. <code>exception.framework.executor.mode</code>.
+	 */
+	public static void configureFramework(Map<String, String> entries) {
+		String jbpmCfg = readResource("jbpm.cfg.xml");
+		for (Map.Entry<String, String> entry : entries.entrySet()) {
+			Matcher matcher = Pattern.compile("name=\"" + Pattern.quote(entry.getKey()) + "\"\\s+value=\"[^\"]*\"")
+					.matcher(jbpmCfg);
+			if (!matcher.find()) {
+				throw new IllegalArgumentException("Entry " + entry.getKey() + " not found in jbpm.cfg.xml.");
+			}
+			jbpmCfg = jbpmCfg.substring(0, matcher.start()) + "name=\"" + entry.getKey() + "\" value=\""
+					+ entry.getValue() + "\"" + jbpmCfg.substring(matcher.end());
+		}
+		JbpmContext jbpmCtx = JbpmConfiguration.parseXmlString(jbpmCfg).createJbpmContext();
+		try {
+			ThreadPoolSingleton.INSTANCE.getPoolSize();
+			BatchingServiceDispatcher.INSTANCE.isEnabled();
+		} finally {
+			jbpmCtx.close();
+		}
+	}
+
+	/**
+	 * Deploy the Exception Framework and the benchmark processes in the global configuration, once per JVM (i.e. per
+	 * fork).
+	 */
+	public static void deploy() {
+		deploy(JBPM_CONF);
+	}
+
+	/**
+	 * Deploy the Exception Framework and the benchmark processes, once per configuration.
+	 *
+	 * @param jbpmConf The configuration to deploy in.
+	 */
+	public static synchronized void deploy(JbpmConfiguration jbpmConf) {
+		if (!DEPLOYED.add(jbpmConf)) {
+			return;
+		}
+		// Keep logging out of the measurements.
+		Logger.getRootLogger().setLevel(Level.ERROR);
+		Logger.getLogger("org.hibernate").setLevel(Level.ERROR);
+
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			ProcessDefinitionCache.INSTANCE.deployProcessDefinition(jbpmCtx,
+					ProcessDefinition.parseXmlResource("process/processdefinition.xml"));
+			jbpmCtx.deployProcessDefinition(ProcessDefinition.parseXmlString(process(NODE_PROCESS_NAME,
+					"<node name=\"" + SERVICE_NODE_NAME + "\">"
+					+ "<action class=\"" + NoOpServiceHandler.class.getName() + "\" />"
+					+ "<transition to=\"end\" />"
+					+ "</node>")));
+			jbpmCtx.deployProcessDefinition(ProcessDefinition.parseXmlString(process(STATE_PROCESS_NAME,
+					"<state name=\"" + SERVICE_NODE_NAME + "\">"
+					+ "<event type=\"node-enter\">"
+					+ "<action class=\"" + NoOpServiceHandler.class.getName() + "\" />"
+					+ "</event>"
+					+ "<transition to=\"end\" />"
+					+ "</state>")));
+			jbpmCtx.deployProcessDefinition(ProcessDefinition.parseXmlString(process(WAIT_PROCESS_NAME,
+					"<state name=\"" + SERVICE_NODE_NAME + "\">"
+					+ "<transition to=\"end\" />"
+					+ "</state>")));
+			jbpmCtx.deployProcessDefinition(ProcessDefinition.parseXmlString(process(THROUGHPUT_PROCESS_NAME,
+					"<state name=\"" + SERVICE_NODE_NAME + "\">"
+					+ "<transition to=\"end\">"
+					+ "<action class=\"" + CompletionLatchHandler.class.getName() + "\" />"
+					+ "</transition>"
+					+ "</state>")));
+			jbpmCtx.deployProcessDefinition(ProcessDefinition.parseXmlString(process(ORIGINATOR_PROCESS_NAME,
+					"<state name=\"" + SERVICE_NODE_NAME + "\">"
+					+ "<event type=\"node-enter\">"
+					+ "<action class=\"org.jboss.handler.ExceptionThrowingHandler\" />"
+					+ "</event>"
+					+ "<transition to=\"end\" />"
+					+ "</state>")));
+		} finally {
+			jbpmCtx.close();
+		}
+	}
+
+	/**
+	 * Start an instance of a benchmark process in a transaction of its own.
+	 *
+	 * @param processName The name of the process.
+	 * @return The instance, detached.
+	 */
+	public static ProcessInstance startInstance(String processName) {
+		return startInstance(JBPM_CONF, processName);
+	}
+
+	/**
+	 * Start an instance of a benchmark process in a transaction of its own.
+	 *
+	 * @param jbpmConf The configuration to start it in.
+	 * @param processName The name of the process.
+	 * @return The instance, detached.
+	 */
+	public static ProcessInstance startInstance(JbpmConfiguration jbpmConf, String processName) {
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			ProcessInstance procInst = jbpmCtx.newProcessInstanceForUpdate(processName);
+			procInst.signal();
+			return procInst;
+		} finally {
+			jbpmCtx.close();
+		}
+	}
+
+	private static String readResource(String name) {
+		InputStream in = BenchmarkSupport.class.getClassLoader().getResourceAsStream(name);
+		if (in == null) {
+			throw new IllegalStateException("Resource " + name + " not found.");
+		}
+		try {
+			Reader reader = new InputStreamReader(in, "UTF-8");
+			StringBuilder content = new StringBuilder();
+			char[] buffer = new char[4096];
+			for (int read = reader.read(buffer); read != -1; read = reader.read(buffer)) {
+				content.append(buffer, 0, read);
+			}
+			return content.toString();
+		} catch (IOException ex) {
+			throw new IllegalStateException("Could not read resource " + name + ".", ex);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException ex) {
+				// Nothing left to read.
+			}
+		}
+	}
+
+	private static String process(String name, String serviceNode) {
+		return "<process-definition xmlns=\"urn:jbpm.org:jpdl-3.1\" name=\"" + name + "\">"
+			+ "<start-state name=\"start\">"
+			+ "<transition to=\"" + SERVICE_NODE_NAME + "\" />"
+			+ "</start-state>"
+			+ serviceNode
+			+ "<end-state name=\"end\" />"
+			+ "</process-definition>";
+	}
+}
@@ -0,0 +1,43 @@
+package org.jboss.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.jbpm.graph.def.ActionHandler;
+import org.jbpm.graph.exe.ExecutionContext;
+
+/**
+ * Transition action counting down a latch once the transaction that signalled the token committed, so a benchmark can
+ * wait for asynchronous service calls to complete.
+ */
+public class CompletionLatchHandler implements ActionHandler {
+	/** Serial version UID. */
+	private static final long serialVersionUID = 1L;
+
+	private static volatile CountDownLatch latch = new CountDownLatch(0);
+
+	/**
+	 * @param calls The number of service calls about to be dispatched.
+	 * @return The latch reaching zero once they all completed.
+	 */
+	public static CountDownLatch expect(int calls) {
+		latch = new CountDownLatch(calls);
+		return latch;
+	}
+
+	public void execute(ExecutionContext executionContext) throws Exception {
+		final CountDownLatch completed = latch;
+		executionContext.getJbpmContext().getSession().getTransaction().registerSynchronization(new Synchronization() {
+			public void beforeCompletion() {
+			}
+
+			public void afterCompletion(int status) {
+				if (status == Status.STATUS_COMMITTED) {
+					completed.countDown();
+				}
+			}
+		});
+	}
+}
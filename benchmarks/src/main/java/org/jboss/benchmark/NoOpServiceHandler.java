@@ -0,0 +1,15 @@
+package org.jboss.benchmark;
+
+import org.jboss.handler.AbstractExceptionActionHandler;
+import org.jbpm.graph.exe.ExecutionContext;
+
+/**
+ * Service call that does nothing, so the benchmarks measure the framework around it.
+ */
+public class NoOpServiceHandler extends AbstractExceptionActionHandler {
+	/** Serial version UID. */
+	private static final long serialVersionUID = 1L;
+
+	public void doPerformAction(ExecutionContext executionContext) throws Exception {
+	}
+}
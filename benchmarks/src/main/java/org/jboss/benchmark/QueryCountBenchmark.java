@@ -0,0 +1,125 @@
+package org.jboss.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.stat.Statistics;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+import org.jbpm.db.JobSession;
+import org.jbpm.graph.exe.ProcessInstance;
+import org.jbpm.job.Job;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The exception to resume round trip of {@link RoundTripBenchmark} per persistence profile, with the statements sent to
+ * the database counted by the Hibernate statistics. The jobs are executed in the benchmark thread instead of by the
+ * JobExecutor, so every round trip takes the same steps and the counts do not depend on polling. After each iteration
+ * the statements, queries and second-level cache hits and misses per round trip are printed.
+ * <p>
+ * The database is the in-memory HSQLDB of <code>hibernate.cfg.xml</code>, whose identity ids keep Hibernate from
+ * batching inserts; the count of batched statements shows on databases with sequences only.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class QueryCountBenchmark {
+
+	/** Lock owner of the jobs executed by the benchmark thread. */
+	private static final String LOCK_OWNER = "QueryCountBenchmark";
+
+	@Param({ "hibernate.cfg.xml", "hibernate.cfg.production.xml" })
+	public String hibernateCfg;
+
+	private JbpmConfiguration jbpmConf;
+	private Statistics statistics;
+	private long roundTrips;
+
+	@Setup(Level.Trial)
+	public void configure() {
+		jbpmConf = BenchmarkSupport.configure(hibernateCfg);
+		if (jbpmConf != BenchmarkSupport.JBPM_CONF) {
+			// The production profile does not create the schema.
+			jbpmConf.createSchema();
+		}
+		BenchmarkSupport.deploy(jbpmConf);
+
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			statistics = jbpmCtx.getSessionFactory().getStatistics();
+		} finally {
+			jbpmCtx.close();
+		}
+		statistics.setStatisticsEnabled(true);
+	}
+
+	@Setup(Level.Iteration)
+	public void clear() {
+		statistics.clear();
+		roundTrips = 0;
+	}
+
+	@TearDown(Level.Iteration)
+	public void report() {
+		if (roundTrips == 0) {
+			return;
+		}
+		System.out.println();
+		System.out.println(hibernateCfg + " per round trip: "
+				+ perRoundTrip(statistics.getPrepareStatementCount()) + " statements, "
+				+ perRoundTrip(statistics.getQueryExecutionCount()) + " queries, "
+				+ perRoundTrip(statistics.getSecondLevelCacheHitCount()) + " cache hits, "
+				+ perRoundTrip(statistics.getSecondLevelCacheMissCount()) + " cache misses, "
+				+ perRoundTrip(statistics.getQueryCacheHitCount()) + " query cache hits");
+	}
+
+	@Benchmark
+	public void roundTrip() {
+		ProcessInstance originator = BenchmarkSupport.startInstance(jbpmConf, BenchmarkSupport.ORIGINATOR_PROCESS_NAME);
+		executeJobs();
+		if (!RoundTripBenchmark.endTask(jbpmConf, originator.getId())) {
+			throw new IllegalStateException("No Human Task for process instance " + originator.getId() + ".");
+		}
+		executeJobs();
+		if (!RoundTripBenchmark.hasEnded(jbpmConf, originator.getId())) {
+			throw new IllegalStateException("Process instance " + originator.getId() + " did not end.");
+		}
+		roundTrips++;
+	}
+
+	/**
+	 * Execute the due jobs one transaction each, the way the JobExecutor does, until none is left.
+	 */
+	private void executeJobs() {
+		while (true) {
+			JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+			try {
+				JobSession jobSession = jbpmCtx.getJobSession();
+				Job job = jobSession.getFirstAcquirableJob(LOCK_OWNER);
+				if (job == null) {
+					return;
+				}
+				if (job.execute(jbpmCtx)) {
+					jobSession.deleteJob(job);
+				}
+			} catch (Exception ex) {
+				jbpmCtx.setRollbackOnly();
+				throw new IllegalStateException("Job failed.", ex);
+			} finally {
+				jbpmCtx.close();
+			}
+		}
+	}
+
+	private String perRoundTrip(long count) {
+		return String.format("%.1f", Double.valueOf((double) count / roundTrips));
+	}
+}
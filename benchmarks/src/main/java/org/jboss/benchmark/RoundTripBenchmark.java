@@ -0,0 +1,99 @@
+package org.jboss.benchmark;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.handler.StartExceptionFrameworkHandler;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+import org.jbpm.graph.exe.ProcessInstance;
+import org.jbpm.graph.exe.Token;
+import org.jbpm.taskmgmt.exe.TaskInstance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A full exception to resume round trip: an originating instance fails, the JobExecutor starts the Exception Framework,
+ * its Human Task is ended and the originating instance is triggered to its end. Includes the latency of the
+ * JobExecutor picking up the job, so it shows what a user waits for rather than CPU cost.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class RoundTripBenchmark {
+
+	/** Interval (in ms) of polling for the next step of the round trip. */
+	private static final long POLL_INTERVAL = 5;
+	/** Time (in ms) after which a round trip is given up on. */
+	private static final long TIMEOUT = 60000;
+
+	@Setup(Level.Trial)
+	public void start() {
+		BenchmarkSupport.deploy();
+		BenchmarkSupport.JBPM_CONF.startJobExecutor();
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() throws InterruptedException {
+		BenchmarkSupport.JBPM_CONF.getJobExecutor().stopAndJoin();
+	}
+
+	@Benchmark
+	public void roundTrip() throws InterruptedException {
+		ProcessInstance originator = BenchmarkSupport.startInstance(BenchmarkSupport.ORIGINATOR_PROCESS_NAME);
+
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (!endTask(BenchmarkSupport.JBPM_CONF, originator.getId())) {
+			await(deadline);
+		}
+		while (!hasEnded(BenchmarkSupport.JBPM_CONF, originator.getId())) {
+			await(deadline);
+		}
+	}
+
+	/**
+	 * @return Whether the Human Task for the originating instance was there to end.
+	 */
+	static boolean endTask(JbpmConfiguration jbpmConf, long originatorId) {
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			Long tokenId = (Long) jbpmCtx.getProcessInstance(originatorId).getContextInstance().getVariable(
+					StartExceptionFrameworkHandler.EXCEPTION_FRAMEWORK_PROCESS_ID_KEY);
+			if (tokenId == null) {
+				return false;
+			}
+			Token token = jbpmCtx.getToken(tokenId.longValue());
+			Collection<?> tasks = token.getProcessInstance().getTaskMgmtInstance().getUnfinishedTasks(token);
+			if (tasks.isEmpty()) {
+				return false;
+			}
+			((TaskInstance) tasks.iterator().next()).end();
+			return true;
+		} finally {
+			jbpmCtx.close();
+		}
+	}
+
+	static boolean hasEnded(JbpmConfiguration jbpmConf, long originatorId) {
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			return jbpmCtx.getProcessInstance(originatorId).hasEnded();
+		} finally {
+			jbpmCtx.close();
+		}
+	}
+
+	private static void await(long deadline) throws InterruptedException {
+		if (System.currentTimeMillis() > deadline) {
+			throw new IllegalStateException("Round trip did not complete within " + TIMEOUT + " ms.");
+		}
+		Thread.sleep(POLL_INTERVAL);
+	}
+}
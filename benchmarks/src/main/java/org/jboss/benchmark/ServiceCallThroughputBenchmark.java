@@ -0,0 +1,81 @@
+package org.jboss.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.handler.AbstractExceptionActionHandler.ServiceRunner;
+import org.jboss.util.BatchingServiceDispatcher;
+import org.jboss.util.ThreadPoolSingleton;
+import org.jbpm.graph.exe.ProcessInstance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Throughput of asynchronous service calls per executor mode, with batching on and off: each operation is a service
+ * call dispatched as after the commit of its State node, complete once the signal of its token committed. The
+ * <code>virtual</code> mode falls back to the pool on runtimes before Java 21.
+ * <p>
+ * The framework reads these settings once per JVM, so every combination runs in forks of its own (as JMH does for
+ * parameters) and is configured before anything else touches the framework.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class ServiceCallThroughputBenchmark {
+	/** Service calls in flight per invocation. */
+	private static final int CALLS = 100;
+
+	@Param({ "pooled", "virtual" })
+	public String executorMode;
+
+	@Param({ "false", "true" })
+	public boolean batchEnabled;
+
+	private List<ServiceRunner> runners;
+
+	@Setup(Level.Trial)
+	public void configure() {
+		Map<String, String> entries = new HashMap<String, String>();
+		entries.put(ThreadPoolSingleton.EXECUTOR_MODE_KEY, executorMode);
+		entries.put(BatchingServiceDispatcher.ENABLED_KEY, String.valueOf(batchEnabled));
+		BenchmarkSupport.configureFramework(entries);
+		BenchmarkSupport.deploy();
+	}
+
+	@Setup(Level.Invocation)
+	public void startWaiting() {
+		runners = new ArrayList<ServiceRunner>(CALLS);
+		for (int i = 0; i < CALLS; i++) {
+			ProcessInstance procInst = BenchmarkSupport.startInstance(BenchmarkSupport.THROUGHPUT_PROCESS_NAME);
+			runners.add(new ServiceRunner(procInst.getId(), procInst.getRootToken().getId(),
+					NoOpServiceHandler.class.getName()));
+		}
+	}
+
+	/**
+	 * Dispatch the service calls of the waiting tokens and wait until all of them completed.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(CALLS)
+	public void dispatch() throws InterruptedException {
+		CountDownLatch completed = CompletionLatchHandler.expect(CALLS);
+		for (ServiceRunner runner : runners) {
+			runner.dispatch();
+		}
+		if (!completed.await(60, TimeUnit.SECONDS)) {
+			throw new IllegalStateException(completed.getCount() + " of " + CALLS + " service calls did not complete.");
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package org.jboss.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.handler.StartExceptionFrameworkHandler;
+import org.jboss.util.ExceptionClassifier;
+import org.jbpm.JbpmContext;
+import org.jbpm.context.exe.ContextInstance;
+import org.jbpm.graph.exe.ExecutionContext;
+import org.jbpm.graph.exe.ProcessInstance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of <code>StartExceptionFrameworkHandler.execute</code> for a failed originating instance: starting a new
+ * Exception Framework instance up to its Human Task, or joining the open group of an earlier failure with the same
+ * fingerprint.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class StartExceptionFrameworkBenchmark {
+
+	/** <code>new</code>: every failure is unique; <code>grouped</code>: all failures share one fingerprint. */
+	@Param({ "new", "grouped" })
+	public String failures;
+
+	private int count;
+	private ProcessInstance originator;
+
+	@Setup(Level.Trial)
+	public void deploy() {
+		BenchmarkSupport.deploy();
+	}
+
+	/**
+	 * A failed originating instance, with the context the framework expects.
+	 */
+	@Setup(Level.Invocation)
+	public void fail() {
+		originator = BenchmarkSupport.startInstance(BenchmarkSupport.WAIT_PROCESS_NAME);
+		String nodeName = "grouped".equals(failures) ? BenchmarkSupport.SERVICE_NODE_NAME
+				: BenchmarkSupport.SERVICE_NODE_NAME + "-" + count++;
+
+		JbpmContext jbpmCtx = BenchmarkSupport.JBPM_CONF.createJbpmContext();
+		try {
+			ContextInstance context = jbpmCtx.getProcessInstanceForUpdate(originator.getId()).getContextInstance();
+			context.setVariable(StartExceptionFrameworkHandler.EXCEPTION_ORIGINATING_NODE_NAME_KEY, nodeName);
+			context.setVariable(StartExceptionFrameworkHandler.EXCEPTION_ORIGINATING_PROCESS_NAME_KEY,
+					BenchmarkSupport.WAIT_PROCESS_NAME);
+			context.setVariable(StartExceptionFrameworkHandler.EXCEPTION_ORIGINATING_PROCESS_ID_KEY,
+					Long.valueOf(originator.getId()));
+			context.setVariable(StartExceptionFrameworkHandler.EXCEPTION_CLASS_CHAIN_KEY,
+					ExceptionClassifier.toClassChain(new IllegalStateException("Benchmark")));
+		} finally {
+			jbpmCtx.close();
+		}
+	}
+
+	@Benchmark
+	public void execute() throws Exception {
+		JbpmContext jbpmCtx = BenchmarkSupport.JBPM_CONF.createJbpmContext();
+		try {
+			ExecutionContext executionContext = new ExecutionContext(jbpmCtx.getTokenForUpdate(originator.getRootToken()
+					.getId()));
+			new StartExceptionFrameworkHandler().execute(executionContext);
+		} finally {
+			jbpmCtx.close();
+		}
+	}
+}
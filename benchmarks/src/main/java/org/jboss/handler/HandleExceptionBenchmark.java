@@ -0,0 +1,53 @@
+package org.jboss.handler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.benchmark.BenchmarkSupport;
+import org.jbpm.JbpmContext;
+import org.jbpm.graph.exe.ExecutionContext;
+import org.jbpm.graph.exe.ProcessInstance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of <code>ExceptionThrowingHandler.handleException</code>: recording the originating context and scheduling the
+ * job that starts the Exception Framework. In this package for access to the (package visible) method; the JobExecutor
+ * is not started, so the jobs are only stored.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class HandleExceptionBenchmark {
+
+	private final ExceptionThrowingHandler handler = new ExceptionThrowingHandler();
+	private ProcessInstance originator;
+
+	@Setup(Level.Trial)
+	public void deploy() {
+		BenchmarkSupport.deploy();
+	}
+
+	@Setup(Level.Invocation)
+	public void start() {
+		originator = BenchmarkSupport.startInstance(BenchmarkSupport.WAIT_PROCESS_NAME);
+	}
+
+	@Benchmark
+	public void handleException() {
+		JbpmContext jbpmCtx = BenchmarkSupport.JBPM_CONF.createJbpmContext();
+		try {
+			ExecutionContext executionContext = new ExecutionContext(jbpmCtx.getTokenForUpdate(originator.getRootToken()
+					.getId()));
+			executionContext.setException(new IllegalStateException("Benchmark"));
+			handler.handleException(executionContext);
+		} finally {
+			jbpmCtx.close();
+		}
+	}
+}
@@ -1,22 +1,36 @@
 package org.jboss.handler;
 
-import java.security.AccessController;
-import java.security.PrivilegedAction;
+import java.util.Date;
 
 import javax.transaction.Status;
 import javax.transaction.Synchronization;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.hibernate.LockMode;
+import org.hibernate.StaleStateException;
+import org.jboss.util.ActionJobs;
+import org.jboss.util.BatchingServiceDispatcher;
+import org.jboss.util.CircuitBreaker;
+import org.jboss.util.EventLog;
+import org.jboss.util.EventLog.EventType;
+import org.jboss.util.FrameworkConfig;
+import org.jboss.util.FrameworkMetrics;
+import org.jboss.util.HandlerClassCache;
+import org.jboss.util.InPlaceRetry;
+import org.jboss.util.LockStatistics;
+import org.jboss.util.PersistableServiceCall;
+import org.jboss.util.ServiceCallOutbox;
 import org.jboss.util.ThreadPoolSingleton;
 import org.jbpm.JbpmConfiguration;
 import org.jbpm.JbpmContext;
+import org.jbpm.graph.def.Action;
 import org.jbpm.graph.def.ActionHandler;
 import org.jbpm.graph.exe.ExecutionContext;
 import org.jbpm.graph.exe.Token;
 import org.jbpm.graph.node.State;
-import org.jbpm.instantiation.ProcessClassLoader;
-import org.jbpm.util.ClassLoaderUtil;
+import org.jbpm.instantiation.Delegation;
+import org.jbpm.job.ExecuteActionJob;
 
 /**
  * Base class for ActionHandler which call services.
@@ -34,6 +48,8 @@ public abstract class AbstractExceptionActionHandler implements ActionHandler {
 
     private boolean signalAfterException = false;
 
+    private boolean signalAfterAction = true;
+
     protected final String getCurrentAction() {
         return "action handling";
     }
@@ -41,31 +57,67 @@ public abstract class AbstractExceptionActionHandler implements ActionHandler {
 	/** Logging facility. */
 	private static final Logger LOGGER = Logger.getLogger(AbstractExceptionActionHandler.class);
 
+	/** Configuration entry for locking of tokens by asynchronous service calls: pessimistic or optimistic. */
+	public static final String LOCK_MODE_KEY = "exception.framework.lock.mode";
+	/** Configuration entry for the number of times an optimistic service call is retried on conflicts. */
+	public static final String OPTIMISTIC_RETRIES_KEY = "exception.framework.lock.optimistic.retries";
+
+	private static final boolean OPTIMISTIC_LOCKING = "optimistic".equalsIgnoreCase(
+			FrameworkConfig.getString(LOCK_MODE_KEY, "pessimistic"));
+	private static final int OPTIMISTIC_RETRIES = FrameworkConfig.getInt(OPTIMISTIC_RETRIES_KEY, 3);
+
     
     public final void execute(ExecutionContext executionContext) throws Exception {
 
-    	getLogger().info("Start AbstractExceptionActionHanlder.");
+    	long begin = System.nanoTime();
 
     	ExecutionContext.pushCurrentContext(executionContext);
 		try {
+			// A job made up its action when persisting a service call, which is done with now.
+			ActionJobs.release(executionContext);
 			if (executionContext.getNode() instanceof State) {
 				// Asynchronous handling.
 				if (getLogger().isDebugEnabled()) {
 					getLogger().debug("Scheduling async job [" + getClass().getName() + "] for process instance " + executionContext.getProcessInstance().getId());
 				}
 
-				// Dig into Hibernate here to accomplish transaction isolation.
-				executionContext.getJbpmContext().getSession().getTransaction().registerSynchronization(
-						new ServiceRunner(executionContext.getToken().getId(), getClass().getName()));
+				if (ServiceCallOutbox.INSTANCE.isEnabled()) {
+					// Durable dispatch: the outbox entry commits or rolls back with this transaction.
+					ServiceCallOutbox.INSTANCE.add(executionContext.getJbpmContext(), executionContext.getProcessInstance().getId(),
+							executionContext.getToken().getId(), getClass().getName());
+				} else {
+					// Dig into Hibernate here to accomplish transaction isolation.
+					executionContext.getJbpmContext().getSession().getTransaction().registerSynchronization(
+							new ServiceRunner(executionContext.getProcessInstance().getId(), executionContext.getToken().getId(), getClass().getName()));
+				}
 			} else {
-				try {
-					// Synchronous handling: Perform the action directly.
-					getLogger().debug("Performing action on Node with id: " + executionContext.getProcessInstance().getId());
-					doPerformAction(executionContext);
-				} catch (Exception ex) {
-					getLogger().error("Handler threw exception.", ex);
-					getLogger().debug("Using jBPMExceptionHandler for exception caught on Node with id: " + executionContext.getProcessInstance().getId());
-					executionContext.getNode().raiseException(ex, executionContext);
+				CircuitBreaker breaker = CircuitBreaker.isEnabled() ? CircuitBreaker.forHandler(getClass().getName()) : null;
+				if (breaker != null && isNodeAction(executionContext) && !breaker.allowCall()) {
+					// Fail fast, without calling the service that is known to be failing nor starting an
+					// Exception Framework instance: the token waits in the node until the breaker may have closed.
+					getLogger().debug("Circuit breaker open for Node with id: " + executionContext.getProcessInstance().getId());
+					retryNodeAction(executionContext, breaker.getRetryTime());
+				} else {
+					try {
+						// Synchronous handling: Perform the action directly.
+						getLogger().debug("Performing action on Node with id: " + executionContext.getProcessInstance().getId());
+						long start = System.nanoTime();
+						try {
+							doPerformAction(executionContext);
+						} finally {
+							FrameworkMetrics.INSTANCE.forHandler(getClass().getName()).recordAction(System.nanoTime() - start);
+						}
+						if (breaker != null) {
+							breaker.recordSuccess();
+						}
+					} catch (Exception ex) {
+						if (breaker != null) {
+							breaker.recordFailure();
+						}
+						getLogger().error("Handler threw exception.", ex);
+						getLogger().debug("Using jBPMExceptionHandler for exception caught on Node with id: " + executionContext.getProcessInstance().getId());
+						executionContext.getNode().raiseException(ex, executionContext);
+					}
 				}
 			}
 		} catch (Exception ex) {
@@ -76,7 +128,8 @@ public abstract class AbstractExceptionActionHandler implements ActionHandler {
 			ExecutionContext.popCurrentContext(executionContext);
 		}
 
-		getLogger().info("Ended AbstractExceptionActionHanlder.");
+		EventLog.INSTANCE.record(EventType.ACTION_EXECUTED, getClass().getName(),
+				executionContext.getProcessInstance().getId(), System.nanoTime() - begin);
     }
 
     
@@ -101,6 +154,16 @@ public abstract class AbstractExceptionActionHandler implements ActionHandler {
         signalAfterException = signal;
     }
 
+    /**
+     * Clear this flag when the action itself arranged for the process to move on later (e.g. through a timer), so the token
+     * is not signalled after an asynchronous execution that ended normally.
+     * 
+     * @param signal Whether signalling is to take place after the action, <code>true</code> by default.
+     */
+    protected final void setSignalAfterAction(final boolean signal) {
+        signalAfterAction = signal;
+    }
+
     /**
      * Set the transition to be taken for an asynchronous execution.
      * 
@@ -130,75 +193,488 @@ public abstract class AbstractExceptionActionHandler implements ActionHandler {
 
 
 	/**
-	 * Inner class which performs the actual action handling for asynchronous
-	 * State nodes.
+	 * @param executionContext The execution context of a synchronous action.
+	 * @return Whether the action is the action of the node, which keeps the
+	 *         token in the node unless it leaves the node itself. Only those
+	 *         calls are held back by an open circuit breaker; event actions
+	 *         cannot hold back their token and always call the service.
+	 */
+	private static boolean isNodeAction(ExecutionContext executionContext) {
+		Action action = executionContext.getAction();
+		Action nodeAction = executionContext.getNode().getAction();
+		return action != null && nodeAction != null && action.getId() == nodeAction.getId();
+	}
+
+	/**
+	 * Have the JobExecutor run the action of the node again, with the token
+	 * waiting in the node meanwhile.
+	 * 
+	 * @param executionContext The execution context of the action of the node.
+	 * @param dueDate The time to run the action again.
+	 */
+	private void retryNodeAction(ExecutionContext executionContext, Date dueDate) {
+		ExecuteActionJob job = new ExecuteActionJob(executionContext.getToken());
+		job.setAction(executionContext.getAction());
+		job.setDueDate(dueDate);
+		executionContext.getJbpmContext().getServices().getMessageService().send(job);
+
+		if (getLogger().isDebugEnabled()) {
+			getLogger().debug("Retrying [" + getClass().getName() + "] for token " + executionContext.getToken().getId() + " at " + dueDate + ", circuit breaker open.");
+		}
+	}
+
+	/**
+	 * Move the token along after an asynchronous execution, if applicable.
+	 * 
+	 * @param token The token waiting in the State node.
+	 * @param exceptionCaught Whether the execution ended with an exception.
 	 */
-	class ServiceRunner implements Runnable, Synchronization {
-		private long tokenId;
-		private String handlerClassName;
+	private void signal(Token token, boolean exceptionCaught) {
+		if (!exceptionCaught && !signalAfterAction) {
+			return;
+		}
+		if (!exceptionCaught || !useJbpmExceptionHandler || signalAfterException) {
+			if (!StringUtils.isBlank(transitionName) && token.getNode().hasLeavingTransition(transitionName)) {
+				token.signal(transitionName);
+			} else {
+				// Use the default transition.
+				token.signal();
+			}
+		}
+	}
+
+	/**
+	 * Performs the actual action handling for asynchronous State nodes, in a
+	 * transaction of its own. The settings for signalling are taken from the
+	 * handler instance that performed the action.
+	 */
+	public static class ServiceRunner implements PersistableServiceCall, Synchronization {
+		private final long processInstanceId;
+		private final long tokenId;
+		private final String handlerClassName;
+		private final Long outboxEntryId;
+		/** In place retries done for transient exceptions, see InPlaceRetry. */
+		private int inPlaceAttempts;
+
+		public ServiceRunner(long processInstanceId, long tokenId, String handlerClassName) {
+			this(processInstanceId, tokenId, handlerClassName, null);
+		}
 
-		public ServiceRunner(long tokenId, String handlerClassName) {
+		/**
+		 * @param processInstanceId The id of the process instance, service calls
+		 *            for one instance are run one after the other.
+		 * @param tokenId The id of the token waiting in the State node.
+		 * @param handlerClassName The handler performing the service call.
+		 * @param outboxEntryId The outbox entry to acknowledge, or <code>null</code>.
+		 */
+		public ServiceRunner(long processInstanceId, long tokenId, String handlerClassName, Long outboxEntryId) {
+			this.processInstanceId = processInstanceId;
 			this.tokenId = tokenId;
 			this.handlerClassName = handlerClassName;
+			this.outboxEntryId = outboxEntryId;
 		}
 
 		/** {@inheritDoc} */
 		public void run() {
+			long start = System.nanoTime();
+			try {
+				ThreadPoolSingleton.INSTANCE.acquireContextPermit();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				LOGGER.error("Interrupted while waiting to handle token " + tokenId + ", persisting it as job.");
+				persistAsJob();
+				return;
+			}
+			try {
+				runInContext();
+			} finally {
+				ThreadPoolSingleton.INSTANCE.releaseContextPermit();
+				FrameworkMetrics.INSTANCE.forHandler(handlerClassName).recordRun(System.nanoTime() - start);
+			}
+		}
+
+		private void runInContext() {
+			if (OPTIMISTIC_LOCKING) {
+				runOptimistically();
+				return;
+			}
 			JbpmContext jbpmCtx = JbpmConfiguration.getInstance().createJbpmContext();
 			try {
 				// Get the token in which the process is waiting.
-				final Token token = jbpmCtx.getTokenForUpdate(tokenId);
-				ExecutionContext executionContext = new ExecutionContext(token);
+				long start = System.nanoTime();
+				Token token = jbpmCtx.getTokenForUpdate(tokenId);
+				LockStatistics.INSTANCE.recordPessimisticLock(System.nanoTime() - start);
+				if (isPending(jbpmCtx)) {
+					perform(jbpmCtx, token);
+				}
+			} finally {
+				jbpmCtx.close();
+			}
+		}
 
-				// Perform the action in the concrete subclass.
-				ExecutionContext.pushCurrentContext(executionContext);
-				AbstractExceptionActionHandler currentHandler = null;
-				boolean exceptionCaught = false;
+		/**
+		 * Perform the action and apply the signal in one transaction, without
+		 * holding a lock on the token during the service call: the token is
+		 * only locked after the signal, checking it still has the version it
+		 * was read with. On a concurrent modification the whole attempt rolls
+		 * back and is retried, the action included, so the changes of the
+		 * action never commit without the signal; actions run in this mode
+		 * must allow for running again after a conflict.
+		 */
+		private void runOptimistically() {
+			long nodeId = 0;
+			for (int attempt = 0; ; attempt++) {
+				boolean retryInPlace = false;
+				JbpmContext jbpmCtx = JbpmConfiguration.getInstance().createJbpmContext();
 				try {
-					ClassLoader cl = AccessController.doPrivileged(new PrivilegedAction<ProcessClassLoader>() {
-								public ProcessClassLoader run() {
-									return new ProcessClassLoader(ClassLoaderUtil.class.getClassLoader(), token.getProcessInstance().getProcessDefinition());
-								}
-							});
-					currentHandler = (AbstractExceptionActionHandler) cl.loadClass(
-							handlerClassName).newInstance();
-					currentHandler.doPerformAction(executionContext);
-				} catch (Exception ex) {
-					getLogger().error("Handler threw exception.", ex);
-					executionContext.getNode().raiseException(ex, executionContext);
-					exceptionCaught = true;
-				} finally {
-					ExecutionContext.popCurrentContext(executionContext);
+					try {
+						Token token = jbpmCtx.getToken(tokenId);
+						if (!isPending(jbpmCtx)) {
+							return;
+						}
+						if (attempt > 0 && token.getNode().getId() != nodeId) {
+							LOGGER.warn("Token " + tokenId + " left node " + nodeId + " during the service call, not performing it again.");
+						} else {
+							Outcome outcome = performAction(token);
+							nodeId = outcome.nodeId;
+							retryInPlace = outcome.retryInPlace;
+							if (retryInPlace) {
+								retryInPlaceAfterRollback(jbpmCtx);
+							} else {
+								outcome.signal(token);
+								// Version check, and the lock held until the commit.
+								jbpmCtx.getSession().lock(token, LockMode.UPGRADE);
+							}
+						}
+						if (!retryInPlace) {
+							acknowledge(jbpmCtx);
+						}
+					} catch (RuntimeException ex) {
+						jbpmCtx.setRollbackOnly();
+						throw ex;
+					} finally {
+						jbpmCtx.close();
+					}
+					if (!retryInPlace) {
+						LockStatistics.INSTANCE.recordOptimisticSignal();
+					}
+					return;
+				} catch (RuntimeException ex) {
+					if (!isStale(ex)) {
+						throw ex;
+					}
+					if (attempt >= OPTIMISTIC_RETRIES) {
+						LockStatistics.INSTANCE.recordOptimisticFailure();
+						throw ex;
+					}
+					LockStatistics.INSTANCE.recordOptimisticConflict();
+					if (LOGGER.isDebugEnabled()) {
+						LOGGER.debug("Concurrent modification of token " + tokenId + ", retrying service call (attempt " + (attempt + 1) + ").");
+					}
+				}
+			}
+		}
+
+		/**
+		 * Perform the action and move the process along within the given
+		 * context, which the caller is responsible for closing.
+		 * 
+		 * @param jbpmCtx The context of the transaction to perform the action in.
+		 * @param token The token in which the process is waiting, locked for update.
+		 */
+		private void perform(JbpmContext jbpmCtx, Token token) {
+			Outcome outcome = performAction(token);
+			if (outcome.retryInPlace) {
+				retryInPlaceAfterRollback(jbpmCtx);
+				return;
+			}
+			outcome.signal(token);
+			acknowledge(jbpmCtx);
+		}
+
+		/**
+		 * Perform the action and move the process along within the context of
+		 * a batch, which the caller is responsible for closing. When the
+		 * service call is to be retried in place, the caller undoes its
+		 * changes and the retry follows once the transaction of the batch
+		 * completed.
+		 * 
+		 * @param jbpmCtx The context of the batch.
+		 * @param token The token in which the process is waiting, locked for update.
+		 * @return Whether the changes of the service call are to be kept.
+		 */
+		public boolean performInBatch(JbpmContext jbpmCtx, Token token) {
+			if (!isPending(jbpmCtx)) {
+				return true;
+			}
+			Outcome outcome = performAction(token);
+			if (outcome.retryInPlace) {
+				jbpmCtx.getSession().getTransaction().registerSynchronization(new Synchronization() {
+					public void beforeCompletion() {
+						// Not used here.
+					}
+
+					public void afterCompletion(int status) {
+						// The changes of the attempt were undone whatever the outcome of the batch.
+						retryInPlace();
+					}
+				});
+				return false;
+			}
+			outcome.signal(token);
+			jbpmCtx.save(token.getProcessInstance());
+			acknowledge(jbpmCtx);
+			return true;
+		}
+
+		/**
+		 * Roll back the failed attempt, so none of its changes commit, and
+		 * retry in place once the rollback completed and released the lock
+		 * on the token.
+		 * 
+		 * @param jbpmCtx The context of the failed attempt, still open.
+		 */
+		private void retryInPlaceAfterRollback(JbpmContext jbpmCtx) {
+			jbpmCtx.setRollbackOnly();
+			jbpmCtx.getSession().getTransaction().registerSynchronization(new Synchronization() {
+				public void beforeCompletion() {
+					// Not used here.
 				}
 
-				// Move the process along, if applicable.
-				if (!exceptionCaught || !useJbpmExceptionHandler || signalAfterException) {
-					if (!StringUtils.isBlank(transitionName) && executionContext.getNode().hasLeavingTransition(transitionName)) {
-						token.signal(transitionName);
-					} else {
-						// Use the default transition.
-						token.signal();
+				public void afterCompletion(int status) {
+					if (status == Status.STATUS_COMMITTED) {
+						LOGGER.error("Failed attempt of " + ServiceRunner.this + " was committed, not retrying it.");
+						return;
 					}
+					retryInPlace();
+				}
+			});
+		}
+
+		/**
+		 * Dispatch this service call again after the in place retry delay;
+		 * the token keeps waiting and an outbox entry stays unacknowledged.
+		 */
+		private void retryInPlace() {
+			InPlaceRetry.INSTANCE.schedule(new Runnable() {
+				public void run() {
+					dispatch();
+				}
+			}, inPlaceAttempts++);
+		}
+
+		/**
+		 * @param token The token in which the process is waiting.
+		 * @return The handler that performed the action and how it went.
+		 */
+		private Outcome performAction(Token token) {
+			ExecutionContext executionContext = new ExecutionContext(token);
+
+			// Perform the action in the concrete subclass.
+			ExecutionContext.pushCurrentContext(executionContext);
+			Outcome outcome = new Outcome(token.getNode().getId());
+			try {
+				outcome.handler = (AbstractExceptionActionHandler) HandlerClassCache.INSTANCE.getHandlerClass(
+						token.getProcessInstance().getProcessDefinition(), handlerClassName).newInstance();
+				long start = System.nanoTime();
+				try {
+					outcome.handler.doPerformAction(executionContext);
+				} finally {
+					FrameworkMetrics.INSTANCE.forHandler(handlerClassName).recordAction(System.nanoTime() - start);
+				}
+				if (CircuitBreaker.isEnabled()) {
+					CircuitBreaker.forHandler(handlerClassName).recordSuccess();
+				}
+			} catch (Exception ex) {
+				if (CircuitBreaker.isEnabled()) {
+					CircuitBreaker.forHandler(handlerClassName).recordFailure();
+				}
+				if (InPlaceRetry.INSTANCE.isApplicable(ex, inPlaceAttempts)) {
+					LOGGER.warn("Handler threw transient exception, retrying in place (attempt " + (inPlaceAttempts + 1) + "): " + ex);
+					outcome.retryInPlace = true;
+				} else {
+					LOGGER.error("Handler threw exception.", ex);
+					executionContext.getNode().raiseException(ex, executionContext);
+					outcome.exceptionCaught = true;
+				}
+			} finally {
+				ExecutionContext.popCurrentContext(executionContext);
+			}
+			return outcome;
+		}
+
+		/**
+		 * Hand this service call to the batching dispatcher when enabled, to
+		 * the thread pool otherwise. While the circuit breaker of the handler
+		 * is open the call is parked instead, the token keeps waiting.
+		 */
+		public void dispatch() {
+			if (CircuitBreaker.isEnabled()) {
+				CircuitBreaker breaker = CircuitBreaker.forHandler(handlerClassName);
+				if (!breaker.allowCall()) {
+					park(breaker);
+					return;
+				}
+			}
+			if (BatchingServiceDispatcher.INSTANCE.isEnabled()) {
+				BatchingServiceDispatcher.INSTANCE.submit(this);
+			} else {
+				ThreadPoolSingleton.INSTANCE.executeServiceCall(processInstanceId, this);
+			}
+		}
+
+		private void park(CircuitBreaker breaker) {
+			boolean parked = breaker.park(Long.valueOf(tokenId), new Runnable() {
+				public void run() {
+					dispatch();
+				}
+			});
+			if (parked) {
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("Parked service call [" + handlerClassName + "] for token " + tokenId + ", circuit breaker open.");
+				}
+			} else {
+				// Too many parked calls, have the JobExecutor come back when the breaker may have closed.
+				persistAsJob(breaker.getRetryTime());
+			}
+		}
+
+		/**
+		 * @return The id of the process instance of the token.
+		 */
+		public long getProcessInstanceId() {
+			return processInstanceId;
+		}
+
+		/**
+		 * @return The id of the token waiting in the State node.
+		 */
+		public long getTokenId() {
+			return tokenId;
+		}
+
+		/**
+		 * Schedule the handler as an <code>ExecuteActionJob</code> on the waiting
+		 * token, so the JobExecutor retries the asynchronous handling once the
+		 * thread pool has room again.
+		 */
+		public void persistAsJob() {
+			persistAsJob(new Date());
+		}
+
+		/**
+		 * @param dueDate The time the JobExecutor is to pick up the job.
+		 */
+		private void persistAsJob(Date dueDate) {
+			JbpmContext jbpmCtx = JbpmConfiguration.getInstance().createJbpmContext();
+			try {
+				Token token = jbpmCtx.getToken(tokenId);
+				// Run the action the State node dispatched the service call from, so no rows are added per job.
+				Action action = ActionJobs.findAction(token.getNode(), handlerClassName);
+				if (action != null) {
+					ActionJobs.send(jbpmCtx, token, action, dueDate);
+				} else {
+					ActionJobs.sendAdHoc(jbpmCtx, token, new Delegation(handlerClassName), dueDate);
+				}
+				acknowledge(jbpmCtx);
+
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("Persisted service call [" + handlerClassName + "] for token " + tokenId + " as job.");
 				}
 			} finally {
 				jbpmCtx.close();
 			}
 		}
 
+		/**
+		 * Check, with the token locked, that the outbox entry this service
+		 * call originates from was not acknowledged by an earlier dispatch of
+		 * the same claim in the meantime.
+		 * 
+		 * @param jbpmCtx The context of the service call.
+		 * @return Whether the service call is to be performed.
+		 */
+		private boolean isPending(JbpmContext jbpmCtx) {
+			if (outboxEntryId == null || ServiceCallOutbox.INSTANCE.isPending(jbpmCtx, outboxEntryId.longValue())) {
+				return true;
+			}
+			LOGGER.warn("Outbox entry " + outboxEntryId + " was acknowledged already, skipping " + this);
+			return false;
+		}
+
+		/**
+		 * Remove the outbox entry this service call originates from, if any.
+		 * 
+		 * @param jbpmCtx The context of the completing transaction.
+		 */
+		public void acknowledge(JbpmContext jbpmCtx) {
+			if (outboxEntryId != null) {
+				ServiceCallOutbox.INSTANCE.acknowledge(jbpmCtx, outboxEntryId.longValue());
+			}
+		}
+
 		/** Inherited method not used here. */
 		public void beforeCompletion() {
 			// Not used here.
 		}
 
 		public void afterCompletion(int status) {
-			if (getLogger().isDebugEnabled()
-			        && status != Status.STATUS_COMMITTED && status != Status.STATUS_ROLLEDBACK) {
-					getLogger().debug("Attempting to start asynchronous action handling while tx status was " + status);
+			if (status == Status.STATUS_ROLLEDBACK) {
+				// The State node was never entered, so there is nothing to handle.
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("Skipping asynchronous action handling for token " + tokenId + ", tx rolled back.");
+				}
+				return;
+			}
+			if (LOGGER.isDebugEnabled() && status != Status.STATUS_COMMITTED) {
+				LOGGER.debug("Attempting to start asynchronous action handling while tx status was " + status);
 			}
 
 			// The original transaction is completed, a new one can be started.
-			ThreadPoolSingleton.INSTANCE.executeServiceCall(this);
+			dispatch();
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public String toString() {
+			return "ServiceRunner(token " + tokenId + ", " + handlerClassName + ")";
+		}
+	}
+
+	/**
+	 * Result of performing the action of an asynchronous service call.
+	 */
+	private static class Outcome {
+		private final long nodeId;
+		private AbstractExceptionActionHandler handler;
+		private boolean exceptionCaught;
+		private boolean retryInPlace;
+
+		Outcome(long nodeId) {
+			this.nodeId = nodeId;
+		}
+
+		/** Move the process along, if applicable. */
+		void signal(Token token) {
+			if (handler != null) {
+				handler.signal(token, exceptionCaught);
+			} else {
+				token.signal();
+			}
+		}
+	}
+
+	/**
+	 * @param ex An exception thrown while committing.
+	 * @return Whether it was caused by a concurrent modification.
+	 */
+	private static boolean isStale(Throwable ex) {
+		for (Throwable t = ex; t != null; t = t.getCause()) {
+			if (t instanceof StaleStateException) {
+				return true;
+			}
 		}
+		return false;
 	}
 	
 	protected Logger getLogger() {
@@ -0,0 +1,72 @@
+package org.jboss.handler;
+
+import java.util.Date;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.log4j.Logger;
+import org.jboss.util.ActionJobs;
+import org.jboss.util.FrameworkConfig;
+import org.jbpm.JbpmContext;
+import org.jbpm.graph.def.ActionHandler;
+import org.jbpm.graph.exe.ExecutionContext;
+import org.jbpm.graph.exe.Token;
+import org.jbpm.instantiation.Delegation;
+
+/**
+ * Handler triggering an originating process that was locked (e.g. by an
+ * asynchronous continuation) when its Exception Framework instance ended. It
+ * runs as an <code>ExecuteActionJob</code> on the originating root token, the
+ * requested transition and retry attempt are injected from the delegation
+ * configuration. Its action is made up per job and deleted when the job
+ * runs (see ActionJobs).
+ */
+public class DeferredTriggerHandler implements ActionHandler {
+	/** Serial version UID. */
+	private static final long serialVersionUID = 1L;
+
+	/** Configuration entry for the time (in ms) before a locked originating process is triggered again. */
+	public static final String DELAY_KEY = "exception.framework.trigger.locked.delay";
+
+	private static final long DELAY = FrameworkConfig.getLong(DELAY_KEY, 1000L);
+
+	/** Logging facility. */
+	private static final Logger LOGGER = Logger.getLogger(DeferredTriggerHandler.class);
+
+	/** The transition chosen in the exception framework, <code>null</code> for the default. */
+	private String transitionName;
+
+	/** The number of retries done before for the originating node. */
+	private Integer attempt;
+
+	public void execute(ExecutionContext executionContext) throws Exception {
+		// The action was made up for this job only.
+		ActionJobs.release(executionContext);
+		TriggerOriginatingProcessHandler.trigger(executionContext.getJbpmContext(),
+				executionContext.getProcessInstance(), transitionName, attempt == null ? 0 : attempt.intValue());
+	}
+
+	/**
+	 * Schedule the trigger of a locked originating process as a job on its
+	 * root token, in the current transaction.
+	 *
+	 * @param jbpmCtx The current context.
+	 * @param token The root token of the originating process.
+	 * @param transitionName The transition chosen in the exception framework, or <code>null</code> for the default.
+	 * @param attempt The number of retries done before for the originating node.
+	 */
+	static void schedule(JbpmContext jbpmCtx, Token token, String transitionName, int attempt) {
+		StringBuilder configuration = new StringBuilder();
+		if (transitionName != null) {
+			configuration.append("<transitionName>").append(StringEscapeUtils.escapeXml(transitionName))
+					.append("</transitionName>");
+		}
+		configuration.append("<attempt>").append(attempt).append("</attempt>");
+
+		Delegation delegation = new Delegation(DeferredTriggerHandler.class.getName());
+		delegation.setConfiguration(configuration.toString());
+		ActionJobs.sendAdHoc(jbpmCtx, token, delegation, new Date(System.currentTimeMillis() + DELAY));
+
+		LOGGER.info("Token " + token.getId() + " is locked by " + token.getLockOwner()
+				+ ", triggering it again in " + DELAY + " ms.");
+	}
+}
@@ -2,6 +2,8 @@ package org.jboss.handler;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.jboss.util.ExceptionClassifier;
+import org.jboss.util.RetryBackoff;
 import org.jbpm.graph.exe.ExecutionContext;
 import org.jbpm.graph.node.DecisionHandler;
 
@@ -26,7 +28,6 @@ public class DetermineExceptionHandlingHandler implements DecisionHandler {
 	}
 
 	public String decide(ExecutionContext executionContext) throws Exception {
-		// TODO Auto-generated method stub
 		// check for our path of execution in exception handling.
 		String transition = null;
 		if (executionContext.getContextInstance().getVariable("take_exception_transtion") != null) {
@@ -36,14 +37,24 @@ public class DetermineExceptionHandlingHandler implements DecisionHandler {
 			transition = (String) executionContext.getContextInstance().getVariable("take_exception_transtion");
 		}
 		
-		// TODO: Determine from configuration data whether the Exception that is
-		// handled here is applicable to be retried automatically.
-		
 		if ( StringUtils.isNotBlank(transition) && StringUtils.equals(transition, "retry")) { 
 			getLogger().debug("Determine Exception Handling Handler choosing transition: " + RETRY_TRANSITION_NAME);
 			return RETRY_TRANSITION_NAME; 
 		} 
 		
+		// Determine from configuration data whether the Exception that is
+		// handled here is applicable to be retried automatically.
+		String classChain = (String) executionContext.getVariable(StartExceptionFrameworkHandler.EXCEPTION_CLASS_CHAIN_KEY);
+		if (classChain != null && transition == null
+				&& ExceptionClassifier.isRetryable(ExceptionClassifier.getInstance().classify(classChain))) {
+			int attempt = RetryBackoff.INSTANCE.getAttempt(executionContext);
+			if (!RetryBackoff.INSTANCE.isExhausted(attempt)) {
+				getLogger().debug("Exception " + classChain + " classified to be retried, choosing transition: " + RETRY_TRANSITION_NAME);
+				return RETRY_TRANSITION_NAME;
+			}
+			getLogger().debug("Exception " + classChain + " retried " + attempt + " times already.");
+		}
+		
 		getLogger().debug("Determine Exception Handling Handler choosing transition: " + DROPOUT_TRANSITION_NAME);
 		return DROPOUT_TRANSITION_NAME;
 	}
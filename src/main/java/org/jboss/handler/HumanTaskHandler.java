@@ -1,8 +1,8 @@
 package org.jboss.handler;
 
 import org.apache.log4j.Logger;
+import org.jboss.util.RetryRouting;
 import org.jbpm.graph.def.Event;
-import org.jbpm.graph.def.Node;
 import org.jbpm.graph.exe.ExecutionContext;
 
 /**
@@ -16,7 +16,7 @@ public class HumanTaskHandler extends AbstractExceptionActionHandler {
 	private static final Logger LOGGER = Logger.getLogger(HumanTaskHandler.class);
 
 	// Transition names.
-	private static final String RETRY_TRANSITION_NAME = "Retry";
+	private static final String RETRY_TRANSITION_NAME = RetryRouting.RETRY_TRANSITION_NAME;
 
 	public void doPerformAction(ExecutionContext executionContext) throws Exception {
 		if (Event.EVENTTYPE_NODE_LEAVE.equals(executionContext.getEvent().getEventType()) && RETRY_TRANSITION_NAME.equals(executionContext.getTransition().getName())) {
@@ -27,22 +27,22 @@ public class HumanTaskHandler extends AbstractExceptionActionHandler {
 	}
 
 	/**
-	 * Point the retry transition to the Node from which the Exception
-	 * originated.
+	 * Route the originating process back to the Node from which the Exception
+	 * originated. This is recorded for this instance only, the (shared) process
+	 * definition is left untouched.
 	 * 
 	 * @param executionContext The current jBPM context.
 	 */
 	private void updateRetryTransition(ExecutionContext executionContext) {
 		String name = (String) executionContext.getVariable(EXCEPTION_ORIGINATING_NODE_NAME_KEY);
-		Node originatingNode = executionContext.getProcessDefinition().getNode(name);
 		getLogger().debug("updateRetryTranisition EXCEPTION_ORIGINATING_NODE_NAME_KEY is: " + name);
-		if (originatingNode == null) {
+		if (name == null) {
 			String msg = "No originating node available for retry after exception handling.";
 			LOGGER.error(msg);
 			throw new IllegalStateException(msg);
 		}
 
-		executionContext.getNode().getLeavingTransition(RETRY_TRANSITION_NAME).setTo(originatingNode);
+		RetryRouting.requestRetry(executionContext);
 	}
 
 	protected Logger getLogger() {
@@ -1,8 +1,8 @@
 package org.jboss.handler;
 
 import org.apache.log4j.Logger;
-import org.jbpm.graph.def.Node;
-import org.jbpm.graph.def.Transition;
+import org.jboss.util.RetryBackoff;
+import org.jboss.util.RetryRouting;
 import org.jbpm.graph.exe.ExecutionContext;
 
 /**
@@ -17,28 +17,24 @@ public class RetryHandler extends AbstractExceptionActionHandler {
 	private static final Logger LOGGER = Logger.getLogger(RetryHandler.class);
 
 	public void doPerformAction(ExecutionContext executionContext) throws Exception {
-		// TODO: Determine the waiting period from the configuration.
-
-		// TODO: Wait the applicable period.
-		
-		// Check whether a leaving transition is available.
-		Transition transition = executionContext.getNode().getDefaultLeavingTransition();
-		getLogger().debug("Default leaving transition from RetryHandler is: " + transition);
-		if (transition == null) {
-			// Create a transition.
-			transition = new Transition();
-			executionContext.getNode().addLeavingTransition(transition);
-			getLogger().debug("Leaving transition from RetryHandler has been set to: " + transition);
-		}
-		// Set the transition to the originating node.
-		Node originatingNode = executionContext.getProcessDefinition().getNode(EXCEPTION_ORIGINATING_NODE_NAME_KEY);
-		if (originatingNode == null) {
+		// Route the originating process back to the originating node, for this
+		// instance only. Leaving this node over its default transition then
+		// triggers the originating process.
+		String name = (String) executionContext.getVariable(EXCEPTION_ORIGINATING_NODE_NAME_KEY);
+		if (name == null) {
 			String msg = "No originating node available for retry after exception handling.";
 			LOGGER.error(msg);
 			throw new IllegalStateException(msg);
 		}
-		getLogger().debug("Transition from RetryHandler is being set to: " + originatingNode);
-		transition.setTo(originatingNode);		
+		getLogger().debug("Retry from RetryHandler is being routed to: " + name);
+		RetryRouting.requestRetry(executionContext);
+
+		// Wait the backoff period for this attempt in a persisted timer, which
+		// leaves this node once due, instead of blocking a pool thread.
+		int attempt = RetryBackoff.INSTANCE.getAttempt(executionContext);
+		if (RetryBackoff.INSTANCE.schedule(executionContext, attempt)) {
+			setSignalAfterAction(false);
+		}
 	}
 
 	protected Logger getLogger() {
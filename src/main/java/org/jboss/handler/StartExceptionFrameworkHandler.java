@@ -1,8 +1,11 @@
 package org.jboss.handler;
 
-import java.util.List;
-
 import org.apache.log4j.Logger;
+import org.jboss.util.EventLog;
+import org.jboss.util.EventLog.EventType;
+import org.jboss.util.ExceptionGrouping;
+import org.jboss.util.FrameworkMetrics;
+import org.jboss.util.ProcessDefinitionCache;
 import org.jbpm.graph.def.ActionHandler;
 import org.jbpm.graph.def.ProcessDefinition;
 import org.jbpm.graph.exe.ExecutionContext;
@@ -15,8 +18,13 @@ public class StartExceptionFrameworkHandler implements ActionHandler {
 	/** Context variable keys for storing exception information. */
 	public static final String EXCEPTION_ORIGINATING_NODE_NAME_KEY = "EXCEPTION_ORIGINATING_NODE_NAME";
 	public static final String EXCEPTION_ORIGINATING_PROCESS_NAME_KEY = "EXCEPTION_ORIGINATING_PROCESS_NAME";
+	/** The leaving transitions of the originating node, in the compact form of {@link org.jboss.util.TransitionList}. */
 	public static final String EXCEPTION_ORIGINATING_NODE_TRANSITION_LIST_KEY = "EXCEPTION_ORIGINATING_NODE_TRANSITION_LIST";
 	public static final String EXCEPTION_ORIGINATING_PROCESS_ID_KEY = "EXCEPTION_ORIGINATING_PROCESS_ID";
+	/** The class names of the exception and its causes, see {@link org.jboss.util.ExceptionClassifier#toClassChain(Throwable)}. */
+	public static final String EXCEPTION_CLASS_CHAIN_KEY = "EXCEPTION_CLASS_CHAIN";
+	/** The number of automatic retries in a row for the originating process, reset when it is triggered otherwise. */
+	public static final String EXCEPTION_RETRY_ATTEMPT_KEY = "EXCEPTION_RETRY_ATTEMPT";
 	public static final String EXCEPTION_FRAMEWORK_PROCESS_ID_KEY = "EXCEPTION_FRAMEWORK_PROCESS_ID";
 
 	/** Exception framework process name. */
@@ -33,18 +41,36 @@ public class StartExceptionFrameworkHandler implements ActionHandler {
 	 */
 	public final void execute(ExecutionContext executionContext) throws Exception {
 
-    	getLogger().info("Start StartExceptionFrameworkHanlder.");
-
         try {
+        	FrameworkMetrics.INSTANCE.recordException((String) executionContext.getVariable(EXCEPTION_ORIGINATING_PROCESS_NAME_KEY),
+        			(String) executionContext.getVariable(EXCEPTION_ORIGINATING_NODE_NAME_KEY));
+
+        	// Attach to the exception framework instance of the same failure, if one is waiting for its task.
+        	String fingerprint = null;
+        	if (ExceptionGrouping.INSTANCE.isEnabled()) {
+        		fingerprint = ExceptionGrouping.INSTANCE.fingerprint(
+        				(String) executionContext.getVariable(EXCEPTION_ORIGINATING_PROCESS_NAME_KEY),
+        				(String) executionContext.getVariable(EXCEPTION_ORIGINATING_NODE_NAME_KEY),
+        				(String) executionContext.getVariable(EXCEPTION_CLASS_CHAIN_KEY));
+        		ProcessInstance group = ExceptionGrouping.INSTANCE.join(executionContext.getJbpmContext(), fingerprint,
+        				executionContext.getProcessInstance().getId());
+        		if (group != null) {
+        			executionContext.setVariable(EXCEPTION_FRAMEWORK_PROCESS_ID_KEY, group.getRootToken().getId());
+        			EventLog.INSTANCE.record(EventType.FRAMEWORK_JOINED, (String) executionContext.getVariable(EXCEPTION_ORIGINATING_PROCESS_NAME_KEY),
+        					executionContext.getProcessInstance().getId(), group.getId());
+        			return;
+        		}
+        	}
+
         	// get new instance of exception framework and start processing!
-        	List<ProcessDefinition> listProcs = executionContext.getJbpmContext().getGraphSession().findAllProcessDefinitions();
+        	ProcessDefinition processDefinition = ProcessDefinitionCache.INSTANCE.getLatestProcessDefinition(
+        			executionContext.getJbpmContext(), EXCEPTION_FRAMEWORK_PROCESS_NAME_KEY);
 
         	if (getLogger().isDebugEnabled()) {
-	        	for (ProcessDefinition processDefinition : listProcs) {
-					getLogger().debug("Process definition is: " + processDefinition + " with version: " + processDefinition.getVersion() + ".");
-				}
+        		getLogger().debug("Process definition is: " + processDefinition 
+        				+ (processDefinition == null ? "." : " with version: " + processDefinition.getVersion() + "."));
         	}
-        	processInstance = executionContext.getJbpmContext().newProcessInstance(EXCEPTION_FRAMEWORK_PROCESS_NAME_KEY);
+        	processInstance = new ProcessInstance(processDefinition);
         	if (getLogger().isDebugEnabled()) {
         		if (processInstance == null) {
         			getLogger().debug("Process instance of exception framework was not created.");
@@ -60,23 +86,34 @@ public class StartExceptionFrameworkHandler implements ActionHandler {
         	processInstance.getContextInstance().setVariable(EXCEPTION_ORIGINATING_PROCESS_NAME_KEY, executionContext.getVariable(EXCEPTION_ORIGINATING_PROCESS_NAME_KEY));
         	processInstance.getContextInstance().setVariable(EXCEPTION_ORIGINATING_PROCESS_ID_KEY, executionContext.getVariable(EXCEPTION_ORIGINATING_PROCESS_ID_KEY));
         	processInstance.getContextInstance().setVariable(EXCEPTION_ORIGINATING_NODE_TRANSITION_LIST_KEY, executionContext.getVariable(EXCEPTION_ORIGINATING_NODE_TRANSITION_LIST_KEY));
+        	processInstance.getContextInstance().setVariable(EXCEPTION_CLASS_CHAIN_KEY, executionContext.getVariable(EXCEPTION_CLASS_CHAIN_KEY));
+        	processInstance.getContextInstance().setVariable(EXCEPTION_RETRY_ATTEMPT_KEY, executionContext.getVariable(EXCEPTION_RETRY_ATTEMPT_KEY));
 
         	if (getLogger().isDebugEnabled()) {
         		getLogger().debug("Set variable " + EXCEPTION_ORIGINATING_NODE_NAME_KEY + " for process instance with value :" + executionContext.getVariable(EXCEPTION_ORIGINATING_NODE_NAME_KEY));
         		getLogger().debug("Set variable " + EXCEPTION_ORIGINATING_PROCESS_NAME_KEY + " for process instance with value :" + executionContext.getVariable(EXCEPTION_ORIGINATING_PROCESS_NAME_KEY));
         		getLogger().debug("Set variable " + EXCEPTION_ORIGINATING_PROCESS_ID_KEY + " for process instance with value :" + executionContext.getVariable(EXCEPTION_ORIGINATING_PROCESS_ID_KEY));
         		getLogger().debug("Set variable " + EXCEPTION_ORIGINATING_NODE_TRANSITION_LIST_KEY + " for process instance with value :" + executionContext.getVariable(EXCEPTION_ORIGINATING_NODE_TRANSITION_LIST_KEY));
+        		getLogger().debug("Set variable " + EXCEPTION_CLASS_CHAIN_KEY + " for process instance with value :" + executionContext.getVariable(EXCEPTION_CLASS_CHAIN_KEY));
+        		getLogger().debug("Set variable " + EXCEPTION_RETRY_ATTEMPT_KEY + " for process instance with value :" + executionContext.getVariable(EXCEPTION_RETRY_ATTEMPT_KEY));
         	}
 
         	
         	processInstance.signal();			
+        	FrameworkMetrics.INSTANCE.recordFrameworkStarted();
+        	EventLog.INSTANCE.record(EventType.FRAMEWORK_STARTED, (String) executionContext.getVariable(EXCEPTION_ORIGINATING_PROCESS_NAME_KEY),
+        			executionContext.getProcessInstance().getId(), processInstance.getId());
+
+        	// Let failures with the same fingerprint join while the task is open.
+        	if (fingerprint != null && ExceptionGrouping.HUMAN_TASK_NODE_NAME.equals(processInstance.getRootToken().getNode().getName())) {
+        		executionContext.getJbpmContext().save(processInstance);
+        		ExceptionGrouping.INSTANCE.open(executionContext.getJbpmContext(), fingerprint, processInstance);
+        	}
 	    } catch (Exception ex) {
 	       	 if (getLogger().isInfoEnabled()) {
 	             getLogger().info(("Exception caught during StartExceptionFrameworkHandler."), ex);
 	         }
 	    }
-
-	    getLogger().info("Ended StartExceptionFrameworkHandler.");
     }
 	
 	protected String getCurrentAction() {
@@ -2,7 +2,13 @@ package org.jboss.handler;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
-import org.jbpm.JbpmConfiguration;
+import org.jboss.util.EventLog;
+import org.jboss.util.EventLog.EventType;
+import org.jboss.util.ExceptionGrouping;
+import org.jboss.util.FrameworkMetrics;
+import org.jboss.util.ResumeNotifier;
+import org.jboss.util.RetryBackoff;
+import org.jboss.util.RetryRouting;
 import org.jbpm.JbpmContext;
 import org.jbpm.graph.def.ActionHandler;
 import org.jbpm.graph.exe.ExecutionContext;
@@ -15,73 +21,134 @@ public class TriggerOriginatingProcessHandler implements ActionHandler {
 	/** Context variable keys for storing exception information. */
 	public static final String EXCEPTION_ORIGINATING_PROCESS_ID_KEY = "EXCEPTION_ORIGINATING_PROCESS_ID";
 	public static final String EXCEPTION_ORIGINATING_NODE_LEAVE_TRANSITION_KEY = "EXCEPTION_ORIGINATING_NODE_LEAVE_TRANSITION";
+	public static final String EXCEPTION_RETRY_ATTEMPT_KEY = StartExceptionFrameworkHandler.EXCEPTION_RETRY_ATTEMPT_KEY;
 	
-	private String transitionName;
-	
-	private ProcessInstance originatorProcInst;
-
 	/** Logging facility. */
 	private static final Logger LOGGER = Logger.getLogger(TriggerOriginatingProcessHandler.class);
 	
 	public final void execute(ExecutionContext executionContext) throws Exception {
-	    getLogger().info("Start TriggerOriginatingProcessHandler.");
-
+		Long originatorId = null;
         try {
-        	JbpmConfiguration jbpmConf = JbpmConfiguration.getInstance();
-    		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
-    		 try {   			 
-    			 // Get our process instance back.
-    			 originatorProcInst = jbpmCtx.getProcessInstance((Long) executionContext.getVariable(EXCEPTION_ORIGINATING_PROCESS_ID_KEY));
+        	// Signal the originating process in the context (and so the connection and transaction) 
+        	// this instance is running in.
+        	JbpmContext jbpmCtx = executionContext.getJbpmContext();
 
-	   	       	if (getLogger().isDebugEnabled()) {
-		        	if (originatorProcInst == null) {
-		        		getLogger().debug("Process instance of exception framework was not created.");
-		        	} 
-		        } 	
+        	// Get our process instance back.
+        	originatorId = (Long) executionContext.getVariable(EXCEPTION_ORIGINATING_PROCESS_ID_KEY);
+        	ProcessInstance originatorProcInst = jbpmCtx.getProcessInstanceForUpdate(originatorId);
 
-	    		// Determine from the context variable (see ContextConstants) which transition to take 
-	    	    // when we go back to the originating node. It should always be set to something, but we
-	    	    // will take the default if it is null and log it as an error.
-	    		transitionName = (String) executionContext.getVariable(EXCEPTION_ORIGINATING_NODE_LEAVE_TRANSITION_KEY);
-	    		
-	    		if (StringUtils.isBlank(transitionName)) {
-	    			// Leave the node through the default transition, nothing to do just log this as an error as
-	    			// should never have to happen.
-                    if (getLogger().isDebugEnabled()) {
-                    	getLogger().debug("Leaving transition not set in the context, leaving over the default transition.");
-                    }
-	    		} else {
-	    			// Leave the node through the given transition we need to get out of the context variable if it exists, 
-	    			// so checking it.
-	    			if (originatorProcInst.getRootToken().getNode().hasLeavingTransition(transitionName)) {
-	                    if (getLogger().isDebugEnabled()) {
-	                        getLogger().debug("Leaving node over the given transition " + transitionName);
-	                    }	                    
-	    			} else {
-	    				// given non-existing transition, take default and log error.
-		    			getLogger().error("Leaving transition not set in the context, leaving over the default transition.");
-		    			transitionName = null;
-	    			}
-                }
-	    		
-	    		if (StringUtils.isBlank(transitionName)) {
-	    			originatorProcInst.getRootToken().signal();
-	    		} else {
-	    			originatorProcInst.getRootToken().signal(transitionName);
-	    		}
-	    		executionContext.leaveNode();
-    		 } finally {
-    			 jbpmCtx.close();
-    		 }			
+   	       	if (getLogger().isDebugEnabled()) {
+	        	if (originatorProcInst == null) {
+	        		getLogger().debug("Process instance of exception framework was not created.");
+	        	} 
+	        } 	
+   	       	if (originatorProcInst == null) {
+   	       		throw new IllegalStateException("Originating process instance " + originatorId + " not found.");
+   	       	}
+
+    		// Determine from the context variable (see ContextConstants) which transition to take 
+    	    // when we go back to the originating node.
+    		String requestedTransition = (String) executionContext.getVariable(EXCEPTION_ORIGINATING_NODE_LEAVE_TRANSITION_KEY);
+    		int attempt = RetryBackoff.INSTANCE.getAttempt(executionContext);
+    		trigger(jbpmCtx, originatorProcInst, requestedTransition, attempt);
+    		int triggered = 1;
+
+    		// Release the failures that joined this instance (see ExceptionGrouping) the same way.
+    		if (ExceptionGrouping.INSTANCE.isEnabled()) {
+    			for (Long id : ExceptionGrouping.INSTANCE.release(jbpmCtx, executionContext.getProcessInstance())) {
+    				ProcessInstance member = jbpmCtx.getProcessInstanceForUpdate(id.longValue());
+    				if (member == null || member.hasEnded()) {
+    					getLogger().warn("Grouped process instance " + id + " no longer waiting, not triggering it.");
+    					ResumeNotifier.INSTANCE.failAfterCompletion(jbpmCtx, id.longValue(),
+    							new IllegalStateException("Process instance " + id + " no longer waiting."));
+    				} else {
+    					trigger(jbpmCtx, member, requestedTransition, attempt);
+    					triggered++;
+    				}
+    			}
+    		}
+    		executionContext.leaveNode();
+    		if (executionContext.getProcessInstance().hasEnded()) {
+    			FrameworkMetrics.INSTANCE.recordFrameworkEnded();
+    		}
+    		EventLog.INSTANCE.record(EventType.ORIGINATOR_TRIGGERED, requestedTransition,
+    				executionContext.getProcessInstance().getId(), triggered);
  	    } catch (Exception ex) {
 	       	 if (getLogger().isInfoEnabled()) {
 	             getLogger().info(("Exception caught during TriggerOriginatingProcessHandler."), ex);
 	         }
+	       	 // Part of the originators may have been signalled already, none of it is to commit.
+	       	 executionContext.getJbpmContext().setRollbackOnly();
+	       	 if (originatorId != null) {
+	       		 // Waiters for the originating process would otherwise wait for a resume that is not coming.
+	       		 ResumeNotifier.INSTANCE.failAfterCompletion(executionContext.getJbpmContext(), originatorId.longValue(), ex);
+	       	 }
 	    }
-	    getLogger().info("Ended TriggerOriginatingProcessHandler.");
     }
-	
- 
+
+	/**
+	 * Move an originating process on from the node its exception originated from.
+	 * 
+	 * When its root token is locked, e.g. by an asynchronous continuation, the
+	 * trigger is scheduled as a job instead (see DeferredTriggerHandler).
+	 * 
+	 * @param jbpmCtx The current context.
+	 * @param originatorProcInst The originating process instance.
+	 * @param requestedTransition The transition chosen in the exception framework, or <code>null</code> for the default.
+	 * @param attempt The number of retries done before for the originating node.
+	 */
+	static void trigger(JbpmContext jbpmCtx, ProcessInstance originatorProcInst, String requestedTransition, int attempt) {
+		if (originatorProcInst.getRootToken().isLocked()) {
+			DeferredTriggerHandler.schedule(jbpmCtx, originatorProcInst.getRootToken(), requestedTransition, attempt);
+			return;
+		}
+
+		// The transition should always be set to something, but we will take the default
+		// if it is null and log it as an error.
+		String transitionName = requestedTransition;
+		
+		if (StringUtils.isBlank(transitionName)) {
+			// Leave the node through the default transition, nothing to do just log this as an error as
+			// should never have to happen.
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Leaving transition not set in the context, leaving over the default transition.");
+			}
+		} else if (RetryRouting.isRetry(originatorProcInst.getRootToken(), transitionName)) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Retrying originating node " + originatorProcInst.getRootToken().getNode().getName());
+			}
+		} else {
+			// Leave the node through the given transition we need to get out of the context variable if it exists, 
+			// so checking it.
+			if (originatorProcInst.getRootToken().getNode().hasLeavingTransition(transitionName)) {
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("Leaving node over the given transition " + transitionName);
+				}
+			} else {
+				// given non-existing transition, take default and log error.
+				LOGGER.error("Leaving transition not set in the context, leaving over the default transition.");
+				transitionName = null;
+			}
+		}
+		
+		if (StringUtils.isBlank(transitionName)) {
+			originatorProcInst.getContextInstance().deleteVariable(EXCEPTION_RETRY_ATTEMPT_KEY);
+			originatorProcInst.getRootToken().signal();
+		} else if (RetryRouting.isRetry(originatorProcInst.getRootToken(), transitionName)) {
+			// Count the retry, for the backoff of a next exception in the same node.
+			originatorProcInst.getContextInstance().setVariable(EXCEPTION_RETRY_ATTEMPT_KEY,
+					Integer.valueOf(attempt + 1));
+			RetryRouting.retry(originatorProcInst.getRootToken());
+		} else {
+			originatorProcInst.getContextInstance().deleteVariable(EXCEPTION_RETRY_ATTEMPT_KEY);
+			originatorProcInst.getRootToken().signal(transitionName);
+		}
+
+		// Let waiters in this JVM know once this commits (see ResumeNotifier).
+		ResumeNotifier.INSTANCE.resumeAfterCommit(jbpmCtx, originatorProcInst.getId(),
+				StringUtils.isBlank(transitionName) ? null : transitionName);
+	}
+
 	protected String getCurrentAction() {
 	       return "signaling originating process";
 	}
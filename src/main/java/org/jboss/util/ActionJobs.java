@@ -0,0 +1,127 @@
+package org.jboss.util;
+
+import java.util.Date;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.jbpm.JbpmContext;
+import org.jbpm.graph.def.Action;
+import org.jbpm.graph.def.Event;
+import org.jbpm.graph.def.GraphElement;
+import org.jbpm.graph.def.Node;
+import org.jbpm.graph.exe.ExecutionContext;
+import org.jbpm.graph.exe.Token;
+import org.jbpm.instantiation.Delegation;
+import org.jbpm.job.ExecuteActionJob;
+
+/**
+ * <code>ExecuteActionJob</code>s scheduled by the framework. A job runs an action of the process definition where there is
+ * one; an action made up for the job (with its delegation) is saved along with it and deleted by {@link #release} in the
+ * transaction that runs the job, so no <code>Action</code> and <code>Delegation</code> rows are left behind.
+ */
+public final class ActionJobs {
+    /** Name marking the actions made up for a job. */
+    private static final String AD_HOC_ACTION_NAME = "exception.framework.job";
+
+    private static final String JOBS_OF_ACTION_QUERY = "select j from org.jbpm.job.ExecuteActionJob j "
+            + "where j.action = :action";
+
+    /** Utility class. */
+    private ActionJobs() {
+    }
+
+    /**
+     * @param element
+     *            The node a token waits in.
+     * @param handlerClassName
+     *            The handler class of the action.
+     * @return The action of the node, or of an event of the node or the elements containing it, delegating to the handler
+     *         class; <code>null</code> if there is none.
+     */
+    public static Action findAction(GraphElement element, String handlerClassName) {
+        for (GraphElement e = element; e != null; e = e.getParent()) {
+            if (e instanceof Node && delegatesTo(((Node) e).getAction(), handlerClassName)) {
+                return ((Node) e).getAction();
+            }
+            if (e.getEvents() != null) {
+                for (Object event : e.getEvents().values()) {
+                    List<?> actions = ((Event) event).getActions();
+                    if (actions == null) {
+                        continue;
+                    }
+                    for (Object action : actions) {
+                        if (delegatesTo((Action) action, handlerClassName)) {
+                            return (Action) action;
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Schedule an action of the process definition as a job, in the current transaction.
+     *
+     * @param jbpmCtx
+     *            The current context.
+     * @param token
+     *            The token to run the action on.
+     * @param action
+     *            The action, persisted with its process definition.
+     * @param dueDate
+     *            The time the JobExecutor is to pick up the job.
+     */
+    public static void send(JbpmContext jbpmCtx, Token token, Action action, Date dueDate) {
+        ExecuteActionJob job = new ExecuteActionJob(token);
+        job.setAction(action);
+        job.setDueDate(dueDate);
+        jbpmCtx.getServices().getMessageService().send(job);
+    }
+
+    /**
+     * Schedule an action made up for the job, in the current transaction; the handler calls {@link #release} when it runs.
+     *
+     * @param jbpmCtx
+     *            The current context.
+     * @param token
+     *            The token to run the action on.
+     * @param delegation
+     *            The handler of the action, not yet saved.
+     * @param dueDate
+     *            The time the JobExecutor is to pick up the job.
+     */
+    public static void sendAdHoc(JbpmContext jbpmCtx, Token token, Delegation delegation, Date dueDate) {
+        Action action = new Action(delegation);
+        action.setName(AD_HOC_ACTION_NAME);
+        // have to explicitly save the action context.
+        jbpmCtx.getSession().save(action);
+        send(jbpmCtx, token, action, dueDate);
+    }
+
+    /**
+     * Delete the action being executed if it was made up for its job, in the transaction running the job: the action goes
+     * when the job completes, and stays for the retry when the job rolls back.
+     *
+     * @param executionContext
+     *            The execution context of the action.
+     */
+    public static void release(ExecutionContext executionContext) {
+        Action action = executionContext.getAction();
+        if (action == null || !AD_HOC_ACTION_NAME.equals(action.getName()) || action.getId() == 0) {
+            return;
+        }
+        Session session = executionContext.getJbpmContext().getSession();
+        for (Object job : session.createQuery(JOBS_OF_ACTION_QUERY).setEntity("action", action).list()) {
+            ((ExecuteActionJob) job).setAction(null);
+        }
+        // The job is deleted after the action once the job ran, it must no longer refer to it by then.
+        session.flush();
+        session.delete(action);
+    }
+
+    private static boolean delegatesTo(Action action, String handlerClassName) {
+        return action != null && action.getActionDelegation() != null
+                && handlerClassName.equals(action.getActionDelegation().getClassName());
+    }
+}
@@ -0,0 +1,334 @@
+package org.jboss.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.hibernate.LockMode;
+import org.jboss.handler.AbstractExceptionActionHandler.ServiceRunner;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+import org.jbpm.graph.exe.Token;
+
+/**
+ * Executes asynchronous service calls in batches: service calls arriving within a short window are split into chunks, and
+ * each chunk is performed and signalled in a single <code>JbpmContext</code>, its tokens locked with one query. Every
+ * service call runs behind a savepoint of that transaction: a failing action or signal only rolls back the changes of
+ * its own token, which stays where it is, like a service call rolled back on its own; the chunk commits the others
+ * without performing anything again. Only when the chunk itself cannot be committed are its other service calls handed
+ * to the thread pool, to run again in a transaction each. Batches always lock their tokens pessimistically, whatever the configured lock
+ * mode, and need a JDBC driver supporting savepoints.
+ * <p>
+ * The service calls of a batch are split over as many lanes as the thread pool has threads, by process instance id.
+ * The chunks of a lane are executed one after the other (unless serial execution per instance is disabled), so the
+ * service calls of a process instance keep their order; a lane only holds up the instances routed to it.
+ * <p>
+ * Enabled through <code>jbpm.cfg.xml</code>:
+ *
+ * <pre>
+ * &lt;boolean name=&quot;exception.framework.batch.enabled&quot; value=&quot;true&quot; /&gt;
+ * &lt;long    name=&quot;exception.framework.batch.window&quot; value=&quot;50&quot; /&gt;
+ * &lt;int     name=&quot;exception.framework.batch.chunk.size&quot; value=&quot;50&quot; /&gt;
+ * </pre>
+ */
+public enum BatchingServiceDispatcher {
+    /** The dispatcher singleton instance. */
+    INSTANCE;
+
+    /** Configuration entry to enable batched execution. */
+    public static final String ENABLED_KEY = "exception.framework.batch.enabled";
+    /** Configuration entry for the time (in ms) service calls are collected before a batch is executed. */
+    public static final String WINDOW_KEY = "exception.framework.batch.window";
+    /** Configuration entry for the maximum number of service calls per transaction. */
+    public static final String CHUNK_SIZE_KEY = "exception.framework.batch.chunk.size";
+
+    private static final String TOKENS_QUERY = "select t from org.jbpm.graph.exe.Token t where t.id in (:ids)";
+
+    private static final Logger LOGGER = Logger.getLogger(BatchingServiceDispatcher.class);
+
+    private final boolean enabled = FrameworkConfig.getBoolean(ENABLED_KEY, false);
+    private final long window = FrameworkConfig.getLong(WINDOW_KEY, 50L);
+    private final int chunkSize = Math.max(1, FrameworkConfig.getInt(CHUNK_SIZE_KEY, 50));
+
+    private final BlockingQueue<ServiceRunner> pending = new LinkedBlockingQueue<ServiceRunner>();
+
+    private Thread collector;
+
+    /**
+     * @return Whether service calls are executed in batches.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queue a service call for the next batch.
+     *
+     * @param runner
+     *            The service call.
+     */
+    public void submit(ServiceRunner runner) {
+        pending.add(runner);
+        start();
+    }
+
+    /**
+     * Start the collecting thread, if not already running.
+     */
+    public synchronized void start() {
+        if (collector == null) {
+            collector = new Thread(new Collector(), "ExceptionFrameworkBatchCollector");
+            collector.setDaemon(true);
+            collector.start();
+        }
+    }
+
+    /**
+     * Stop the collecting thread; queued service calls are executed one by one.
+     */
+    public synchronized void stop() {
+        if (collector != null) {
+            collector.interrupt();
+            collector = null;
+        }
+        List<ServiceRunner> remaining = new ArrayList<ServiceRunner>();
+        pending.drainTo(remaining);
+        for (ServiceRunner runner : remaining) {
+            ThreadPoolSingleton.INSTANCE.executeServiceCall(runner.getProcessInstanceId(), runner);
+        }
+    }
+
+    /**
+     * Execute one chunk in the calling thread, in a single transaction.
+     *
+     * @param chunk
+     *            The service calls, at most one per token.
+     */
+    public void executeChunk(List<ServiceRunner> chunk) {
+        // The service calls that failed or retry in place: done with, whether the chunk commits or not.
+        List<ServiceRunner> rolledBack = new ArrayList<ServiceRunner>();
+        boolean failed = false;
+        JbpmContext jbpmCtx = JbpmConfiguration.getInstance().createJbpmContext();
+        try {
+            long start = System.nanoTime();
+            Map<Long, Token> tokens = lockTokens(jbpmCtx, chunk);
+            LockStatistics.INSTANCE.recordPessimisticLock(System.nanoTime() - start);
+            Connection connection = jbpmCtx.getConnection();
+            for (int i = 0; i < chunk.size(); i++) {
+                ServiceRunner runner = chunk.get(i);
+                Token token = tokens.get(Long.valueOf(runner.getTokenId()));
+                if (token == null) {
+                    LOGGER.warn("Token " + runner.getTokenId() + " no longer exists, skipping " + runner);
+                    runner.acknowledge(jbpmCtx);
+                    jbpmCtx.getSession().flush();
+                    continue;
+                }
+                Savepoint savepoint = connection.setSavepoint();
+                if (!perform(jbpmCtx, runner, token)) {
+                    // The session forgets the changes of the others along with those of this service call, they are
+                    // flushed already.
+                    connection.rollback(savepoint);
+                    jbpmCtx.getSession().clear();
+                    rolledBack.add(runner);
+                    tokens = lockTokens(jbpmCtx, chunk.subList(i + 1, chunk.size()));
+                }
+            }
+            if (jbpmCtx.getServices().getTxService().isRollbackOnly()) {
+                LOGGER.error("Batch of " + chunk.size() + " service calls was marked for rollback.");
+                failed = true;
+            }
+        } catch (SQLException ex) {
+            LOGGER.error("Savepoint for batch of " + chunk.size() + " service calls failed.", ex);
+            jbpmCtx.setRollbackOnly();
+            failed = true;
+        } catch (RuntimeException ex) {
+            LOGGER.error("Batch of " + chunk.size() + " service calls failed.", ex);
+            jbpmCtx.setRollbackOnly();
+            failed = true;
+        } finally {
+            try {
+                jbpmCtx.close();
+            } catch (RuntimeException ex) {
+                LOGGER.error("Commit of batch of " + chunk.size() + " service calls failed.", ex);
+                failed = true;
+            }
+        }
+
+        if (failed) {
+            // Nothing of the chunk was committed: the other service calls are run again in a transaction each.
+            for (ServiceRunner runner : chunk) {
+                if (!rolledBack.contains(runner)) {
+                    ThreadPoolSingleton.INSTANCE.executeServiceCall(runner.getProcessInstanceId(), runner);
+                }
+            }
+        }
+    }
+
+    /**
+     * Perform and signal one service call of a chunk, flushing its changes so a savepoint taken afterwards covers them.
+     *
+     * @return <code>false</code> when the changes of the service call are to be rolled back.
+     */
+    private boolean perform(JbpmContext jbpmCtx, ServiceRunner runner, Token token) {
+        try {
+            if (!runner.performInBatch(jbpmCtx, token)) {
+                return false;
+            }
+            jbpmCtx.getSession().flush();
+            return true;
+        } catch (RuntimeException ex) {
+            LOGGER.error("Service call " + runner + " failed, rolling back its token only.", ex);
+            return false;
+        }
+    }
+
+    /**
+     * @return The tokens of the chunk by id, loaded and locked for update with one query.
+     */
+    private Map<Long, Token> lockTokens(JbpmContext jbpmCtx, List<ServiceRunner> chunk) {
+        List<Long> ids = new ArrayList<Long>(chunk.size());
+        for (ServiceRunner runner : chunk) {
+            ids.add(Long.valueOf(runner.getTokenId()));
+        }
+        List<?> loaded = jbpmCtx.getSession().createQuery(TOKENS_QUERY)
+                .setParameterList("ids", ids)
+                .setLockMode("t", LockMode.UPGRADE)
+                .list();
+        Map<Long, Token> tokens = new HashMap<Long, Token>();
+        for (Object o : loaded) {
+            Token token = (Token) o;
+            tokens.put(Long.valueOf(token.getId()), token);
+        }
+        return tokens;
+    }
+
+    /**
+     * Split the service calls of one lane into chunks; a second service call for the same token goes into a later chunk,
+     * so a token is never signalled twice within one transaction.
+     */
+    private List<List<ServiceRunner>> toChunks(List<ServiceRunner> lane) {
+        List<List<ServiceRunner>> chunks = new ArrayList<List<ServiceRunner>>();
+        List<Map<Long, ServiceRunner>> byToken = new ArrayList<Map<Long, ServiceRunner>>();
+        for (ServiceRunner runner : lane) {
+            Long tokenId = Long.valueOf(runner.getTokenId());
+            int i = 0;
+            while (i < chunks.size() && (chunks.get(i).size() >= chunkSize || byToken.get(i).containsKey(tokenId))) {
+                i++;
+            }
+            if (i == chunks.size()) {
+                chunks.add(new ArrayList<ServiceRunner>(chunkSize));
+                byToken.add(new HashMap<Long, ServiceRunner>());
+            }
+            chunks.get(i).add(runner);
+            byToken.get(i).put(tokenId, runner);
+        }
+        return chunks;
+    }
+
+    /**
+     * Split a batch by lane, keeping the order of the service calls.
+     *
+     * @return The service calls per lane key, see {@link ThreadPoolSingleton#executeServiceCall(long, Runnable)}.
+     */
+    private Map<Long, List<ServiceRunner>> toLanes(List<ServiceRunner> batch, int lanes) {
+        Map<Long, List<ServiceRunner>> byLane = new LinkedHashMap<Long, List<ServiceRunner>>();
+        for (ServiceRunner runner : batch) {
+            // Negative keys, apart from the process instance ids the service calls outside batches are keyed by.
+            Long lane = Long.valueOf(-1L - Math.abs(runner.getProcessInstanceId() % lanes));
+            List<ServiceRunner> calls = byLane.get(lane);
+            if (calls == null) {
+                calls = new ArrayList<ServiceRunner>();
+                byLane.put(lane, calls);
+            }
+            calls.add(runner);
+        }
+        return byLane;
+    }
+
+    /**
+     * Executes one chunk on a pool thread.
+     */
+    private class ChunkRunner implements PersistableServiceCall {
+        private final List<ServiceRunner> chunk;
+
+        ChunkRunner(List<ServiceRunner> chunk) {
+            this.chunk = chunk;
+        }
+
+        public void run() {
+            try {
+                ThreadPoolSingleton.INSTANCE.acquireContextPermit();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                persistAsJob();
+                return;
+            }
+            try {
+                executeChunk(chunk);
+            } finally {
+                ThreadPoolSingleton.INSTANCE.releaseContextPermit();
+            }
+        }
+
+        public void persistAsJob() {
+            for (ServiceRunner runner : chunk) {
+                runner.persistAsJob();
+            }
+        }
+    }
+
+    /**
+     * Collects service calls for the configured window and hands the chunks to the thread pool.
+     */
+    private class Collector implements Runnable {
+        /** Fixed while collecting, so the service calls of an instance keep to one lane. */
+        private final int lanes = Math.max(1, ThreadPoolSingleton.INSTANCE.getPoolSize());
+
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    List<ServiceRunner> batch = new ArrayList<ServiceRunner>();
+                    batch.add(pending.take());
+                    long deadline = System.currentTimeMillis() + window;
+                    long remaining = window;
+                    while (remaining > 0) {
+                        ServiceRunner next = pending.poll(remaining, TimeUnit.MILLISECONDS);
+                        if (next != null) {
+                            batch.add(next);
+                            pending.drainTo(batch);
+                        }
+                        remaining = deadline - System.currentTimeMillis();
+                    }
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Executing batch of " + batch.size() + " service calls.");
+                    }
+                    for (Map.Entry<Long, List<ServiceRunner>> lane : toLanes(batch, lanes).entrySet()) {
+                        for (List<ServiceRunner> chunk : toChunks(lane.getValue())) {
+                            ChunkRunner chunkRunner = new ChunkRunner(chunk);
+                            try {
+                                ThreadPoolSingleton.INSTANCE.executeServiceCall(lane.getKey().longValue(), chunkRunner);
+                            } catch (RejectedExecutionException ex) {
+                                LOGGER.warn("Service call pool rejected a batch, executing it in the collecting thread.");
+                                chunkRunner.run();
+                            }
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException ex) {
+                    LOGGER.error("Dispatching batch of service calls failed.", ex);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package org.jboss.util;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Circuit breaker for the service calls of one handler class. Once the failure rate over the last calls crosses the
+ * threshold the breaker opens: asynchronous calls are parked in memory (their tokens keep waiting, no exception handling is
+ * started) and synchronous calls fail fast. A synchronous call from the action of a Node leaves its token in the node, with
+ * a job due when the breaker may close again; no exception handling is started either. Event actions cannot hold back their
+ * token, so they are not protected and always call the service. After the open period a single probe call is let through;
+ * when it succeeds the breaker closes and the parked calls are dispatched again, when it fails the breaker opens for another
+ * period.
+ * <p>
+ * A parked call is used as probe when no new calls come in. Calls that do not fit in the parked capacity are left to the
+ * caller, e.g. to be persisted as a job due when the breaker may close again.
+ * <p>
+ * Parked calls only live in memory. With the outbox dispatch mode their entries stay unacknowledged and are dispatched
+ * again after a crash; in the default synchronization mode a crash loses them and leaves their tokens waiting. The
+ * breakers are therefore off by default, enabled in <code>jbpm.cfg.xml</code>:
+ *
+ * <pre>
+ * &lt;boolean name=&quot;exception.framework.breaker.enabled&quot; value=&quot;true&quot; /&gt;
+ * &lt;int     name=&quot;exception.framework.breaker.window&quot; value=&quot;50&quot; /&gt;
+ * &lt;int     name=&quot;exception.framework.breaker.minimum.calls&quot; value=&quot;20&quot; /&gt;
+ * &lt;int     name=&quot;exception.framework.breaker.failure.threshold&quot; value=&quot;50&quot; /&gt;
+ * &lt;long    name=&quot;exception.framework.breaker.open.duration&quot; value=&quot;30000&quot; /&gt;
+ * &lt;int     name=&quot;exception.framework.breaker.parked.capacity&quot; value=&quot;10000&quot; /&gt;
+ * </pre>
+ */
+public final class CircuitBreaker {
+    /** Configuration entry for switching the breakers on or off. */
+    public static final String ENABLED_KEY = "exception.framework.breaker.enabled";
+    /** Configuration entry for the number of last calls the failure rate is computed over. */
+    public static final String WINDOW_KEY = "exception.framework.breaker.window";
+    /** Configuration entry for the number of calls needed before the breaker can open. */
+    public static final String MINIMUM_CALLS_KEY = "exception.framework.breaker.minimum.calls";
+    /** Configuration entry for the failure percentage that opens the breaker. */
+    public static final String FAILURE_THRESHOLD_KEY = "exception.framework.breaker.failure.threshold";
+    /** Configuration entry for the time (in ms) the breaker stays open before a probe call. */
+    public static final String OPEN_DURATION_KEY = "exception.framework.breaker.open.duration";
+    /** Configuration entry for the maximum number of parked calls per breaker. */
+    public static final String PARKED_CAPACITY_KEY = "exception.framework.breaker.parked.capacity";
+
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class);
+
+    private static final boolean ENABLED = FrameworkConfig.getBoolean(ENABLED_KEY, false);
+
+    private static final ConcurrentMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    /** Dispatches probes for all breakers. */
+    private static ScheduledExecutorService scheduler;
+
+    /**
+     * State of a breaker.
+     */
+    public enum State {
+        /** Calls go through. */
+        CLOSED,
+        /** Calls are parked or fail fast. */
+        OPEN,
+        /** A probe call is going through. */
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final int minimumCalls;
+    private final int failureThreshold;
+    private final long openDuration;
+    private final int parkedCapacity;
+
+    /** Ring of the outcomes of the last calls, <code>true</code> for a failure. */
+    private final boolean[] outcomes;
+    private int next;
+    private int recorded;
+    private int failures;
+
+    private State state = State.CLOSED;
+    /** While open: the time the next probe may go. While half open: the time the probe is given up on. */
+    private long deadline;
+    private boolean probing;
+
+    /** Parked calls by key, so a call dispatched twice is parked once. */
+    private final Map<Object, Runnable> parked = new LinkedHashMap<Object, Runnable>();
+
+    /**
+     * @param name
+     *            Name for logging, e.g. the handler class.
+     * @param window
+     *            The number of last calls the failure rate is computed over.
+     * @param minimumCalls
+     *            The number of calls needed before the breaker can open.
+     * @param failureThreshold
+     *            The failure percentage that opens the breaker.
+     * @param openDuration
+     *            The time (in ms) the breaker stays open before a probe call.
+     * @param parkedCapacity
+     *            The maximum number of parked calls.
+     */
+    public CircuitBreaker(String name, int window, int minimumCalls, int failureThreshold, long openDuration,
+            int parkedCapacity) {
+        this.name = name;
+        this.outcomes = new boolean[Math.max(1, window)];
+        this.minimumCalls = Math.min(Math.max(1, minimumCalls), outcomes.length);
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+        this.parkedCapacity = parkedCapacity;
+    }
+
+    /**
+     * @param handlerClassName
+     *            The handler class performing the service calls.
+     * @return The breaker for the handler class, created with the configured settings on first use.
+     */
+    public static CircuitBreaker forHandler(String handlerClassName) {
+        CircuitBreaker breaker = BREAKERS.get(handlerClassName);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(handlerClassName, FrameworkConfig.getInt(WINDOW_KEY, 50), FrameworkConfig.getInt(
+                    MINIMUM_CALLS_KEY, 20), FrameworkConfig.getInt(FAILURE_THRESHOLD_KEY, 50), FrameworkConfig.getLong(
+                    OPEN_DURATION_KEY, 30000L), FrameworkConfig.getInt(PARKED_CAPACITY_KEY, 10000));
+            CircuitBreaker existing = BREAKERS.putIfAbsent(handlerClassName, breaker);
+            if (existing != null) {
+                breaker = existing;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * @return Whether circuit breaking is switched on.
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Ask to perform a call; every permitted call has to be followed by {@link #recordSuccess()} or {@link #recordFailure()}.
+     *
+     * @return Whether the call may go through.
+     */
+    public synchronized boolean allowCall() {
+        long now = System.currentTimeMillis();
+        switch (state) {
+        case CLOSED:
+            return true;
+        case OPEN:
+            if (now < deadline) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            break;
+        default:
+            // A probe that never reported back (e.g. persisted as job) is given up on after the open period.
+            if (probing && now < deadline) {
+                return false;
+            }
+            break;
+        }
+        probing = true;
+        deadline = now + openDuration;
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Circuit breaker " + name + " lets a probe call through.");
+        }
+        return true;
+    }
+
+    /**
+     * A permitted call succeeded.
+     */
+    public void recordSuccess() {
+        List<Runnable> resumed = null;
+        synchronized (this) {
+            if (state == State.HALF_OPEN) {
+                state = State.CLOSED;
+                probing = false;
+                resetWindow();
+                resumed = new ArrayList<Runnable>(parked.values());
+                parked.clear();
+                LOGGER.info("Circuit breaker " + name + " closed, resuming " + resumed.size() + " parked calls.");
+            } else if (state == State.CLOSED) {
+                record(false);
+            }
+        }
+        if (resumed != null && !resumed.isEmpty()) {
+            final List<Runnable> calls = resumed;
+            // Dispatch from the probe thread, not from the service call that reported the success.
+            getScheduler().execute(new Runnable() {
+                public void run() {
+                    for (Runnable call : calls) {
+                        try {
+                            call.run();
+                        } catch (RuntimeException ex) {
+                            LOGGER.error("Parked call for circuit breaker " + name + " could not be dispatched.", ex);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * A permitted call failed.
+     */
+    public synchronized void recordFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (recorded >= minimumCalls && failures * 100 >= failureThreshold * recorded) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * Park a call that was not allowed through, to be run again once the breaker closes.
+     *
+     * @param key
+     *            Identifies the call, e.g. the id of the waiting token.
+     * @param call
+     *            Dispatches the call again.
+     * @return Whether the call was parked (or run right away when the breaker closed in the meantime); <code>false</code>
+     *         when the parked capacity is reached.
+     */
+    public boolean park(Object key, Runnable call) {
+        synchronized (this) {
+            if (state != State.CLOSED) {
+                if (parked.size() >= parkedCapacity && !parked.containsKey(key)) {
+                    return false;
+                }
+                parked.put(key, call);
+                return true;
+            }
+        }
+        call.run();
+        return true;
+    }
+
+    /**
+     * @return The time the breaker may close again, e.g. as due date for a call that could not be parked.
+     */
+    public synchronized Date getRetryTime() {
+        return new Date(state == State.CLOSED ? System.currentTimeMillis() : deadline);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getParkedCount() {
+        return parked.size();
+    }
+
+    private void record(boolean failure) {
+        if (recorded == outcomes.length) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        outcomes[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+    }
+
+    private void resetWindow() {
+        next = 0;
+        recorded = 0;
+        failures = 0;
+    }
+
+    /** Called holding the lock. */
+    private void open() {
+        state = State.OPEN;
+        probing = false;
+        deadline = System.currentTimeMillis() + openDuration;
+        resetWindow();
+        LOGGER.warn("Circuit breaker " + name + " opened for " + openDuration + " ms.");
+        scheduleProbe(openDuration);
+    }
+
+    private void scheduleProbe(long delay) {
+        getScheduler().schedule(new Runnable() {
+            public void run() {
+                probeParked();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Dispatch a parked call again as probe, for when no new calls come in.
+     */
+    private void probeParked() {
+        Runnable call = null;
+        synchronized (this) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (state == State.OPEN && remaining > 0) {
+                scheduleProbe(remaining);
+                return;
+            }
+            Iterator<Runnable> it = parked.values().iterator();
+            if (state == State.OPEN && it.hasNext()) {
+                call = it.next();
+                it.remove();
+            }
+        }
+        if (call != null) {
+            try {
+                call.run();
+            } catch (RuntimeException ex) {
+                LOGGER.error("Probe call for circuit breaker " + name + " could not be dispatched.", ex);
+            }
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ExceptionFrameworkCircuitBreaker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return scheduler;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "CircuitBreaker(" + name + ", " + getState() + ")";
+    }
+}
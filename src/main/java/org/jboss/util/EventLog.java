@@ -0,0 +1,232 @@
+package org.jboss.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Structured event log for the handlers of the exception framework, replacing their synchronous INFO lines.
+ * <p>
+ * Recording an event fills a slot of a preallocated ring buffer and returns; a background thread drains the ring to the
+ * <code>org.jboss.exceptionframework.events</code> log4j category (give it a file appender of its own). The cost per
+ * event is bounded: no allocation, no lock, and when the drain falls behind the event is dropped and counted rather
+ * than waited for. Repeated identical events (same type and source) are sampled: beyond the configured number per
+ * second the rest is counted, and the count is written with the next event that gets through. Sampling shares a fixed
+ * table of counters, so two kinds of events may now and then be sampled together. Configured in
+ * <code>jbpm.cfg.xml</code>:
+ *
+ * <pre>
+ * &lt;boolean name=&quot;exception.framework.events.enabled&quot; value=&quot;true&quot; /&gt;
+ * &lt;int     name=&quot;exception.framework.events.capacity&quot; value=&quot;8192&quot; /&gt;
+ * &lt;int     name=&quot;exception.framework.events.sample.limit&quot; value=&quot;100&quot; /&gt;
+ * </pre>
+ */
+public enum EventLog {
+    /** The event log singleton instance. */
+    INSTANCE;
+
+    /** Configuration entry for switching the event log on or off. */
+    public static final String ENABLED_KEY = "exception.framework.events.enabled";
+    /** Configuration entry for the number of slots in the ring, rounded up to a power of two. */
+    public static final String CAPACITY_KEY = "exception.framework.events.capacity";
+    /** Configuration entry for the number of identical events per second written before sampling starts. */
+    public static final String SAMPLE_LIMIT_KEY = "exception.framework.events.sample.limit";
+
+    /** Category the events are written to. */
+    public static final String CATEGORY = "org.jboss.exceptionframework.events";
+
+    /**
+     * The kinds of events.
+     */
+    public enum EventType {
+        /** A handler executed its action (value: duration in ns). */
+        ACTION_EXECUTED,
+        /** An Exception Framework instance was started for a failure (value: id of the framework instance). */
+        FRAMEWORK_STARTED,
+        /** A failure joined the group of a running Exception Framework instance (value: id of that instance). */
+        FRAMEWORK_JOINED,
+        /** An Exception Framework instance triggered its originating instances (value: number triggered). */
+        ORIGINATOR_TRIGGERED
+    }
+
+    /** Size of the table of sampling counters. */
+    private static final int SAMPLE_SLOTS = 256;
+    /** Time (in ms) the drain thread waits when the ring is empty. */
+    private static final long DRAIN_INTERVAL = 10;
+
+    private final boolean enabled = FrameworkConfig.getBoolean(ENABLED_KEY, true);
+    private final int sampleLimit = FrameworkConfig.getInt(SAMPLE_LIMIT_KEY, 100);
+    private final Slot[] ring = newRing(FrameworkConfig.getInt(CAPACITY_KEY, 8192));
+    private final int mask = ring.length - 1;
+
+    /** Next sequence to claim by a producer. */
+    private final AtomicLong head = new AtomicLong();
+    /** Next sequence to drain; written by the drain thread only. */
+    private volatile long tail;
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** Per sampling slot: the second counted, the events in it and the events sampled out. */
+    private final AtomicLongArray sampleSecond = new AtomicLongArray(SAMPLE_SLOTS);
+    private final AtomicLongArray sampleCount = new AtomicLongArray(SAMPLE_SLOTS);
+    private final AtomicLongArray sampleSuppressed = new AtomicLongArray(SAMPLE_SLOTS);
+
+    private volatile Thread drain;
+
+    /**
+     * Record an event.
+     *
+     * @param type
+     *            The kind of event.
+     * @param source
+     *            Where it happened, e.g. the handler class name; with the type it identifies identical events.
+     * @param processInstanceId
+     *            The process instance it happened for.
+     * @param value
+     *            The value belonging to the type of event.
+     */
+    public void record(EventType type, String source, long processInstanceId, long value) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int sample = (type.ordinal() * 31 + (source == null ? 0 : source.hashCode())) & (SAMPLE_SLOTS - 1);
+        if (!admit(sample, now / 1000)) {
+            sampleSuppressed.incrementAndGet(sample);
+            return;
+        }
+
+        long sequence = head.get();
+        while (true) {
+            if (sequence - tail >= ring.length) {
+                dropped.incrementAndGet();
+                return;
+            }
+            if (head.compareAndSet(sequence, sequence + 1)) {
+                break;
+            }
+            sequence = head.get();
+        }
+        Slot slot = ring[(int) sequence & mask];
+        slot.time = now;
+        slot.type = type;
+        slot.source = source;
+        slot.processInstanceId = processInstanceId;
+        slot.value = value;
+        slot.suppressed = sampleSuppressed.getAndSet(sample, 0);
+        // Publish the slot to the drain thread.
+        slot.published = sequence + 1;
+        ensureDraining();
+    }
+
+    /**
+     * @return The number of events dropped because the drain thread fell behind.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return The number of events recorded but not written yet.
+     */
+    public long getPending() {
+        return head.get() - tail;
+    }
+
+    private boolean admit(int sample, long second) {
+        long counted = sampleSecond.get(sample);
+        if (counted != second && sampleSecond.compareAndSet(sample, counted, second)) {
+            sampleCount.set(sample, 0);
+        }
+        return sampleCount.incrementAndGet(sample) <= sampleLimit;
+    }
+
+    private void ensureDraining() {
+        if (drain == null) {
+            startDrain();
+        }
+    }
+
+    private synchronized void startDrain() {
+        if (drain != null) {
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                drain();
+            }
+        }, "ExceptionFrameworkEventLog");
+        thread.setDaemon(true);
+        thread.start();
+        drain = thread;
+    }
+
+    private void drain() {
+        Logger events = Logger.getLogger(CATEGORY);
+        StringBuilder line = new StringBuilder(256);
+        long reportedDropped = 0;
+        while (true) {
+            long sequence = tail;
+            Slot slot = ring[(int) sequence & mask];
+            if (slot.published != sequence + 1) {
+                long droppedNow = dropped.get();
+                if (droppedNow != reportedDropped) {
+                    events.warn("type=EVENTS_DROPPED value=" + (droppedNow - reportedDropped));
+                    reportedDropped = droppedNow;
+                }
+                try {
+                    Thread.sleep(DRAIN_INTERVAL);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                continue;
+            }
+
+            line.setLength(0);
+            line.append("type=").append(slot.type.name())
+                    .append(" time=").append(slot.time)
+                    .append(" source=").append(slot.source)
+                    .append(" processInstance=").append(slot.processInstanceId)
+                    .append(" value=").append(slot.value);
+            if (slot.suppressed > 0) {
+                line.append(" suppressed=").append(slot.suppressed);
+            }
+            slot.source = null;
+            // Free the slot for the producers.
+            tail = sequence + 1;
+            try {
+                events.info(line.toString());
+            } catch (RuntimeException ex) {
+                // Never let a failing appender stop the drain.
+                Logger.getLogger(EventLog.class).error("Could not write event.", ex);
+            }
+        }
+    }
+
+    /** Called while the enum constant is initialized. */
+    private static Slot[] newRing(int capacity) {
+        int size = 1;
+        while (size < capacity && size < (1 << 30)) {
+            size <<= 1;
+        }
+        Slot[] ring = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Slot();
+        }
+        return ring;
+    }
+
+    /**
+     * A preallocated slot of the ring.
+     */
+    private static final class Slot {
+        /** Sequence + 1 of the event in the slot once written, the drain thread reads the other fields after it. */
+        volatile long published;
+        long time;
+        EventType type;
+        String source;
+        long processInstanceId;
+        long value;
+        long suppressed;
+    }
+}
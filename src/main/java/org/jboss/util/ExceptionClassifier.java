@@ -0,0 +1,257 @@
+package org.jboss.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.jbpm.util.ClassLoaderUtil;
+
+/**
+ * Decides how an exception is handled by the Exception Framework, from a table of exception class names compiled from
+ * configuration. A configured class matches its subclasses too; the first exception in the cause chain (outermost first)
+ * that matches decides, otherwise the default applies. The outcome is cached per exception class, so after the first time
+ * a decision costs a map lookup per exception in the chain.
+ * <p>
+ * The table is read from the properties resource named in <code>jbpm.cfg.xml</code>:
+ *
+ * <pre>
+ * &lt;string name=&quot;exception.framework.classification.resource&quot; value=&quot;exception.classification.properties&quot; /&gt;
+ * </pre>
+ *
+ * A new table can be swapped in at runtime with {@link #reload()} or {@link #setInstance(ExceptionClassifier)}.
+ */
+public final class ExceptionClassifier {
+    /** Configuration entry for the classification resource. */
+    public static final String RESOURCE_KEY = "exception.framework.classification.resource";
+    /** Key in the classification resource for the outcome when no class matches. */
+    public static final String DEFAULT_KEY = "default";
+
+    /** Separator of class names in a cause chain, see {@link #toClassChain(Throwable)}. */
+    private static final String CHAIN_SEPARATOR = ",";
+
+    private static final Logger LOGGER = Logger.getLogger(ExceptionClassifier.class);
+
+    /**
+     * How the Exception Framework handles an exception.
+     */
+    public enum Classification {
+        /** Retry in place a few times first (see {@link InPlaceRetry}), then like {@link #RETRY}. */
+        TRANSIENT,
+        /** Retry the originating node automatically. */
+        RETRY,
+        /** Have an expert look at it. */
+        HUMAN_TASK
+    }
+
+    private static volatile ExceptionClassifier instance;
+
+    /** Configured class names. */
+    private final Map<String, Classification> table;
+    private final Classification defaultClassification;
+    /** Outcome per exception class name; <code>null</code> values are stored as {@link #UNMATCHED}. */
+    private final ConcurrentMap<String, Object> cache = new ConcurrentHashMap<String, Object>();
+
+    private static final Object UNMATCHED = new Object();
+
+    /**
+     * @param classification
+     *            Exception class names mapped to the (case insensitive) name of a {@link Classification}, plus optionally
+     *            the {@link #DEFAULT_KEY}.
+     */
+    public ExceptionClassifier(Properties classification) {
+        Map<String, Classification> compiled = new HashMap<String, Classification>();
+        Classification defaultValue = Classification.HUMAN_TASK;
+        for (Map.Entry<Object, Object> entry : classification.entrySet()) {
+            String key = ((String) entry.getKey()).trim();
+            Classification value = toClassification(key, (String) entry.getValue());
+            if (value == null) {
+                continue;
+            }
+            if (DEFAULT_KEY.equals(key)) {
+                defaultValue = value;
+            } else {
+                compiled.put(key, value);
+            }
+        }
+        this.table = Collections.unmodifiableMap(compiled);
+        this.defaultClassification = defaultValue;
+    }
+
+    /**
+     * @return The classifier currently in use, loaded from the configured resource on first use.
+     */
+    public static ExceptionClassifier getInstance() {
+        ExceptionClassifier current = instance;
+        if (current == null) {
+            synchronized (ExceptionClassifier.class) {
+                if (instance == null) {
+                    instance = load();
+                }
+                current = instance;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Swap in a new classifier; decisions in progress finish with the previous one.
+     *
+     * @param classifier
+     *            The new classifier.
+     */
+    public static void setInstance(ExceptionClassifier classifier) {
+        instance = classifier;
+    }
+
+    /**
+     * Read the configured resource again and swap in the result.
+     */
+    public static void reload() {
+        setInstance(load());
+        LOGGER.info("Reloaded exception classification.");
+    }
+
+    /**
+     * @param throwable
+     *            The exception, including its causes.
+     * @return How to handle it.
+     */
+    public Classification classify(Throwable throwable) {
+        for (Throwable t = throwable; t != null; t = t.getCause()) {
+            Classification classification = lookup(t.getClass());
+            if (classification != null) {
+                return classification;
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return defaultClassification;
+    }
+
+    /**
+     * @param classChain
+     *            The class names of an exception and its causes, as created by {@link #toClassChain(Throwable)}.
+     * @return How to handle it.
+     */
+    public Classification classify(String classChain) {
+        if (classChain != null) {
+            for (String className : classChain.split(CHAIN_SEPARATOR)) {
+                Classification classification = lookup(className.trim());
+                if (classification != null) {
+                    return classification;
+                }
+            }
+        }
+        return defaultClassification;
+    }
+
+    /**
+     * @param classification
+     *            A classification.
+     * @return Whether it leads to an automatic retry by the Exception Framework.
+     */
+    public static boolean isRetryable(Classification classification) {
+        return classification == Classification.RETRY || classification == Classification.TRANSIENT;
+    }
+
+    /**
+     * @param throwable
+     *            An exception.
+     * @return The class names of the exception and its causes, outermost first; compact enough for a string variable.
+     */
+    public static String toClassChain(Throwable throwable) {
+        StringBuilder sb = new StringBuilder();
+        for (Throwable t = throwable; t != null; t = t.getCause()) {
+            if (sb.length() > 0) {
+                sb.append(CHAIN_SEPARATOR);
+            }
+            sb.append(t.getClass().getName());
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private Classification lookup(Class<?> exceptionClass) {
+        Object cached = cache.get(exceptionClass.getName());
+        if (cached == null) {
+            cached = resolve(exceptionClass);
+            cache.putIfAbsent(exceptionClass.getName(), cached);
+        }
+        return cached == UNMATCHED ? null : (Classification) cached;
+    }
+
+    private Classification lookup(String className) {
+        Object cached = cache.get(className);
+        if (cached == null) {
+            Classification direct = table.get(className);
+            if (direct != null) {
+                cached = direct;
+            } else {
+                // Resolve the class once to take its superclasses into account.
+                try {
+                    cached = resolve(ClassLoaderUtil.loadClass(className));
+                } catch (RuntimeException ex) {
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Exception class " + className + " not available, matching on its name only.");
+                    }
+                    cached = UNMATCHED;
+                }
+            }
+            cache.putIfAbsent(className, cached);
+        }
+        return cached == UNMATCHED ? null : (Classification) cached;
+    }
+
+    /**
+     * @return The classification of the nearest configured class in the hierarchy, or {@link #UNMATCHED}.
+     */
+    private Object resolve(Class<?> exceptionClass) {
+        for (Class<?> c = exceptionClass; c != null; c = c.getSuperclass()) {
+            Classification classification = table.get(c.getName());
+            if (classification != null) {
+                return classification;
+            }
+        }
+        return UNMATCHED;
+    }
+
+    private static Classification toClassification(String key, String value) {
+        try {
+            return Classification.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            LOGGER.error("Unknown classification '" + value + "' for " + key + ", ignoring it.");
+            return null;
+        }
+    }
+
+    private static ExceptionClassifier load() {
+        String resource = FrameworkConfig.getString(RESOURCE_KEY, "exception.classification.properties");
+        Properties properties = new Properties();
+        InputStream in = ClassLoaderUtil.getStream(resource);
+        if (in == null) {
+            LOGGER.warn("Exception classification " + resource + " not found, all exceptions go to a human task.");
+        } else {
+            try {
+                properties.load(in);
+            } catch (IOException ex) {
+                LOGGER.error("Unable to read exception classification " + resource + ".", ex);
+            } finally {
+                try {
+                    in.close();
+                } catch (IOException ex) {
+                    // Ignore.
+                }
+            }
+        }
+        return new ExceptionClassifier(properties);
+    }
+}
@@ -0,0 +1,275 @@
+package org.jboss.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.jboss.handler.StartExceptionFrameworkHandler;
+import org.jboss.handler.TriggerOriginatingProcessHandler;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+import org.jbpm.context.exe.ContextInstance;
+import org.jbpm.graph.exe.ProcessInstance;
+import org.jbpm.taskmgmt.exe.TaskInstance;
+
+/**
+ * Background compaction of ended Exception Framework instances. Every handled exception leaves an ended instance behind,
+ * with its tokens, variables, task instances, jobs and logs; once it ended longer ago than the retention period it is
+ * replaced by an {@link ExceptionFrameworkSummary} row and deleted.
+ * <p>
+ * Instances are archived in small batches, one transaction per batch, so locks are held briefly; when a batch fails its
+ * instances are archived one by one. Between batches the archiver pauses, and it waits as long as service calls are
+ * queued in the pool, to leave the database to live traffic. It starts with the jBPM configuration (see
+ * {@link ExceptionFrameworkServiceFactory}) and runs at the configured interval.
+ * <p>
+ * Off by default, as it deletes process instances: enable it in <code>jbpm.cfg.xml</code> once the retention period
+ * suits the audit needs of the installation, and keep the <code>exception.framework</code> service in the
+ * <code>jbpm-context</code>, which starts it:
+ *
+ * <pre>
+ * &lt;boolean name=&quot;exception.framework.archive.enabled&quot; value=&quot;true&quot; /&gt;
+ * &lt;long    name=&quot;exception.framework.archive.retention&quot; value=&quot;604800000&quot; /&gt;
+ * &lt;long    name=&quot;exception.framework.archive.interval&quot; value=&quot;3600000&quot; /&gt;
+ * &lt;int     name=&quot;exception.framework.archive.batch.size&quot; value=&quot;20&quot; /&gt;
+ * &lt;long    name=&quot;exception.framework.archive.batch.pause&quot; value=&quot;500&quot; /&gt;
+ * </pre>
+ */
+public enum ExceptionFrameworkArchiver {
+    /** The archiver singleton instance. */
+    INSTANCE;
+
+    /** Configuration entry for switching the archiver on or off. */
+    public static final String ENABLED_KEY = "exception.framework.archive.enabled";
+    /** Configuration entry for the time (in ms) an ended instance is kept before it is archived. */
+    public static final String RETENTION_KEY = "exception.framework.archive.retention";
+    /** Configuration entry for the time (in ms) between two runs. */
+    public static final String INTERVAL_KEY = "exception.framework.archive.interval";
+    /** Configuration entry for the number of instances archived per transaction. */
+    public static final String BATCH_SIZE_KEY = "exception.framework.archive.batch.size";
+    /** Configuration entry for the time (in ms) the archiver pauses between two batches. */
+    public static final String BATCH_PAUSE_KEY = "exception.framework.archive.batch.pause";
+
+    private static final String ENDED_QUERY = "select pi.id from org.jbpm.graph.exe.ProcessInstance pi "
+            + "where pi.processDefinition.name = :name and pi.end < :endedBefore and pi.id > :after order by pi.id";
+
+    private static final Logger LOGGER = Logger.getLogger(ExceptionFrameworkArchiver.class);
+
+    private final boolean enabled = FrameworkConfig.getBoolean(ENABLED_KEY, false);
+    private final long retention = FrameworkConfig.getLong(RETENTION_KEY, 604800000L);
+    private final long interval = FrameworkConfig.getLong(INTERVAL_KEY, 3600000L);
+    private final int batchSize = Math.max(1, FrameworkConfig.getInt(BATCH_SIZE_KEY, 20));
+    private final long batchPause = FrameworkConfig.getLong(BATCH_PAUSE_KEY, 500L);
+
+    private volatile Thread archiver;
+
+    /**
+     * @return Whether ended instances are archived in the background.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start the archiver thread, if enabled and not already running.
+     */
+    public void start() {
+        if (enabled && archiver == null) {
+            startThread();
+        }
+    }
+
+    /**
+     * Stop the archiver thread; a batch in progress is rolled back.
+     */
+    public synchronized void stop() {
+        if (archiver != null) {
+            archiver.interrupt();
+            archiver = null;
+        }
+    }
+
+    /**
+     * Archive all Exception Framework instances that ended before the given time, with the configured throttling.
+     *
+     * @param endedBefore
+     *            The end time up to which instances are archived.
+     * @return The number of instances archived.
+     * @throws InterruptedException
+     *             When interrupted while pausing between batches.
+     */
+    public int archive(Date endedBefore) throws InterruptedException {
+        int archived = 0;
+        long after = 0;
+        while (true) {
+            List<Long> ids = findEnded(endedBefore, after);
+            if (ids.isEmpty()) {
+                return archived;
+            }
+            archived += archiveBatch(ids);
+            after = ids.get(ids.size() - 1).longValue();
+            throttle();
+        }
+    }
+
+    private synchronized void startThread() {
+        if (archiver != null) {
+            return;
+        }
+        Thread thread = new Thread(new Archiver(), "ExceptionFrameworkArchiver");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        archiver = thread;
+        LOGGER.info("Started archiver, archiving instances ended more than " + retention + " ms ago every " + interval
+                + " ms.");
+    }
+
+    /**
+     * @return The ids of the next batch of ended instances, in id order.
+     */
+    private List<Long> findEnded(Date endedBefore, long after) {
+        JbpmContext jbpmCtx = JbpmConfiguration.getInstance().createJbpmContext();
+        try {
+            List<Long> ids = new ArrayList<Long>();
+            for (Object id : jbpmCtx.getSession().createQuery(ENDED_QUERY)
+                    .setString("name", StartExceptionFrameworkHandler.EXCEPTION_FRAMEWORK_PROCESS_NAME_KEY)
+                    .setTimestamp("endedBefore", endedBefore)
+                    .setLong("after", after)
+                    .setMaxResults(batchSize)
+                    .list()) {
+                ids.add((Long) id);
+            }
+            return ids;
+        } finally {
+            jbpmCtx.close();
+        }
+    }
+
+    /**
+     * Archive a batch in one transaction, or one by one when that fails.
+     *
+     * @return The number of instances archived.
+     */
+    private int archiveBatch(List<Long> ids) {
+        try {
+            return archiveInContext(ids);
+        } catch (RuntimeException ex) {
+            LOGGER.warn("Archiving batch of " + ids.size() + " instances failed, archiving them one by one: " + ex);
+        }
+        int archived = 0;
+        for (Long id : ids) {
+            try {
+                archived += archiveInContext(Collections.singletonList(id));
+            } catch (RuntimeException ex) {
+                LOGGER.error("Could not archive process instance " + id + ", retrying in the next run.", ex);
+            }
+        }
+        return archived;
+    }
+
+    private int archiveInContext(List<Long> ids) {
+        int archived = 0;
+        JbpmContext jbpmCtx = JbpmConfiguration.getInstance().createJbpmContext();
+        try {
+            for (Long id : ids) {
+                if (archive(jbpmCtx, id.longValue())) {
+                    archived++;
+                }
+            }
+        } catch (RuntimeException ex) {
+            jbpmCtx.setRollbackOnly();
+            throw ex;
+        } finally {
+            jbpmCtx.close();
+        }
+        return archived;
+    }
+
+    /**
+     * @return Whether the instance was archived, not when it was already gone (e.g. archived by another node).
+     */
+    private boolean archive(JbpmContext jbpmCtx, long processInstanceId) {
+        ProcessInstance processInstance = jbpmCtx.getProcessInstance(processInstanceId);
+        if (processInstance == null || !processInstance.hasEnded()) {
+            return false;
+        }
+
+        ContextInstance variables = processInstance.getContextInstance();
+        ExceptionFrameworkSummary summary = new ExceptionFrameworkSummary(processInstanceId, processInstance.getStart(),
+                processInstance.getEnd());
+        Object originatorId = variables.getVariable(StartExceptionFrameworkHandler.EXCEPTION_ORIGINATING_PROCESS_ID_KEY);
+        if (originatorId instanceof Number) {
+            summary.setOriginatingProcessInstanceId(((Number) originatorId).longValue());
+        }
+        summary.setOriginatingProcessName(toString(variables
+                .getVariable(StartExceptionFrameworkHandler.EXCEPTION_ORIGINATING_PROCESS_NAME_KEY)));
+        summary.setOriginatingNodeName(toString(variables
+                .getVariable(StartExceptionFrameworkHandler.EXCEPTION_ORIGINATING_NODE_NAME_KEY)));
+        summary.setExceptionClassChain(toString(variables
+                .getVariable(StartExceptionFrameworkHandler.EXCEPTION_CLASS_CHAIN_KEY)));
+        summary.setLeaveTransition(toString(variables
+                .getVariable(TriggerOriginatingProcessHandler.EXCEPTION_ORIGINATING_NODE_LEAVE_TRANSITION_KEY)));
+        Object attempt = variables.getVariable(StartExceptionFrameworkHandler.EXCEPTION_RETRY_ATTEMPT_KEY);
+        if (attempt instanceof Number) {
+            summary.setRetryAttempt(((Number) attempt).intValue());
+        }
+        if (processInstance.getTaskMgmtInstance() != null) {
+            Collection<?> taskInstances = processInstance.getTaskMgmtInstance().getTaskInstances();
+            if (taskInstances != null) {
+                for (Object taskInstance : taskInstances) {
+                    if (((TaskInstance) taskInstance).hasEnded()) {
+                        summary.setResolvedBy(((TaskInstance) taskInstance).getActorId());
+                    }
+                }
+            }
+        }
+
+        jbpmCtx.getSession().save(summary);
+        // Removes the logs, jobs and task instances too; tokens and variables go with the instance.
+        jbpmCtx.getGraphSession().deleteProcessInstance(processInstance, true, true);
+        return true;
+    }
+
+    /**
+     * Pause between batches, and for as long as service calls are waiting for the pool.
+     */
+    private void throttle() throws InterruptedException {
+        do {
+            Thread.sleep(batchPause);
+        } while (ThreadPoolSingleton.INSTANCE.getQueueDepth() > 0);
+    }
+
+    private static String toString(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * Archives the instances past the retention period at the configured interval.
+     */
+    private class Archiver implements Runnable {
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    int archived = archive(new Date(System.currentTimeMillis() - retention));
+                    if (archived > 0) {
+                        LOGGER.info("Archived " + archived + " Exception Framework instances.");
+                    }
+                    Thread.sleep(interval);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException ex) {
+                    LOGGER.error("Archiving failed, retrying after " + interval + " ms.", ex);
+                    try {
+                        Thread.sleep(interval);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            LOGGER.info("Archiver stopped.");
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.jboss.util;
+
+import org.jbpm.svc.Service;
+import org.jbpm.svc.ServiceFactory;
+
+/**
+ * Starts the background work of the Exception Framework with the jBPM configuration. jBPM creates the service factories
+ * of the <code>jbpm-context</code> with the first <code>JbpmContext</code>, so after a restart the outbox dispatcher
+ * picks up the service calls left pending before any new one arrives, and the archiver compacts the instances that ended
+ * while the application was down. Registered in <code>jbpm.cfg.xml</code>:
+ *
+ * <pre>
+ * &lt;service name=&quot;exception.framework&quot; factory=&quot;org.jboss.util.ExceptionFrameworkServiceFactory&quot; /&gt;
+ * </pre>
+ */
+public class ExceptionFrameworkServiceFactory implements ServiceFactory {
+    /** Serial version UID. */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Start the outbox dispatcher and the archiver, if enabled.
+     */
+    public ExceptionFrameworkServiceFactory() {
+        if (ServiceCallOutbox.INSTANCE.isEnabled()) {
+            ServiceCallOutbox.INSTANCE.start();
+        }
+        if (ExceptionFrameworkArchiver.INSTANCE.isEnabled()) {
+            ExceptionFrameworkArchiver.INSTANCE.start();
+        }
+    }
+
+    /**
+     * The framework offers no service to the context, the factory only ties the background work to the configuration.
+     *
+     * @return A service without resources.
+     */
+    public Service openService() {
+        return new Service() {
+            private static final long serialVersionUID = 1L;
+
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Stop the outbox dispatcher and the archiver when the jBPM configuration is closed.
+     */
+    public void close() {
+        ServiceCallOutbox.INSTANCE.stop();
+        ExceptionFrameworkArchiver.INSTANCE.stop();
+    }
+}
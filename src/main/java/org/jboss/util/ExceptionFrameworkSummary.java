@@ -0,0 +1,146 @@
+package org.jboss.util;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Compact record of an ended Exception Framework instance, kept after the instance itself was purged (see
+ * <code>exception.framework.hbm.xml</code> and {@link ExceptionFrameworkArchiver}).
+ */
+public class ExceptionFrameworkSummary implements Serializable {
+    /** Serial version UID. */
+    private static final long serialVersionUID = 1L;
+
+    /** Maximum length of the class chain column. */
+    static final int CLASS_CHAIN_LENGTH = 2000;
+    /** Maximum length of the other text columns. */
+    static final int TEXT_LENGTH = 255;
+
+    private long id;
+    private long frameworkProcessInstanceId;
+    private long originatingProcessInstanceId;
+    private String originatingProcessName;
+    private String originatingNodeName;
+    private String exceptionClassChain;
+    private String leaveTransition;
+    private int retryAttempt;
+    private String resolvedBy;
+    private Date started;
+    private Date ended;
+    private Date archived;
+
+    /** Default constructor required by Hibernate. */
+    protected ExceptionFrameworkSummary() {
+    }
+
+    /**
+     * @param frameworkProcessInstanceId
+     *            The id of the Exception Framework instance.
+     * @param started
+     *            When the instance started.
+     * @param ended
+     *            When the instance ended.
+     */
+    public ExceptionFrameworkSummary(long frameworkProcessInstanceId, Date started, Date ended) {
+        this.frameworkProcessInstanceId = frameworkProcessInstanceId;
+        this.started = started;
+        this.ended = ended;
+        this.archived = new Date();
+    }
+
+    void setOriginatingProcessInstanceId(long originatingProcessInstanceId) {
+        this.originatingProcessInstanceId = originatingProcessInstanceId;
+    }
+
+    void setOriginatingProcessName(String originatingProcessName) {
+        this.originatingProcessName = truncate(originatingProcessName, TEXT_LENGTH);
+    }
+
+    void setOriginatingNodeName(String originatingNodeName) {
+        this.originatingNodeName = truncate(originatingNodeName, TEXT_LENGTH);
+    }
+
+    void setExceptionClassChain(String exceptionClassChain) {
+        this.exceptionClassChain = truncate(exceptionClassChain, CLASS_CHAIN_LENGTH);
+    }
+
+    void setLeaveTransition(String leaveTransition) {
+        this.leaveTransition = truncate(leaveTransition, TEXT_LENGTH);
+    }
+
+    void setRetryAttempt(int retryAttempt) {
+        this.retryAttempt = retryAttempt;
+    }
+
+    void setResolvedBy(String resolvedBy) {
+        this.resolvedBy = truncate(resolvedBy, TEXT_LENGTH);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getFrameworkProcessInstanceId() {
+        return frameworkProcessInstanceId;
+    }
+
+    /**
+     * @return The id of the (first) originating process instance, 0 when unknown.
+     */
+    public long getOriginatingProcessInstanceId() {
+        return originatingProcessInstanceId;
+    }
+
+    public String getOriginatingProcessName() {
+        return originatingProcessName;
+    }
+
+    public String getOriginatingNodeName() {
+        return originatingNodeName;
+    }
+
+    public String getExceptionClassChain() {
+        return exceptionClassChain;
+    }
+
+    /**
+     * @return The transition the originating process instance was sent over, <code>null</code> for its default one.
+     */
+    public String getLeaveTransition() {
+        return leaveTransition;
+    }
+
+    public int getRetryAttempt() {
+        return retryAttempt;
+    }
+
+    /**
+     * @return The actor that ended the Human Task, <code>null</code> when the failure was retried automatically.
+     */
+    public String getResolvedBy() {
+        return resolvedBy;
+    }
+
+    public Date getStarted() {
+        return started;
+    }
+
+    public Date getEnded() {
+        return ended;
+    }
+
+    public Date getArchived() {
+        return archived;
+    }
+
+    private static String truncate(String value, int length) {
+        return value == null || value.length() <= length ? value : value.substring(0, length);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "ExceptionFrameworkSummary(" + id + ", process instance " + frameworkProcessInstanceId + ", originator "
+                + originatingProcessInstanceId + ")";
+    }
+}
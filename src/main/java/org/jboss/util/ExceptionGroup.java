@@ -0,0 +1,65 @@
+package org.jboss.util;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * An Exception Framework instance that failures with the same fingerprint attach to, so one Human Task covers them all
+ * (see <code>exception.framework.hbm.xml</code> and {@link ExceptionGrouping}).
+ */
+public class ExceptionGroup implements Serializable {
+    /** Serial version UID. */
+    private static final long serialVersionUID = 1L;
+
+    private long id;
+    private int version;
+    private String fingerprint;
+    private long frameworkProcessInstanceId;
+    private long frameworkTokenId;
+    private Date opened;
+
+    /** Default constructor required by Hibernate. */
+    protected ExceptionGroup() {
+    }
+
+    /**
+     * @param fingerprint
+     *            The fingerprint of the failures in the group.
+     * @param frameworkProcessInstanceId
+     *            The id of the Exception Framework instance handling the group.
+     * @param frameworkTokenId
+     *            The id of the root token of that instance, locked when joining or releasing the group.
+     */
+    public ExceptionGroup(String fingerprint, long frameworkProcessInstanceId, long frameworkTokenId) {
+        this.fingerprint = fingerprint;
+        this.frameworkProcessInstanceId = frameworkProcessInstanceId;
+        this.frameworkTokenId = frameworkTokenId;
+        this.opened = new Date();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public long getFrameworkProcessInstanceId() {
+        return frameworkProcessInstanceId;
+    }
+
+    public long getFrameworkTokenId() {
+        return frameworkTokenId;
+    }
+
+    public Date getOpened() {
+        return opened;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "ExceptionGroup(" + id + ", " + fingerprint + ")";
+    }
+}
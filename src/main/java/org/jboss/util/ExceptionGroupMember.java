@@ -0,0 +1,56 @@
+package org.jboss.util;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * An originating process instance whose failure joined an {@link ExceptionGroup} instead of starting an Exception
+ * Framework instance of its own (see <code>exception.framework.hbm.xml</code>).
+ */
+public class ExceptionGroupMember implements Serializable {
+    /** Serial version UID. */
+    private static final long serialVersionUID = 1L;
+
+    private long id;
+    private long groupId;
+    private long processInstanceId;
+    private Date joined;
+
+    /** Default constructor required by Hibernate. */
+    protected ExceptionGroupMember() {
+    }
+
+    /**
+     * @param groupId
+     *            The id of the group.
+     * @param processInstanceId
+     *            The id of the originating process instance.
+     */
+    public ExceptionGroupMember(long groupId, long processInstanceId) {
+        this.groupId = groupId;
+        this.processInstanceId = processInstanceId;
+        this.joined = new Date();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getGroupId() {
+        return groupId;
+    }
+
+    public long getProcessInstanceId() {
+        return processInstanceId;
+    }
+
+    public Date getJoined() {
+        return joined;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "ExceptionGroupMember(" + id + ", group " + groupId + ", process instance " + processInstanceId + ")";
+    }
+}
@@ -0,0 +1,203 @@
+package org.jboss.util;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.hibernate.LockMode;
+import org.hibernate.Session;
+import org.jbpm.JbpmContext;
+import org.jbpm.graph.exe.ProcessInstance;
+import org.jbpm.graph.exe.Token;
+
+/**
+ * Grouping of failures with the same fingerprint (originating process, node and root cause class) into one Exception
+ * Framework instance and so one Human Task, to keep an outage from starting thousands of instances.
+ * <p>
+ * An instance that arrived in its Human Task opens a group; failures with the same fingerprint within the window join it
+ * as long as its task is not resolved. Resolving the task releases the originating process instances of all members the
+ * same way as the one that opened the group. Joining and releasing both lock the root token of the framework instance, so
+ * no member is left behind; joining only adds a member row and leaves the group row alone, so concurrent joins do not
+ * conflict on it. Off by default, enabled in <code>jbpm.cfg.xml</code>:
+ *
+ * <pre>
+ * &lt;boolean name=&quot;exception.framework.grouping.enabled&quot; value=&quot;true&quot; /&gt;
+ * &lt;long    name=&quot;exception.framework.grouping.window&quot; value=&quot;300000&quot; /&gt;
+ * </pre>
+ */
+public enum ExceptionGrouping {
+    /** The grouping singleton instance. */
+    INSTANCE;
+
+    /** Configuration entry for switching grouping on or off. */
+    public static final String ENABLED_KEY = "exception.framework.grouping.enabled";
+    /** Configuration entry for the time (in ms) after opening that a group can be joined. */
+    public static final String WINDOW_KEY = "exception.framework.grouping.window";
+
+    /** Name of the node of the Exception Framework process in which a group waits for its task. */
+    public static final String HUMAN_TASK_NODE_NAME = "Human Task";
+
+    /** Maximum length of a fingerprint, longer ones are replaced by a digest. */
+    private static final int MAX_FINGERPRINT_LENGTH = 255;
+
+    private static final String OPEN_GROUP_QUERY = "select g from org.jboss.util.ExceptionGroup g "
+            + "where g.fingerprint = :fingerprint and g.opened >= :since order by g.opened desc";
+    private static final String GROUPS_OF_INSTANCE_QUERY = "select g from org.jboss.util.ExceptionGroup g "
+            + "where g.frameworkProcessInstanceId = :processInstanceId";
+    private static final String MEMBER_IDS_QUERY = "select m.processInstanceId from org.jboss.util.ExceptionGroupMember m "
+            + "where m.groupId = :groupId order by m.id";
+    private static final String DELETE_MEMBERS = "delete from org.jboss.util.ExceptionGroupMember where groupId = :groupId";
+
+    private static final Logger LOGGER = Logger.getLogger(ExceptionGrouping.class);
+
+    private final boolean enabled = FrameworkConfig.getBoolean(ENABLED_KEY, false);
+    private final long window = FrameworkConfig.getLong(WINDOW_KEY, 300000L);
+
+    /**
+     * @return Whether failures are grouped.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param processName
+     *            The name of the originating process.
+     * @param nodeName
+     *            The name of the node the exception originated from.
+     * @param classChain
+     *            The class names of the exception and its causes, see {@link ExceptionClassifier#toClassChain(Throwable)}.
+     * @return The fingerprint of the failure.
+     */
+    public String fingerprint(String processName, String nodeName, String classChain) {
+        String rootCause = classChain == null ? "" : classChain.substring(classChain.lastIndexOf(',') + 1);
+        String fingerprint = processName + "/" + nodeName + "/" + rootCause;
+        return fingerprint.length() <= MAX_FINGERPRINT_LENGTH ? fingerprint : digest(fingerprint);
+    }
+
+    /**
+     * Attach a failure to an open group with the same fingerprint, if any.
+     *
+     * @param jbpmCtx
+     *            The current context.
+     * @param fingerprint
+     *            The fingerprint of the failure.
+     * @param processInstanceId
+     *            The id of the originating process instance.
+     * @return The Exception Framework instance of the group joined, or <code>null</code> when there is none to join.
+     */
+    public ProcessInstance join(JbpmContext jbpmCtx, String fingerprint, long processInstanceId) {
+        Session session = jbpmCtx.getSession();
+        List<?> groups = session.createQuery(OPEN_GROUP_QUERY)
+                .setString("fingerprint", fingerprint)
+                .setTimestamp("since", new Date(System.currentTimeMillis() - window))
+                .setMaxResults(1)
+                .list();
+        if (groups.isEmpty()) {
+            return null;
+        }
+
+        // Only join while the task is not resolved; the lock keeps it that way until this transaction ends.
+        ExceptionGroup group = (ExceptionGroup) groups.get(0);
+        Token token = (Token) session.get(Token.class, Long.valueOf(group.getFrameworkTokenId()), LockMode.UPGRADE);
+        if (token == null || token.hasEnded() || token.getNode() == null
+                || !HUMAN_TASK_NODE_NAME.equals(token.getNode().getName())) {
+            return null;
+        }
+        session.save(new ExceptionGroupMember(group.getId(), processInstanceId));
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Process instance " + processInstanceId + " joined " + group + ".");
+        }
+        return token.getProcessInstance();
+    }
+
+    /**
+     * Open a group for an Exception Framework instance waiting in its Human Task.
+     *
+     * @param jbpmCtx
+     *            The current context.
+     * @param fingerprint
+     *            The fingerprint of the failure that started the instance.
+     * @param frameworkInstance
+     *            The instance, saved already.
+     */
+    public void open(JbpmContext jbpmCtx, String fingerprint, ProcessInstance frameworkInstance) {
+        ExceptionGroup group = new ExceptionGroup(fingerprint, frameworkInstance.getId(), frameworkInstance.getRootToken()
+                .getId());
+        jbpmCtx.getSession().save(group);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Opened " + group + " for process instance " + frameworkInstance.getId() + ".");
+        }
+    }
+
+    /**
+     * Close the groups of an Exception Framework instance whose task is resolved.
+     *
+     * @param jbpmCtx
+     *            The context of the framework instance.
+     * @param frameworkInstance
+     *            The instance.
+     * @return The ids of the originating process instances that joined, to be released like the one that started the
+     *         instance.
+     */
+    public List<Long> release(JbpmContext jbpmCtx, ProcessInstance frameworkInstance) {
+        Session session = jbpmCtx.getSession();
+        session.lock(frameworkInstance.getRootToken(), LockMode.UPGRADE);
+
+        List<Long> processInstanceIds = new ArrayList<Long>();
+        List<?> groups = session.createQuery(GROUPS_OF_INSTANCE_QUERY)
+                .setLong("processInstanceId", frameworkInstance.getId())
+                .list();
+        for (Object o : groups) {
+            ExceptionGroup group = (ExceptionGroup) o;
+            for (Object id : session.createQuery(MEMBER_IDS_QUERY).setLong("groupId", group.getId()).list()) {
+                processInstanceIds.add((Long) id);
+            }
+            session.createQuery(DELETE_MEMBERS).setLong("groupId", group.getId()).executeUpdate();
+            session.delete(group);
+            LOGGER.info("Released " + group + ".");
+        }
+        return processInstanceIds;
+    }
+
+    /**
+     * @param jbpmCtx
+     *            The current context.
+     * @param frameworkProcessInstanceId
+     *            The id of an Exception Framework instance.
+     * @return The ids of the originating process instances that joined its group, e.g. to show with its task.
+     */
+    public List<Long> getAffectedProcessInstanceIds(JbpmContext jbpmCtx, long frameworkProcessInstanceId) {
+        Session session = jbpmCtx.getSession();
+        List<Long> processInstanceIds = new ArrayList<Long>();
+        List<?> groups = session.createQuery(GROUPS_OF_INSTANCE_QUERY)
+                .setLong("processInstanceId", frameworkProcessInstanceId)
+                .list();
+        for (Object o : groups) {
+            for (Object id : session.createQuery(MEMBER_IDS_QUERY).setLong("groupId", ((ExceptionGroup) o).getId()).list()) {
+                processInstanceIds.add((Long) id);
+            }
+        }
+        return processInstanceIds;
+    }
+
+    private static String digest(String fingerprint) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(fingerprint.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder("sha1:");
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
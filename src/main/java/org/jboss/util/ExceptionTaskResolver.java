@@ -0,0 +1,357 @@
+package org.jboss.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Query;
+import org.jboss.handler.StartExceptionFrameworkHandler;
+import org.jboss.handler.TriggerOriginatingProcessHandler;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+import org.jbpm.graph.exe.ExecutionContext;
+import org.jbpm.taskmgmt.exe.TaskInstance;
+
+/**
+ * Resolves all open Exception Framework tasks matching a filter at once, e.g. to clear the backlog of an outage. The tasks
+ * are handed in chunks to a number of worker threads, which report progress per chunk. Each task is ended in a
+ * transaction of its own: ending it resumes the originating processes, whose actions may have side effects outside the
+ * transaction (a synchronous service call in a node) that a rollback of a shared transaction would not undo and resolving
+ * the task again would repeat. A task that fails, or whose originating process marks the transaction for rollback, counts
+ * as failed and does not hold up the others. Configured in <code>jbpm.cfg.xml</code>:
+ *
+ * <pre>
+ * &lt;int name=&quot;exception.framework.resolver.threads&quot; value=&quot;4&quot; /&gt;
+ * &lt;int name=&quot;exception.framework.resolver.chunk.size&quot; value=&quot;100&quot; /&gt;
+ * </pre>
+ */
+public class ExceptionTaskResolver {
+    /** Configuration entry for the number of worker threads. */
+    public static final String THREADS_KEY = "exception.framework.resolver.threads";
+    /** Configuration entry for the number of tasks a worker thread takes at a time. */
+    public static final String CHUNK_SIZE_KEY = "exception.framework.resolver.chunk.size";
+
+    /** Name of the task of the Exception Framework process. */
+    public static final String TASK_NAME = "Technical dropout";
+
+    private static final String VARIABLE_CONDITION = " and exists (select v.id from "
+            + "org.jbpm.context.exe.variableinstance.StringInstance v where v.processInstance = ti.processInstance "
+            + "and v.name = '%s' and %s)";
+
+    private static final Logger LOGGER = Logger.getLogger(ExceptionTaskResolver.class);
+
+    /**
+     * How the originating processes of the resolved tasks move on.
+     */
+    public enum Resolution {
+        /** Retry the node the exception originated from. */
+        RETRY,
+        /** Leave the node the exception originated from over its default transition. */
+        CONTINUE
+    }
+
+    /**
+     * Receives progress reports, from the worker threads.
+     */
+    public interface ProgressListener {
+        /**
+         * @param result
+         *            The counts so far, after a chunk completed.
+         */
+        void progress(Result result);
+    }
+
+    private final JbpmConfiguration jbpmConfiguration;
+    private final int threads;
+    private final int chunkSize;
+
+    /**
+     * Resolver with the configured number of threads and chunk size.
+     */
+    public ExceptionTaskResolver() {
+        this(JbpmConfiguration.getInstance(), FrameworkConfig.getInt(THREADS_KEY, 4), FrameworkConfig.getInt(CHUNK_SIZE_KEY,
+                100));
+    }
+
+    /**
+     * @param jbpmConfiguration
+     *            The configuration to create contexts from.
+     * @param threads
+     *            The number of worker threads.
+     * @param chunkSize
+     *            The number of tasks a worker thread takes at a time.
+     */
+    public ExceptionTaskResolver(JbpmConfiguration jbpmConfiguration, int threads, int chunkSize) {
+        this.jbpmConfiguration = jbpmConfiguration;
+        this.threads = Math.max(1, threads);
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * @param filter
+     *            Selects the tasks.
+     * @return The ids of the open tasks matching the filter, oldest first.
+     */
+    public List<Long> findTasks(Filter filter) {
+        JbpmContext jbpmCtx = jbpmConfiguration.createJbpmContext();
+        try {
+            List<Long> ids = new ArrayList<Long>();
+            for (Object id : filter.createQuery(jbpmCtx).list()) {
+                ids.add((Long) id);
+            }
+            return ids;
+        } finally {
+            jbpmCtx.close();
+        }
+    }
+
+    /**
+     * Resolve all open tasks matching the filter and wait until done.
+     *
+     * @param filter
+     *            Selects the tasks.
+     * @param resolution
+     *            How the originating processes move on.
+     * @param listener
+     *            Receives progress reports, may be <code>null</code>.
+     * @return The counts of resolved, skipped and failed tasks.
+     * @throws InterruptedException
+     *             When interrupted while waiting; the tasks in progress are completed.
+     */
+    public Result resolve(Filter filter, Resolution resolution, ProgressListener listener) throws InterruptedException {
+        List<Long> ids = findTasks(filter);
+        Result result = new Result(ids.size());
+        LOGGER.info("Resolving " + ids.size() + " exception tasks as " + resolution + " (" + filter + ").");
+        if (ids.isEmpty()) {
+            return result;
+        }
+
+        int chunks = (ids.size() + chunkSize - 1) / chunkSize;
+        ExecutorService workers = Executors.newFixedThreadPool(Math.min(threads, chunks), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ExceptionTaskResolver-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            for (int i = 0; i < ids.size(); i += chunkSize) {
+                workers.execute(new ChunkResolver(ids.subList(i, Math.min(i + chunkSize, ids.size())), resolution, result,
+                        listener));
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            workers.shutdownNow();
+        }
+        LOGGER.info("Resolved exception tasks: " + result + ".");
+        return result;
+    }
+
+    /**
+     * @return Whether the task was resolved, <code>false</code> when it was no longer open.
+     */
+    private static boolean resolveTask(JbpmContext jbpmCtx, long taskInstanceId, Resolution resolution) {
+        TaskInstance taskInstance = jbpmCtx.getTaskInstanceForUpdate(taskInstanceId);
+        if (taskInstance == null || taskInstance.hasEnded()) {
+            return false;
+        }
+        if (resolution == Resolution.RETRY) {
+            RetryRouting.requestRetry(new ExecutionContext(taskInstance.getToken()));
+        } else {
+            taskInstance.getToken().getProcessInstance().getContextInstance().deleteVariable(
+                    TriggerOriginatingProcessHandler.EXCEPTION_ORIGINATING_NODE_LEAVE_TRANSITION_KEY, taskInstance.getToken());
+        }
+        taskInstance.end();
+        return true;
+    }
+
+    /**
+     * Resolves a chunk of tasks, one transaction per task.
+     */
+    private class ChunkResolver implements Runnable {
+        private final List<Long> ids;
+        private final Resolution resolution;
+        private final Result result;
+        private final ProgressListener listener;
+
+        ChunkResolver(List<Long> ids, Resolution resolution, Result result, ProgressListener listener) {
+            this.ids = ids;
+            this.resolution = resolution;
+            this.result = result;
+            this.listener = listener;
+        }
+
+        public void run() {
+            for (Long id : ids) {
+                resolveOne(id.longValue());
+            }
+            if (listener != null) {
+                try {
+                    listener.progress(result);
+                } catch (RuntimeException ex) {
+                    LOGGER.warn("Progress listener failed.", ex);
+                }
+            }
+        }
+
+        private void resolveOne(long id) {
+            JbpmContext jbpmCtx = jbpmConfiguration.createJbpmContext();
+            boolean resolved;
+            try {
+                try {
+                    resolved = resolveTask(jbpmCtx, id, resolution);
+                    if (jbpmCtx.getServices().getTxService().isRollbackOnly()) {
+                        throw new IllegalStateException("The originating process marked the transaction for rollback.");
+                    }
+                } catch (RuntimeException ex) {
+                    jbpmCtx.setRollbackOnly();
+                    throw ex;
+                } finally {
+                    jbpmCtx.close();
+                }
+            } catch (RuntimeException ex) {
+                LOGGER.error("Resolving exception task " + id + " failed.", ex);
+                result.failed.incrementAndGet();
+                return;
+            }
+            (resolved ? result.resolved : result.skipped).incrementAndGet();
+        }
+    }
+
+    /**
+     * Selects Exception Framework tasks; criteria left <code>null</code> match anything.
+     */
+    public static class Filter {
+        private String processName;
+        private String nodeName;
+        private String exceptionClassName;
+
+        /**
+         * @param processName
+         *            The name of the originating process.
+         * @return This filter.
+         */
+        public Filter forProcess(String processName) {
+            this.processName = processName;
+            return this;
+        }
+
+        /**
+         * @param nodeName
+         *            The name of the node the exception originated from.
+         * @return This filter.
+         */
+        public Filter atNode(String nodeName) {
+            this.nodeName = nodeName;
+            return this;
+        }
+
+        /**
+         * @param exceptionClassName
+         *            The class name of the root cause of the exception.
+         * @return This filter.
+         */
+        public Filter causedBy(String exceptionClassName) {
+            this.exceptionClassName = exceptionClassName;
+            return this;
+        }
+
+        Query createQuery(JbpmContext jbpmCtx) {
+            StringBuilder hql = new StringBuilder("select ti.id from org.jbpm.taskmgmt.exe.TaskInstance ti "
+                    + "where ti.name = :taskName and ti.isOpen = :open and ti.processInstance.processDefinition.name = :framework");
+            if (processName != null) {
+                hql.append(String.format(VARIABLE_CONDITION, StartExceptionFrameworkHandler.EXCEPTION_ORIGINATING_PROCESS_NAME_KEY,
+                        "v.value = :processName"));
+            }
+            if (nodeName != null) {
+                hql.append(String.format(VARIABLE_CONDITION, StartExceptionFrameworkHandler.EXCEPTION_ORIGINATING_NODE_NAME_KEY,
+                        "v.value = :nodeName"));
+            }
+            if (exceptionClassName != null) {
+                hql.append(String.format(VARIABLE_CONDITION, StartExceptionFrameworkHandler.EXCEPTION_CLASS_CHAIN_KEY,
+                        "(v.value = :exceptionClass or v.value like :exceptionClassSuffix)"));
+            }
+            hql.append(" order by ti.id");
+
+            Query query = jbpmCtx.getSession().createQuery(hql.toString())
+                    .setString("taskName", TASK_NAME)
+                    .setBoolean("open", true)
+                    .setString("framework", StartExceptionFrameworkHandler.EXCEPTION_FRAMEWORK_PROCESS_NAME_KEY);
+            if (processName != null) {
+                query.setString("processName", processName);
+            }
+            if (nodeName != null) {
+                query.setString("nodeName", nodeName);
+            }
+            if (exceptionClassName != null) {
+                query.setString("exceptionClass", exceptionClassName);
+                query.setString("exceptionClassSuffix", "%," + exceptionClassName);
+            }
+            return query;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public String toString() {
+            return "process " + processName + ", node " + nodeName + ", exception " + exceptionClassName;
+        }
+    }
+
+    /**
+     * Counts of a bulk resolution, updated while it runs.
+     */
+    public static class Result {
+        private final int total;
+        private final AtomicInteger resolved = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+
+        Result(int total) {
+            this.total = total;
+        }
+
+        /**
+         * @return The number of tasks matching the filter.
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        public int getResolved() {
+            return resolved.get();
+        }
+
+        /**
+         * @return The number of tasks resolved by other means in the meantime.
+         */
+        public int getSkipped() {
+            return skipped.get();
+        }
+
+        public int getFailed() {
+            return failed.get();
+        }
+
+        /**
+         * @return The number of tasks handled so far.
+         */
+        public int getDone() {
+            return getResolved() + getSkipped() + getFailed();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public String toString() {
+            return getDone() + " of " + total + " done, " + getResolved() + " resolved, " + getSkipped() + " skipped, "
+                    + getFailed() + " failed";
+        }
+    }
+}
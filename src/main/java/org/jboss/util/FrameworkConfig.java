@@ -0,0 +1,98 @@
+package org.jboss.util;
+
+import org.apache.log4j.Logger;
+import org.jbpm.JbpmConfiguration;
+
+/**
+ * Access to the exception framework settings found in <code>jbpm.cfg.xml</code>, falling back to a default value when an
+ * entry is not configured.
+ */
+public final class FrameworkConfig {
+    private static final Logger LOGGER = Logger.getLogger(FrameworkConfig.class);
+
+    /** Utility class. */
+    private FrameworkConfig() {
+    }
+
+    /**
+     * @param name
+     *            The name of an <code>&lt;int&gt;</code> entry.
+     * @param defaultValue
+     *            The value used when the entry is absent or invalid.
+     * @return The configured value.
+     */
+    public static int getInt(String name, int defaultValue) {
+        Object value = getObject(name);
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        warnIfInvalid(name, value, defaultValue);
+        return defaultValue;
+    }
+
+    /**
+     * @param name
+     *            The name of a <code>&lt;long&gt;</code> entry.
+     * @param defaultValue
+     *            The value used when the entry is absent or invalid.
+     * @return The configured value.
+     */
+    public static long getLong(String name, long defaultValue) {
+        Object value = getObject(name);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        warnIfInvalid(name, value, defaultValue);
+        return defaultValue;
+    }
+
+    /**
+     * @param name
+     *            The name of a <code>&lt;boolean&gt;</code> entry.
+     * @param defaultValue
+     *            The value used when the entry is absent or invalid.
+     * @return The configured value.
+     */
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        Object value = getObject(name);
+        if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue();
+        }
+        warnIfInvalid(name, value, Boolean.valueOf(defaultValue));
+        return defaultValue;
+    }
+
+    /**
+     * @param name
+     *            The name of a <code>&lt;string&gt;</code> entry.
+     * @param defaultValue
+     *            The value used when the entry is absent or invalid.
+     * @return The configured value.
+     */
+    public static String getString(String name, String defaultValue) {
+        Object value = getObject(name);
+        if (value instanceof String) {
+            return (String) value;
+        }
+        warnIfInvalid(name, value, defaultValue);
+        return defaultValue;
+    }
+
+    private static Object getObject(String name) {
+        try {
+            if (JbpmConfiguration.Configs.hasObject(name)) {
+                return JbpmConfiguration.Configs.getObject(name);
+            }
+        } catch (RuntimeException ex) {
+            LOGGER.error("Unable to read configuration entry " + name + ", using the default value.", ex);
+        }
+        return null;
+    }
+
+    private static void warnIfInvalid(String name, Object value, Object defaultValue) {
+        if (value != null) {
+            LOGGER.warn("Configuration entry " + name + " has unexpected value " + value + ", using default " + defaultValue
+                    + ".");
+        }
+    }
+}
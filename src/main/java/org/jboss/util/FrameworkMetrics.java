@@ -0,0 +1,179 @@
+package org.jboss.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Live metrics of the exception framework, exposed as MBeans in the platform MBean server:
+ * <ul>
+ * <li><code>org.jboss.exceptionframework:type=FrameworkMetrics</code>: the service call pool (active, queued, rejected),
+ * Exception Framework instances started and ended, and exceptions raised per originating process and node;</li>
+ * <li><code>org.jboss.exceptionframework:type=HandlerMetrics,handler=&lt;class&gt;</code>: latency histograms per
+ * handler class, registered on its first service call.</li>
+ * </ul>
+ * Counters are striped and looked up in maps keyed by names that already exist, so recording does not allocate once a
+ * handler, process or node has been seen. Registration can be switched off in <code>jbpm.cfg.xml</code>:
+ *
+ * <pre>
+ * &lt;boolean name=&quot;exception.framework.jmx.enabled&quot; value=&quot;true&quot; /&gt;
+ * </pre>
+ */
+public enum FrameworkMetrics implements FrameworkMetricsMBean {
+    /** The metrics singleton instance. */
+    INSTANCE;
+
+    /** Configuration entry for registering the MBeans. */
+    public static final String ENABLED_KEY = "exception.framework.jmx.enabled";
+    /** Domain of the object names of the MBeans. */
+    public static final String DOMAIN = "org.jboss.exceptionframework";
+
+    private static final Logger LOGGER = Logger.getLogger(FrameworkMetrics.class);
+
+    private static final boolean ENABLED = FrameworkConfig.getBoolean(ENABLED_KEY, true);
+
+    static {
+        if (ENABLED) {
+            register(INSTANCE, "type=FrameworkMetrics");
+        }
+    }
+
+    private final ConcurrentMap<String, HandlerMetrics> handlers = new ConcurrentHashMap<String, HandlerMetrics>();
+    /** Exceptions by originating process name, then node name. */
+    private final ConcurrentMap<String, ConcurrentMap<String, StripedCounter>> exceptions = new ConcurrentHashMap<String, ConcurrentMap<String, StripedCounter>>();
+    private final StripedCounter frameworkStarted = new StripedCounter();
+    private final StripedCounter frameworkEnded = new StripedCounter();
+
+    /**
+     * @param handlerClassName
+     *            The handler class performing service calls.
+     * @return The latency histograms of the handler class.
+     */
+    public HandlerMetrics forHandler(String handlerClassName) {
+        HandlerMetrics metrics = handlers.get(handlerClassName);
+        if (metrics == null) {
+            metrics = new HandlerMetrics(handlerClassName);
+            HandlerMetrics existing = handlers.putIfAbsent(handlerClassName, metrics);
+            if (existing != null) {
+                return existing;
+            }
+            if (ENABLED) {
+                register(metrics, "type=HandlerMetrics,handler=" + handlerClassName);
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @param processName
+     *            The name of the originating process.
+     * @param nodeName
+     *            The name of the node the exception was raised in.
+     */
+    public void recordException(String processName, String nodeName) {
+        String process = processName == null ? "?" : processName;
+        String node = nodeName == null ? "?" : nodeName;
+        ConcurrentMap<String, StripedCounter> nodes = exceptions.get(process);
+        if (nodes == null) {
+            nodes = new ConcurrentHashMap<String, StripedCounter>();
+            ConcurrentMap<String, StripedCounter> existing = exceptions.putIfAbsent(process, nodes);
+            if (existing != null) {
+                nodes = existing;
+            }
+        }
+        StripedCounter counter = nodes.get(node);
+        if (counter == null) {
+            counter = new StripedCounter();
+            StripedCounter existing = nodes.putIfAbsent(node, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        counter.increment();
+    }
+
+    /** An Exception Framework instance was started. */
+    public void recordFrameworkStarted() {
+        frameworkStarted.increment();
+    }
+
+    /** An Exception Framework instance ended. */
+    public void recordFrameworkEnded() {
+        frameworkEnded.increment();
+    }
+
+    /** {@inheritDoc} */
+    public int getActiveCount() {
+        return ThreadPoolSingleton.INSTANCE.getActiveCount();
+    }
+
+    /** {@inheritDoc} */
+    public int getQueueDepth() {
+        return ThreadPoolSingleton.INSTANCE.getQueueDepth();
+    }
+
+    /** {@inheritDoc} */
+    public long getRejectedCount() {
+        return ThreadPoolSingleton.INSTANCE.getRejectedCount();
+    }
+
+    /** {@inheritDoc} */
+    public long getFrameworkInstancesStarted() {
+        return frameworkStarted.sum();
+    }
+
+    /** {@inheritDoc} */
+    public long getFrameworkInstancesEnded() {
+        return frameworkEnded.sum();
+    }
+
+    /** {@inheritDoc} */
+    public long getExceptionCount() {
+        long count = 0;
+        for (Map<String, StripedCounter> nodes : exceptions.values()) {
+            for (StripedCounter counter : nodes.values()) {
+                count += counter.sum();
+            }
+        }
+        return count;
+    }
+
+    /** {@inheritDoc} */
+    public String[] getExceptionCounts() {
+        List<String> counts = new ArrayList<String>();
+        for (Map.Entry<String, ConcurrentMap<String, StripedCounter>> process : exceptions.entrySet()) {
+            for (Map.Entry<String, StripedCounter> node : process.getValue().entrySet()) {
+                counts.add(process.getKey() + "/" + node.getKey() + "=" + node.getValue().sum());
+            }
+        }
+        return counts.toArray(new String[counts.size()]);
+    }
+
+    /** {@inheritDoc} */
+    public void reset() {
+        for (HandlerMetrics metrics : handlers.values()) {
+            metrics.reset();
+        }
+        exceptions.clear();
+        frameworkStarted.reset();
+        frameworkEnded.reset();
+    }
+
+    private static void register(Object mbean, String properties) {
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+            }
+        } catch (Exception ex) {
+            LOGGER.warn("Could not register MBean " + properties + ": " + ex);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package org.jboss.util;
+
+/**
+ * JMX view on the service call pool and the Exception Framework instances, see {@link FrameworkMetrics}.
+ */
+public interface FrameworkMetricsMBean {
+
+    /** @return The number of service calls running. */
+    int getActiveCount();
+
+    /** @return The number of service calls waiting in the queue of the pool. */
+    int getQueueDepth();
+
+    /** @return The number of service calls the pool rejected since startup. */
+    long getRejectedCount();
+
+    long getFrameworkInstancesStarted();
+
+    long getFrameworkInstancesEnded();
+
+    /** @return The number of exceptions raised since startup. */
+    long getExceptionCount();
+
+    /** @return The number of exceptions raised per originating process and node, as "process/node=count". */
+    String[] getExceptionCounts();
+
+    /** Clear the counters and the latency histograms of all handlers. */
+    void reset();
+}
@@ -0,0 +1,170 @@
+package org.jboss.util;
+
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.jbpm.graph.def.ProcessDefinition;
+import org.jbpm.instantiation.ProcessClassLoader;
+import org.jbpm.util.ClassLoaderUtil;
+
+/**
+ * Bounded cache of handler classes resolved through the <code>ProcessClassLoader</code> of a process definition, so an
+ * asynchronous service call does not create a class loader and load its handler class every time.
+ * <p>
+ * Entries are keyed by process definition (id and version) and handler class name; the entries of older versions of a
+ * definition are evicted as soon as a newer version is seen. The capacity is read from <code>jbpm.cfg.xml</code>:
+ *
+ * <pre>
+ * &lt;int name=&quot;exception.framework.handler.cache.capacity&quot; value=&quot;256&quot; /&gt;
+ * </pre>
+ */
+public enum HandlerClassCache {
+    /** The cache singleton instance. */
+    INSTANCE;
+
+    /** Configuration entry for the maximum number of cached handler classes. */
+    public static final String CAPACITY_KEY = "exception.framework.handler.cache.capacity";
+
+    private static final Logger LOGGER = Logger.getLogger(HandlerClassCache.class);
+
+    private final int capacity = FrameworkConfig.getInt(CAPACITY_KEY, 256);
+
+    private final ConcurrentMap<Key, Class<?>> classes = new ConcurrentHashMap<Key, Class<?>>();
+    /** Insertion order, used to evict the oldest entry when the capacity is exceeded. */
+    private final Queue<Key> insertionOrder = new ConcurrentLinkedQueue<Key>();
+    /** Latest version seen per process definition name. */
+    private final ConcurrentMap<String, Integer> latestVersions = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * @param processDefinition
+     *            The definition the handler is used in.
+     * @param handlerClassName
+     *            The name of the handler class.
+     * @return The handler class, as loaded by the process class loader of the definition.
+     * @throws ClassNotFoundException
+     *             When the handler class cannot be found.
+     */
+    public Class<?> getHandlerClass(final ProcessDefinition processDefinition, String handlerClassName)
+            throws ClassNotFoundException {
+        Key key = new Key(processDefinition, handlerClassName);
+        Class<?> handlerClass = classes.get(key);
+        if (handlerClass == null) {
+            ClassLoader cl = AccessController.doPrivileged(new PrivilegedAction<ProcessClassLoader>() {
+                public ProcessClassLoader run() {
+                    return new ProcessClassLoader(ClassLoaderUtil.class.getClassLoader(), processDefinition);
+                }
+            });
+            handlerClass = cl.loadClass(handlerClassName);
+            if (isLatestVersion(key) && classes.putIfAbsent(key, handlerClass) == null) {
+                insertionOrder.add(key);
+                evictOverflow();
+            }
+        }
+        return handlerClass;
+    }
+
+    /**
+     * Drop all cached classes, e.g. after redeploying handler classes.
+     */
+    public void clear() {
+        classes.clear();
+        insertionOrder.clear();
+        latestVersions.clear();
+    }
+
+    /**
+     * @return The number of cached handler classes.
+     */
+    public int size() {
+        return classes.size();
+    }
+
+    /**
+     * Register the version of the key and evict older versions of the same definition when it is a new one.
+     *
+     * @return <code>false</code> when the key is for an older version than the latest seen (not worth caching).
+     */
+    private boolean isLatestVersion(Key key) {
+        while (true) {
+            Integer latest = latestVersions.get(key.definitionName);
+            if (latest != null && latest.intValue() > key.version) {
+                return false;
+            }
+            if (latest != null && latest.intValue() == key.version) {
+                return true;
+            }
+            Integer version = Integer.valueOf(key.version);
+            boolean replaced = latest == null ? latestVersions.putIfAbsent(key.definitionName, version) == null
+                    : latestVersions.replace(key.definitionName, latest, version);
+            if (replaced) {
+                if (latest != null) {
+                    evictOlderVersions(key.definitionName, key.version);
+                }
+                return true;
+            }
+        }
+    }
+
+    private void evictOlderVersions(String definitionName, int version) {
+        for (Iterator<Key> it = classes.keySet().iterator(); it.hasNext();) {
+            Key cached = it.next();
+            if (cached.definitionName.equals(definitionName) && cached.version < version) {
+                it.remove();
+                insertionOrder.remove(cached);
+            }
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Evicted handler classes of " + definitionName + " older than version " + version + ".");
+        }
+    }
+
+    private void evictOverflow() {
+        while (classes.size() > capacity) {
+            Key eldest = insertionOrder.poll();
+            if (eldest == null) {
+                break;
+            }
+            classes.remove(eldest);
+        }
+    }
+
+    /**
+     * Cache key: process definition and handler class name.
+     */
+    private static final class Key {
+        private final long definitionId;
+        private final String definitionName;
+        private final int version;
+        private final String handlerClassName;
+
+        Key(ProcessDefinition processDefinition, String handlerClassName) {
+            this.definitionId = processDefinition.getId();
+            this.definitionName = String.valueOf(processDefinition.getName());
+            this.version = processDefinition.getVersion();
+            this.handlerClassName = handlerClassName;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return definitionId == other.definitionId && version == other.version
+                    && handlerClassName.equals(other.handlerClassName);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            return (int) (definitionId ^ (definitionId >>> 32)) * 31 + handlerClassName.hashCode();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.jboss.util;
+
+/**
+ * Latencies of the service calls of one handler class: the <code>doPerformAction</code> call itself, and for
+ * asynchronous calls the whole <code>ServiceRunner</code> run, including locking, signalling and committing.
+ */
+public final class HandlerMetrics implements HandlerMetricsMBean {
+    private final String handlerClassName;
+    private final LatencyHistogram action = new LatencyHistogram();
+    private final LatencyHistogram run = new LatencyHistogram();
+
+    /**
+     * @param handlerClassName
+     *            The handler class performing the service calls.
+     */
+    public HandlerMetrics(String handlerClassName) {
+        this.handlerClassName = handlerClassName;
+    }
+
+    /**
+     * @param nanos
+     *            The time <code>doPerformAction</code> took.
+     */
+    public void recordAction(long nanos) {
+        action.record(nanos);
+    }
+
+    /**
+     * @param nanos
+     *            The time an asynchronous service call took end to end.
+     */
+    public void recordRun(long nanos) {
+        run.record(nanos);
+    }
+
+    public LatencyHistogram getActionLatency() {
+        return action;
+    }
+
+    public LatencyHistogram getRunLatency() {
+        return run;
+    }
+
+    public String getHandlerClassName() {
+        return handlerClassName;
+    }
+
+    public long getActionCount() {
+        return action.getCount();
+    }
+
+    public double getActionMeanMillis() {
+        return action.getMeanMillis();
+    }
+
+    public double getActionP50Millis() {
+        return action.getPercentileMillis(50);
+    }
+
+    public double getActionP99Millis() {
+        return action.getPercentileMillis(99);
+    }
+
+    public double getActionMaxMillis() {
+        return action.getMaxMillis();
+    }
+
+    public long getRunCount() {
+        return run.getCount();
+    }
+
+    public double getRunMeanMillis() {
+        return run.getMeanMillis();
+    }
+
+    public double getRunP50Millis() {
+        return run.getPercentileMillis(50);
+    }
+
+    public double getRunP99Millis() {
+        return run.getPercentileMillis(99);
+    }
+
+    public double getRunMaxMillis() {
+        return run.getMaxMillis();
+    }
+
+    /** {@inheritDoc} */
+    public void reset() {
+        action.reset();
+        run.reset();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "HandlerMetrics(" + handlerClassName + ", action " + action + ", run " + run + ")";
+    }
+}
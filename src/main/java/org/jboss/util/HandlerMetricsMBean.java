@@ -0,0 +1,32 @@
+package org.jboss.util;
+
+/**
+ * JMX view on the latencies of the service calls of one handler class, see {@link HandlerMetrics}.
+ */
+public interface HandlerMetricsMBean {
+
+    String getHandlerClassName();
+
+    long getActionCount();
+
+    double getActionMeanMillis();
+
+    double getActionP50Millis();
+
+    double getActionP99Millis();
+
+    double getActionMaxMillis();
+
+    long getRunCount();
+
+    double getRunMeanMillis();
+
+    double getRunP50Millis();
+
+    double getRunP99Millis();
+
+    double getRunMaxMillis();
+
+    /** Clear both histograms. */
+    void reset();
+}
@@ -0,0 +1,90 @@
+package org.jboss.util;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.jboss.util.ExceptionClassifier.Classification;
+
+/**
+ * Fast path for transient exceptions in asynchronous service calls: instead of raising the exception, and so starting an
+ * Exception Framework instance, the service call is dispatched again on the same token after a short delay, a bounded
+ * number of times. Only when the attempts run out the exception is raised as usual. The failed attempt is rolled back
+ * first, and the retry is only scheduled once the rollback completed, so it never sees partial writes nor waits on the
+ * lock of the attempt before it.
+ * <p>
+ * The waiting is done by one scheduler thread and costs no rows; a retry is as durable as the dispatch mode in use (an
+ * outbox entry stays unacknowledged until the service call completes). Configured in <code>jbpm.cfg.xml</code>:
+ *
+ * <pre>
+ * &lt;int  name=&quot;exception.framework.retry.inplace.attempts&quot; value=&quot;3&quot; /&gt;
+ * &lt;long name=&quot;exception.framework.retry.inplace.delay&quot; value=&quot;200&quot; /&gt;
+ * </pre>
+ *
+ * The delay doubles per attempt.
+ */
+public enum InPlaceRetry {
+    /** The fast path singleton instance. */
+    INSTANCE;
+
+    /** Configuration entry for the number of in place retries, 0 to switch the fast path off. */
+    public static final String ATTEMPTS_KEY = "exception.framework.retry.inplace.attempts";
+    /** Configuration entry for the delay (in ms) before the first in place retry. */
+    public static final String DELAY_KEY = "exception.framework.retry.inplace.delay";
+
+    private final int maxAttempts = FrameworkConfig.getInt(ATTEMPTS_KEY, 3);
+    private final long delay = FrameworkConfig.getLong(DELAY_KEY, 200L);
+
+    private static final Logger LOGGER = Logger.getLogger(InPlaceRetry.class);
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param exception
+     *            The exception thrown by a service call.
+     * @param attempts
+     *            The number of in place retries done before for the service call.
+     * @return Whether the service call is to be retried in place.
+     */
+    public boolean isApplicable(Throwable exception, int attempts) {
+        return attempts < maxAttempts
+                && ExceptionClassifier.getInstance().classify(exception) == Classification.TRANSIENT;
+    }
+
+    /**
+     * @param call
+     *            Dispatches the service call again.
+     * @param attempts
+     *            The number of in place retries done before for the service call.
+     */
+    public void schedule(Runnable call, int attempts) {
+        getScheduler().schedule(call, delay << Math.min(attempts, 16), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The time (in ms) a service call can spend waiting for its in place retries, all of them failing.
+     */
+    public long getMaxTotalDelay() {
+        long total = 0;
+        for (int attempts = 0; attempts < maxAttempts; attempts++) {
+            total += delay << Math.min(attempts, 16);
+        }
+        return total;
+    }
+
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ExceptionFrameworkInPlaceRetry");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            LOGGER.info("Started in place retry scheduler, " + maxAttempts + " attempts.");
+        }
+        return scheduler;
+    }
+}
@@ -0,0 +1,93 @@
+package org.jboss.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in power of two buckets: bucket <i>i</i> counts the durations from 2<sup><i>i</i></sup> up to
+ * 2<sup><i>i</i>+1</sup> ns. Percentiles are reported as the upper bound of their bucket, so at most a factor two off;
+ * enough to tell 5 ms from 500 ms. Recording does not allocate.
+ */
+public final class LatencyHistogram {
+    private static final int BUCKETS = 64;
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final StripedCounter count = new StripedCounter();
+    private final StripedCounter totalNanos = new StripedCounter();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param nanos
+     *            The duration to record, e.g. the difference of two <code>System.nanoTime()</code> calls.
+     */
+    public void record(long nanos) {
+        long duration = Math.max(0L, nanos);
+        buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(duration | 1L));
+        count.increment();
+        totalNanos.add(duration);
+        long max = maxNanos.get();
+        while (duration > max && !maxNanos.compareAndSet(max, duration)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return The mean duration (in ms).
+     */
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0.0 : totalNanos.sum() / NANOS_PER_MILLI / n;
+    }
+
+    /**
+     * @return The longest duration (in ms).
+     */
+    public double getMaxMillis() {
+        return maxNanos.get() / NANOS_PER_MILLI;
+    }
+
+    /**
+     * @param percentile
+     *            The percentile, between 0 and 100.
+     * @return The upper bound (in ms) of the bucket the percentile falls in, 0 when nothing was recorded.
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (snapshot[i] > 0 && seen >= rank) {
+                return Math.min(Math.pow(2, i + 1), maxNanos.get()) / NANOS_PER_MILLI;
+            }
+        }
+        return 0.0;
+    }
+
+    /** Clear the histogram. */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "LatencyHistogram(count " + getCount() + ", mean " + getMeanMillis() + " ms, p99 "
+                + getPercentileMillis(99) + " ms, max " + getMaxMillis() + " ms)";
+    }
+}
@@ -0,0 +1,91 @@
+package org.jboss.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for the locking of tokens by asynchronous service calls, to compare the pessimistic and optimistic lock modes.
+ */
+public enum LockStatistics {
+    /** The statistics singleton instance. */
+    INSTANCE;
+
+    private final AtomicLong pessimisticLocks = new AtomicLong();
+    private final AtomicLong pessimisticWaitNanos = new AtomicLong();
+    private final AtomicLong optimisticSignals = new AtomicLong();
+    private final AtomicLong optimisticConflicts = new AtomicLong();
+    private final AtomicLong optimisticFailures = new AtomicLong();
+
+    /**
+     * @param waitNanos
+     *            The time it took to acquire a pessimistic lock.
+     */
+    public void recordPessimisticLock(long waitNanos) {
+        pessimisticLocks.incrementAndGet();
+        pessimisticWaitNanos.addAndGet(waitNanos);
+    }
+
+    /** A service call and its signal were committed under version checking. */
+    public void recordOptimisticSignal() {
+        optimisticSignals.incrementAndGet();
+    }
+
+    /** A service call hit a concurrent modification and is retried, its action included. */
+    public void recordOptimisticConflict() {
+        optimisticConflicts.incrementAndGet();
+    }
+
+    /** A service call hit concurrent modifications more often than allowed. */
+    public void recordOptimisticFailure() {
+        optimisticFailures.incrementAndGet();
+    }
+
+    public long getPessimisticLocks() {
+        return pessimisticLocks.get();
+    }
+
+    /**
+     * @return The total time (in ms) spent waiting for pessimistic locks.
+     */
+    public long getPessimisticWaitMillis() {
+        return pessimisticWaitNanos.get() / 1000000L;
+    }
+
+    /**
+     * @return The average time (in ms) spent waiting for a pessimistic lock.
+     */
+    public double getAveragePessimisticWaitMillis() {
+        long locks = pessimisticLocks.get();
+        return locks == 0 ? 0.0 : pessimisticWaitNanos.get() / 1000000.0 / locks;
+    }
+
+    public long getOptimisticSignals() {
+        return optimisticSignals.get();
+    }
+
+    public long getOptimisticConflicts() {
+        return optimisticConflicts.get();
+    }
+
+    public long getOptimisticFailures() {
+        return optimisticFailures.get();
+    }
+
+    /**
+     * Reset all counters.
+     */
+    public void reset() {
+        pessimisticLocks.set(0);
+        pessimisticWaitNanos.set(0);
+        optimisticSignals.set(0);
+        optimisticConflicts.set(0);
+        optimisticFailures.set(0);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "LockStatistics(pessimistic locks " + getPessimisticLocks() + ", avg wait " + getAveragePessimisticWaitMillis()
+                + " ms; optimistic signals " + getOptimisticSignals() + ", conflicts " + getOptimisticConflicts()
+                + ", failures " + getOptimisticFailures() + ")";
+    }
+}
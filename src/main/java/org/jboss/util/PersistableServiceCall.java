@@ -0,0 +1,11 @@
+package org.jboss.util;
+
+/**
+ * A service call that can be handed over to the jBPM job table when the thread pool is not able to accept it.
+ */
+public interface PersistableServiceCall extends Runnable {
+    /**
+     * Store this service call as a job, to be picked up again by the JobExecutor.
+     */
+    void persistAsJob();
+}
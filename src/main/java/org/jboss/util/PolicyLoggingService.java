@@ -0,0 +1,161 @@
+package org.jboss.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.jbpm.JbpmContext;
+import org.jbpm.graph.exe.ProcessInstance;
+import org.jbpm.graph.log.ProcessInstanceCreateLog;
+import org.jbpm.graph.log.ProcessInstanceEndLog;
+import org.jbpm.logging.db.DbLoggingService;
+import org.jbpm.logging.log.ProcessLog;
+
+/**
+ * jBPM logging service applying the {@link ProcessLogPolicy} of the process definition to each log before it is written.
+ * Opened per <code>JbpmContext</code> by the {@link PolicyLoggingServiceFactory}, so it lives as long as one transaction.
+ * <p>
+ * Logs under the {@link ProcessLogPolicy#BUFFERED} policy are held until the transaction commits and then handed to the
+ * {@link ProcessLogBuffer}, copied into {@link ProcessLogSnapshot}s; the transaction in which the instance ends rebuilds
+ * the buffered logs against its own session and writes them and its own logs in one go.
+ */
+public class PolicyLoggingService extends DbLoggingService {
+    /** Serial version UID. */
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = Logger.getLogger(PolicyLoggingService.class);
+
+    /** Logs of this transaction to buffer after commit, by process instance id. */
+    private final Map<Long, List<ProcessLog>> pending = new LinkedHashMap<Long, List<ProcessLog>>();
+    /** Buffered logs written in this transaction, to put back on rollback. */
+    private final Map<Long, List<ProcessLogSnapshot>> taken = new HashMap<Long, List<ProcessLogSnapshot>>();
+    /** Instances whose logs are written in this transaction. */
+    private final Set<Long> flushed = new HashSet<Long>();
+    /** The session factory of the transaction followed, to copy the logs to buffer. */
+    private SessionFactory sessionFactory;
+    private boolean synchronizing;
+
+    /** {@inheritDoc} */
+    @Override
+    public void log(ProcessLog processLog) {
+        ProcessInstance processInstance = processLog.getToken() == null ? null : processLog.getToken().getProcessInstance();
+        if (processInstance == null || processInstance.getProcessDefinition() == null) {
+            super.log(processLog);
+            return;
+        }
+
+        switch (ProcessLogPolicy.forProcess(processInstance.getProcessDefinition().getName())) {
+        case OFF:
+            break;
+        case SUMMARY:
+            if (processLog instanceof ProcessInstanceCreateLog || processLog instanceof ProcessInstanceEndLog) {
+                // The composite log it is part of is not written.
+                processLog.setParent(null);
+                super.log(processLog);
+            }
+            break;
+        case BUFFERED:
+            buffer(processInstance.getId(), processLog);
+            break;
+        default:
+            super.log(processLog);
+        }
+    }
+
+    private void buffer(long processInstanceId, ProcessLog processLog) {
+        Long key = Long.valueOf(processInstanceId);
+        if (flushed.contains(key) || !synchronize()) {
+            super.log(processLog);
+            return;
+        }
+        List<ProcessLog> logs = pending.get(key);
+        if (logs == null) {
+            logs = new ArrayList<ProcessLog>();
+            pending.put(key, logs);
+        }
+        logs.add(processLog);
+        if (processLog instanceof ProcessInstanceEndLog || !ProcessLogBuffer.INSTANCE.hasRoom(processInstanceId, logs.size())) {
+            flush(key);
+        }
+    }
+
+    /**
+     * Write the buffered logs of the instance and those of this transaction, in the order they were created.
+     */
+    private void flush(Long key) {
+        List<ProcessLogSnapshot> buffered = ProcessLogBuffer.INSTANCE.take(key.longValue());
+        if (buffered != null) {
+            taken.put(key, buffered);
+            Session session = JbpmContext.getCurrentJbpmContext().getSession();
+            for (ProcessLog processLog : ProcessLogSnapshot.rebuild(session, buffered)) {
+                super.log(processLog);
+            }
+        }
+        for (ProcessLog processLog : pending.remove(key)) {
+            super.log(processLog);
+        }
+        flushed.add(key);
+    }
+
+    /**
+     * @return Whether the outcome of the transaction is reported to this service.
+     */
+    private boolean synchronize() {
+        if (synchronizing) {
+            return true;
+        }
+        try {
+            Session session = JbpmContext.getCurrentJbpmContext().getSession();
+            sessionFactory = session.getSessionFactory();
+            session.getTransaction().registerSynchronization(
+                    new Synchronization() {
+                        public void beforeCompletion() {
+                        }
+
+                        public void afterCompletion(int status) {
+                            completed(status == Status.STATUS_COMMITTED);
+                        }
+                    });
+            synchronizing = true;
+        } catch (RuntimeException ex) {
+            LOGGER.warn("Could not follow the transaction, writing process logs right away: " + ex);
+        }
+        return synchronizing;
+    }
+
+    private void completed(boolean committed) {
+        if (committed) {
+            // The entities the logs refer to have their ids now.
+            for (Map.Entry<Long, List<ProcessLog>> logs : pending.entrySet()) {
+                try {
+                    ProcessLogBuffer.INSTANCE.append(logs.getKey().longValue(),
+                            ProcessLogSnapshot.copyOf(sessionFactory, logs.getValue()));
+                } catch (RuntimeException ex) {
+                    LOGGER.error("Could not buffer the process logs of process instance " + logs.getKey()
+                            + ", they are lost.", ex);
+                }
+            }
+            if (!pending.isEmpty()) {
+                // Instances that do not end here must not keep their logs in the buffer for good.
+                ProcessLogBuffer.INSTANCE.evict();
+            }
+        } else {
+            for (Map.Entry<Long, List<ProcessLogSnapshot>> logs : taken.entrySet()) {
+                ProcessLogBuffer.INSTANCE.restore(logs.getKey().longValue(), logs.getValue());
+            }
+        }
+        pending.clear();
+        taken.clear();
+        flushed.clear();
+    }
+}
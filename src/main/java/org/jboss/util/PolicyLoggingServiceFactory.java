@@ -0,0 +1,26 @@
+package org.jboss.util;
+
+import org.jbpm.svc.Service;
+import org.jbpm.svc.ServiceFactory;
+
+/**
+ * Factory of the {@link PolicyLoggingService}, replacing jBPM's <code>DbLoggingServiceFactory</code> in the
+ * <code>jbpm-context</code> of <code>jbpm.cfg.xml</code>:
+ *
+ * <pre>
+ * &lt;service name=&quot;logging&quot; factory=&quot;org.jboss.util.PolicyLoggingServiceFactory&quot; /&gt;
+ * </pre>
+ */
+public class PolicyLoggingServiceFactory implements ServiceFactory {
+    /** Serial version UID. */
+    private static final long serialVersionUID = 1L;
+
+    /** {@inheritDoc} */
+    public Service openService() {
+        return new PolicyLoggingService();
+    }
+
+    /** {@inheritDoc} */
+    public void close() {
+    }
+}
@@ -0,0 +1,117 @@
+package org.jboss.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.jbpm.JbpmContext;
+import org.jbpm.graph.def.ProcessDefinition;
+
+/**
+ * Cache of the latest version of process definitions by name, so starting an instance does not have to look the definition
+ * up in the database every time. Only the id is cached; the definition itself is loaded by id, which Hibernate serves from
+ * the session or the second-level cache.
+ * <p>
+ * Deploy through {@link #deployProcessDefinition(JbpmContext, ProcessDefinition)} to have the cache invalidated right away.
+ * Deployments by other means (or other nodes) are picked up once an entry is older than the configured time to live.
+ * The lookup itself is a cacheable query, so with the query cache of the production persistence profile
+ * (<code>hibernate.cfg.production.xml</code>) an expired entry is mostly refreshed without a database round trip:
+ *
+ * <pre>
+ * &lt;long name=&quot;exception.framework.definition.cache.ttl&quot; value=&quot;60000&quot; /&gt;
+ * </pre>
+ */
+public enum ProcessDefinitionCache {
+    /** The cache singleton instance. */
+    INSTANCE;
+
+    /** Configuration entry for the time (in ms) a cached definition id is trusted. */
+    public static final String TIME_TO_LIVE_KEY = "exception.framework.definition.cache.ttl";
+
+    /** Query cache region of the lookups. */
+    public static final String QUERY_CACHE_REGION = "org.jboss.util.ProcessDefinitionCache";
+
+    /** jBPM's named query behind <code>GraphSession.findLatestProcessDefinition</code>. */
+    private static final String LATEST_QUERY = "GraphSession.findLatestProcessDefinitionQuery";
+
+    private static final Logger LOGGER = Logger.getLogger(ProcessDefinitionCache.class);
+
+    private final long timeToLive = FrameworkConfig.getLong(TIME_TO_LIVE_KEY, 60000L);
+
+    private final ConcurrentMap<String, Entry> latest = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * @param jbpmCtx
+     *            The current context.
+     * @param name
+     *            The name of the process definition.
+     * @return The latest version of the definition, or <code>null</code> when none is deployed.
+     */
+    public ProcessDefinition getLatestProcessDefinition(JbpmContext jbpmCtx, String name) {
+        Entry entry = latest.get(name);
+        if (entry != null && System.currentTimeMillis() - entry.cached < timeToLive) {
+            return jbpmCtx.getGraphSession().loadProcessDefinition(entry.id);
+        }
+
+        ProcessDefinition processDefinition = findLatestProcessDefinition(jbpmCtx, name);
+        if (processDefinition != null) {
+            latest.put(name, new Entry(processDefinition.getId()));
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Cached process definition " + name + " with version " + processDefinition.getVersion() + ".");
+            }
+        }
+        return processDefinition;
+    }
+
+    /**
+     * Same as <code>GraphSession.findLatestProcessDefinition</code>, but cacheable.
+     */
+    private static ProcessDefinition findLatestProcessDefinition(JbpmContext jbpmCtx, String name) {
+        return (ProcessDefinition) jbpmCtx.getSession().getNamedQuery(LATEST_QUERY)
+                .setString("name", name)
+                .setMaxResults(1)
+                .setCacheable(true)
+                .setCacheRegion(QUERY_CACHE_REGION)
+                .uniqueResult();
+    }
+
+    /**
+     * Deploy a (new version of a) process definition and invalidate the cached version.
+     *
+     * @param jbpmCtx
+     *            The current context.
+     * @param processDefinition
+     *            The definition to deploy.
+     */
+    public void deployProcessDefinition(JbpmContext jbpmCtx, ProcessDefinition processDefinition) {
+        jbpmCtx.deployProcessDefinition(processDefinition);
+        invalidate(processDefinition.getName());
+    }
+
+    /**
+     * @param name
+     *            The name of the definition to look up again on next use.
+     */
+    public void invalidate(String name) {
+        latest.remove(name);
+    }
+
+    /**
+     * Forget all cached definitions.
+     */
+    public void clear() {
+        latest.clear();
+    }
+
+    /**
+     * A cached definition id.
+     */
+    private static final class Entry {
+        private final long id;
+        private final long cached = System.currentTimeMillis();
+
+        Entry(long id) {
+            this.id = id;
+        }
+    }
+}
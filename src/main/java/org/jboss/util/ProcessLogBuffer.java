@@ -0,0 +1,228 @@
+package org.jboss.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Session;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+import org.jbpm.graph.exe.ProcessInstance;
+import org.jbpm.logging.log.ProcessLog;
+
+/**
+ * The process logs of running instances with the {@link ProcessLogPolicy#BUFFERED} policy, from committed transactions,
+ * waiting to be written when their instance ends. Logs are kept as {@link ProcessLogSnapshot}s, which refer to the token
+ * and other entities by id only, so the buffer does not keep process instances in memory. The buffer lives in memory:
+ * the logs of instances that are still running are lost on a restart. When an instance has more logs than its limit, or
+ * the buffer holds the maximum number of instances, the logs are written in the transaction at hand instead.
+ * <p>
+ * Instances that never end on this node (they end on another one, are deleted or archived, or are abandoned) would keep
+ * their logs here for good: the logs of an instance not added to for longer than the maximum age are written out by a
+ * writer thread, a transaction per instance, and so are those of the oldest instances once the buffer is full. Logs of
+ * instances that no longer exist are dropped. Configured in <code>jbpm.cfg.xml</code>:
+ *
+ * <pre>
+ * &lt;int  name=&quot;exception.framework.logging.buffer.limit&quot; value=&quot;500&quot; /&gt;
+ * &lt;int  name=&quot;exception.framework.logging.buffer.instances&quot; value=&quot;10000&quot; /&gt;
+ * &lt;long name=&quot;exception.framework.logging.buffer.max.age&quot; value=&quot;3600000&quot; /&gt;
+ * </pre>
+ */
+public enum ProcessLogBuffer {
+    /** The buffer singleton instance. */
+    INSTANCE;
+
+    /** Configuration entry for the maximum number of logs buffered per instance. */
+    public static final String LIMIT_KEY = "exception.framework.logging.buffer.limit";
+    /** Configuration entry for the maximum number of instances with buffered logs. */
+    public static final String INSTANCES_KEY = "exception.framework.logging.buffer.instances";
+    /** Configuration entry for the time (in ms) after the last logs of an instance that its logs are written out. */
+    public static final String MAX_AGE_KEY = "exception.framework.logging.buffer.max.age";
+
+    private static final Logger LOGGER = Logger.getLogger(ProcessLogBuffer.class);
+
+    private final int limit = FrameworkConfig.getInt(LIMIT_KEY, 500);
+    private final int maxInstances = FrameworkConfig.getInt(INSTANCES_KEY, 10000);
+    private final long maxAge = FrameworkConfig.getLong(MAX_AGE_KEY, 3600000L);
+
+    /** Buffered logs by process instance id, the instance added to longest ago first; guarded by this. */
+    private final Map<Long, Buffer> buffers = new LinkedHashMap<Long, Buffer>();
+
+    private Executor writer;
+
+    /**
+     * @param processInstanceId
+     *            The id of the instance.
+     * @param additional
+     *            The number of logs about to be added.
+     * @return Whether the logs still fit in the buffer.
+     */
+    public synchronized boolean hasRoom(long processInstanceId, int additional) {
+        Buffer buffer = buffers.get(Long.valueOf(processInstanceId));
+        if (buffer == null) {
+            return buffers.size() < maxInstances && additional <= limit;
+        }
+        return buffer.logs.size() + additional <= limit;
+    }
+
+    /**
+     * Add the logs of a committed transaction.
+     *
+     * @param processInstanceId
+     *            The id of the instance.
+     * @param logs
+     *            The snapshots of the logs, in the order they were created.
+     */
+    public synchronized void append(long processInstanceId, List<ProcessLogSnapshot> logs) {
+        Long key = Long.valueOf(processInstanceId);
+        // Moved to the end, the instance was added to last.
+        Buffer buffer = buffers.remove(key);
+        if (buffer == null) {
+            buffer = new Buffer();
+        }
+        buffer.logs.addAll(logs);
+        buffer.appended = System.currentTimeMillis();
+        buffers.put(key, buffer);
+    }
+
+    /**
+     * Remove the logs of an instance, to write them.
+     *
+     * @param processInstanceId
+     *            The id of the instance.
+     * @return The snapshots of the logs, oldest first, or <code>null</code> when none are buffered.
+     */
+    public synchronized List<ProcessLogSnapshot> take(long processInstanceId) {
+        Buffer buffer = buffers.remove(Long.valueOf(processInstanceId));
+        return buffer == null ? null : buffer.logs;
+    }
+
+    /**
+     * Put taken logs back, because the transaction writing them rolled back.
+     *
+     * @param processInstanceId
+     *            The id of the instance.
+     * @param logs
+     *            The logs as taken.
+     */
+    public synchronized void restore(long processInstanceId, List<ProcessLogSnapshot> logs) {
+        Long key = Long.valueOf(processInstanceId);
+        Buffer restored = new Buffer();
+        restored.logs.addAll(logs);
+        restored.appended = System.currentTimeMillis();
+        Buffer later = buffers.remove(key);
+        if (later != null) {
+            restored.logs.addAll(later.logs);
+        }
+        buffers.put(key, restored);
+    }
+
+    /**
+     * Have the writer thread write out the logs of instances not added to for longer than the maximum age, and those of
+     * the oldest instances when the buffer is full.
+     */
+    public void evict() {
+        final Map<Long, List<ProcessLogSnapshot>> evicted = takeEvicted(System.currentTimeMillis() - maxAge);
+        if (!evicted.isEmpty()) {
+            getWriter().execute(new Runnable() {
+                public void run() {
+                    write(evicted);
+                }
+            });
+        }
+    }
+
+    /**
+     * Write out, in the calling thread, the logs of instances not added to since the given time, and those of the oldest
+     * instances when the buffer is full.
+     *
+     * @param appendedBefore
+     *            The time (in ms) the logs of an instance were last added before to be written out.
+     */
+    public void writeOut(long appendedBefore) {
+        write(takeEvicted(appendedBefore));
+    }
+
+    /**
+     * @return The logs removed from the buffer by process instance id, the instance added to longest ago first.
+     */
+    private synchronized Map<Long, List<ProcessLogSnapshot>> takeEvicted(long appendedBefore) {
+        Map<Long, List<ProcessLogSnapshot>> evicted = new LinkedHashMap<Long, List<ProcessLogSnapshot>>();
+        // Room for a tenth of the instances once full, so not every commit has to make room.
+        int target = buffers.size() < maxInstances ? maxInstances : maxInstances - Math.max(1, maxInstances / 10);
+        for (Iterator<Map.Entry<Long, Buffer>> it = buffers.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Long, Buffer> entry = it.next();
+            if (buffers.size() <= target && entry.getValue().appended >= appendedBefore) {
+                break;
+            }
+            evicted.put(entry.getKey(), entry.getValue().logs);
+            it.remove();
+        }
+        return evicted;
+    }
+
+    /**
+     * Write the logs of each instance in a transaction of its own.
+     */
+    private void write(Map<Long, List<ProcessLogSnapshot>> evicted) {
+        for (Map.Entry<Long, List<ProcessLogSnapshot>> logs : evicted.entrySet()) {
+            JbpmContext jbpmCtx = JbpmConfiguration.getInstance().createJbpmContext();
+            try {
+                Session session = jbpmCtx.getSession();
+                if (session.get(ProcessInstance.class, logs.getKey()) == null) {
+                    LOGGER.warn("Process instance " + logs.getKey() + " no longer exists, dropping its "
+                            + logs.getValue().size() + " buffered process logs.");
+                    continue;
+                }
+                for (ProcessLog processLog : ProcessLogSnapshot.rebuild(session, logs.getValue())) {
+                    session.save(processLog);
+                }
+            } catch (RuntimeException ex) {
+                LOGGER.error("Could not write the buffered process logs of process instance " + logs.getKey()
+                        + ", they are lost.", ex);
+                jbpmCtx.setRollbackOnly();
+            } finally {
+                try {
+                    jbpmCtx.close();
+                } catch (RuntimeException ex) {
+                    LOGGER.error("Could not write the buffered process logs of process instance " + logs.getKey()
+                            + ", they are lost.", ex);
+                }
+            }
+        }
+    }
+
+    private synchronized Executor getWriter() {
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ExceptionFrameworkProcessLogWriter");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return writer;
+    }
+
+    /**
+     * @return The number of instances with buffered logs.
+     */
+    public synchronized int getInstanceCount() {
+        return buffers.size();
+    }
+
+    /**
+     * The logs of one instance, with the time they were last added to.
+     */
+    private static final class Buffer {
+        private final List<ProcessLogSnapshot> logs = new ArrayList<ProcessLogSnapshot>();
+        private long appended;
+    }
+}
@@ -0,0 +1,106 @@
+package org.jboss.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * What becomes of the process logs (<code>ProcessLog</code> rows such as VariableCreateLog and TransitionLog) of the
+ * instances of a process definition, applied by the {@link PolicyLoggingService}. Configured per process definition
+ * name in <code>jbpm.cfg.xml</code>, as a comma separated list of <code>name=policy</code> pairs:
+ *
+ * <pre>
+ * &lt;string name=&quot;exception.framework.logging.policies&quot; value=&quot;Exception Framework=summary&quot; /&gt;
+ * &lt;string name=&quot;exception.framework.logging.default.policy&quot; value=&quot;full&quot; /&gt;
+ * </pre>
+ */
+public enum ProcessLogPolicy {
+    /** Write every log, jBPM's own behaviour. */
+    FULL,
+    /** Write only the start and end of the instance. */
+    SUMMARY,
+    /** Keep the logs in memory and write them in one batch when the instance ends (see {@link ProcessLogBuffer}). */
+    BUFFERED,
+    /** Write no logs. */
+    OFF;
+
+    /** Configuration entry for the policies by process definition name. */
+    public static final String POLICIES_KEY = "exception.framework.logging.policies";
+    /** Configuration entry for the policy of the process definitions not listed. */
+    public static final String DEFAULT_POLICY_KEY = "exception.framework.logging.default.policy";
+
+    /**
+     * @param processName
+     *            The name of a process definition.
+     * @return The policy for its instances.
+     */
+    public static ProcessLogPolicy forProcess(String processName) {
+        ProcessLogPolicy policy = Policies.BY_PROCESS.get(processName);
+        return policy == null ? Policies.DEFAULT : policy;
+    }
+
+    /**
+     * Set the policy of a process definition in place of the configured one, e.g. for a definition deployed later on.
+     * Applies to the transactions that log from now on.
+     *
+     * @param processName
+     *            The name of a process definition.
+     * @param policy
+     *            The policy for its instances.
+     */
+    public static void setPolicy(String processName, ProcessLogPolicy policy) {
+        Policies.BY_PROCESS.put(processName, policy);
+    }
+
+    /**
+     * @param value
+     *            The name of a policy, in any case.
+     * @return The policy, <code>null</code> when unknown.
+     */
+    static ProcessLogPolicy parse(String value) {
+        for (ProcessLogPolicy policy : values()) {
+            if (policy.name().equalsIgnoreCase(value.trim())) {
+                return policy;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The configured policies, read on first use.
+     */
+    private static final class Policies {
+        private static final Logger LOGGER = Logger.getLogger(ProcessLogPolicy.class);
+
+        static final ProcessLogPolicy DEFAULT = defaultPolicy();
+        static final Map<String, ProcessLogPolicy> BY_PROCESS = byProcess();
+
+        private static ProcessLogPolicy defaultPolicy() {
+            String value = FrameworkConfig.getString(DEFAULT_POLICY_KEY, FULL.name());
+            ProcessLogPolicy policy = parse(value);
+            if (policy == null) {
+                LOGGER.warn("Unknown process log policy " + value + ", using " + FULL + ".");
+                return FULL;
+            }
+            return policy;
+        }
+
+        private static Map<String, ProcessLogPolicy> byProcess() {
+            Map<String, ProcessLogPolicy> policies = new ConcurrentHashMap<String, ProcessLogPolicy>();
+            for (String entry : FrameworkConfig.getString(POLICIES_KEY, "").split(",")) {
+                if (entry.trim().length() == 0) {
+                    continue;
+                }
+                int separator = entry.lastIndexOf('=');
+                ProcessLogPolicy policy = separator < 0 ? null : parse(entry.substring(separator + 1));
+                if (policy == null) {
+                    LOGGER.warn("Ignoring process log policy entry " + entry.trim() + ".");
+                } else {
+                    policies.put(entry.substring(0, separator).trim(), policy);
+                }
+            }
+            return policies;
+        }
+    }
+}
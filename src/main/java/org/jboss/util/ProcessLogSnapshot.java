@@ -0,0 +1,172 @@
+package org.jboss.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.EntityMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+import org.jbpm.logging.log.ProcessLog;
+
+/**
+ * What the {@link ProcessLogBuffer} keeps of a process log: its mapped class and property values, with the entities it
+ * refers to (token, node, transition, variable instance...) reduced to their ids. A buffered log thereby no longer holds
+ * on to the token and the process instance graph behind it, and the log written when the instance ends refers to the
+ * entities of the session at hand instead of detached ones.
+ */
+public final class ProcessLogSnapshot {
+    /** The entity name of the log, <code>null</code> when its class is not mapped and the log itself is kept. */
+    private final String entityName;
+    /** The property values in mapping order, see {@link EntityReference} and {@link LogReference}. */
+    private final Object[] values;
+    /** The log itself, only when its class is not mapped. */
+    private final ProcessLog unmapped;
+
+    private ProcessLogSnapshot(String entityName, Object[] values, ProcessLog unmapped) {
+        this.entityName = entityName;
+        this.values = values;
+        this.unmapped = unmapped;
+    }
+
+    /**
+     * Copy the logs of a committed transaction; the entities they refer to must have their ids.
+     *
+     * @param sessionFactory
+     *            The session factory the logs are mapped by.
+     * @param logs
+     *            The logs, in the order they were created.
+     * @return The snapshots, in the same order.
+     */
+    public static List<ProcessLogSnapshot> copyOf(SessionFactory sessionFactory, List<ProcessLog> logs) {
+        Map<ProcessLog, ProcessLogSnapshot> copied = new IdentityHashMap<ProcessLog, ProcessLogSnapshot>();
+        List<ProcessLogSnapshot> snapshots = new ArrayList<ProcessLogSnapshot>(logs.size());
+        for (ProcessLog processLog : logs) {
+            ProcessLogSnapshot snapshot = copy(sessionFactory, processLog, copied);
+            copied.put(processLog, snapshot);
+            snapshots.add(snapshot);
+        }
+        return snapshots;
+    }
+
+    /**
+     * Rebuild logs to write, referring to the entities of the given session.
+     *
+     * @param session
+     *            The session the logs are written in.
+     * @param snapshots
+     *            The snapshots, oldest first.
+     * @return New, unsaved logs in the same order.
+     */
+    public static List<ProcessLog> rebuild(Session session, List<ProcessLogSnapshot> snapshots) {
+        Map<ProcessLogSnapshot, ProcessLog> rebuilt = new IdentityHashMap<ProcessLogSnapshot, ProcessLog>();
+        List<ProcessLog> logs = new ArrayList<ProcessLog>(snapshots.size());
+        for (ProcessLogSnapshot snapshot : snapshots) {
+            logs.add(snapshot.rebuild(session, rebuilt));
+        }
+        return logs;
+    }
+
+    private static ProcessLogSnapshot copy(SessionFactory sessionFactory, ProcessLog processLog,
+            Map<ProcessLog, ProcessLogSnapshot> copied) {
+        ClassMetadata metadata = sessionFactory.getClassMetadata(processLog.getClass().getName());
+        if (metadata == null) {
+            return new ProcessLogSnapshot(null, null, processLog);
+        }
+        Object[] values = metadata.getPropertyValues(processLog, EntityMode.POJO);
+        Type[] types = metadata.getPropertyTypes();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null && types[i].isEntityType()) {
+                values[i] = reference(sessionFactory, ((EntityType) types[i]).getAssociatedEntityName(), values[i],
+                        copied);
+            }
+        }
+        return new ProcessLogSnapshot(metadata.getEntityName(), values, null);
+    }
+
+    /**
+     * @return What is kept of an entity the log refers to.
+     */
+    private static Object reference(SessionFactory sessionFactory, String associatedEntityName, Object entity,
+            Map<ProcessLog, ProcessLogSnapshot> copied) {
+        ProcessLogSnapshot parent = copied.get(entity);
+        if (parent != null) {
+            // A composite log buffered along with this one.
+            return new LogReference(parent);
+        }
+        Serializable id;
+        if (entity instanceof HibernateProxy) {
+            id = ((HibernateProxy) entity).getHibernateLazyInitializer().getIdentifier();
+        } else {
+            id = sessionFactory.getClassMetadata(associatedEntityName).getIdentifier(entity, EntityMode.POJO);
+        }
+        if (id == null || (id instanceof Number && ((Number) id).longValue() == 0)) {
+            // Not persisted: a log that was not buffered is dropped, anything else (a byte array...) is written with it.
+            return entity instanceof ProcessLog ? null : entity;
+        }
+        return new EntityReference(associatedEntityName, id);
+    }
+
+    private ProcessLog rebuild(Session session, Map<ProcessLogSnapshot, ProcessLog> rebuilt) {
+        ProcessLog processLog = rebuilt.get(this);
+        if (processLog != null) {
+            return processLog;
+        }
+        if (unmapped != null) {
+            processLog = unmapped;
+        } else {
+            ClassMetadata metadata = session.getSessionFactory().getClassMetadata(entityName);
+            processLog = (ProcessLog) metadata.instantiate(null, EntityMode.POJO);
+            Object[] resolved = new Object[values.length];
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] instanceof EntityReference) {
+                    resolved[i] = ((EntityReference) values[i]).load(session);
+                } else if (values[i] instanceof LogReference) {
+                    resolved[i] = ((LogReference) values[i]).log.rebuild(session, rebuilt);
+                } else {
+                    resolved[i] = values[i];
+                }
+            }
+            metadata.setPropertyValues(processLog, resolved, EntityMode.POJO);
+        }
+        rebuilt.put(this, processLog);
+        return processLog;
+    }
+
+    /**
+     * A persisted entity a log refers to.
+     */
+    private static final class EntityReference {
+        private final String entityName;
+        private final Serializable id;
+
+        EntityReference(String entityName, Serializable id) {
+            this.entityName = entityName;
+            this.id = id;
+        }
+
+        /**
+         * @return The entity in the session, or a proxy of it: no query is needed to write the log.
+         */
+        Object load(Session session) {
+            return session.load(entityName, id);
+        }
+    }
+
+    /**
+     * A log buffered in the same transaction, the parent of a log in a composite log.
+     */
+    private static final class LogReference {
+        private final ProcessLogSnapshot log;
+
+        LogReference(ProcessLogSnapshot log) {
+            this.log = log;
+        }
+    }
+}
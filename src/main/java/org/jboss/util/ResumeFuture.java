@@ -0,0 +1,138 @@
+package org.jboss.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Completes when an originating process instance is resumed by the Exception Framework, with the transition it left its
+ * node over (<code>null</code> for the default transition). Obtained from {@link ResumeNotifier#await(long)}.
+ * <p>
+ * When the trigger fails, {@link #get()} throws an <code>ExecutionException</code> with its cause. When the last caller
+ * waiting in {@link #get(long, TimeUnit)} times out the future is given up: it is removed from the notifier and fails with
+ * the <code>TimeoutException</code> for anyone asking later.
+ */
+public final class ResumeFuture implements Future<String> {
+    private final long processInstanceId;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final AtomicInteger waiters = new AtomicInteger();
+    private volatile String transitionName;
+    private volatile Throwable failure;
+    private volatile boolean cancelled;
+
+    ResumeFuture(long processInstanceId) {
+        this.processInstanceId = processInstanceId;
+    }
+
+    public long getProcessInstanceId() {
+        return processInstanceId;
+    }
+
+    /** {@inheritDoc} */
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (isDone()) {
+                return false;
+            }
+            cancelled = true;
+            done.countDown();
+        }
+        ResumeNotifier.INSTANCE.remove(this);
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    /** {@inheritDoc} */
+    public String get() throws InterruptedException, ExecutionException {
+        waiters.incrementAndGet();
+        try {
+            done.await();
+        } finally {
+            waiters.decrementAndGet();
+        }
+        return result();
+    }
+
+    /** {@inheritDoc} */
+    public String get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        boolean completed;
+        waiters.incrementAndGet();
+        try {
+            completed = done.await(timeout, unit);
+        } finally {
+            waiters.decrementAndGet();
+        }
+        if (!completed) {
+            TimeoutException ex = new TimeoutException("Process instance " + processInstanceId + " not resumed within "
+                    + timeout + " " + unit + ".");
+            giveUp(ex);
+            throw ex;
+        }
+        return result();
+    }
+
+    /**
+     * @param transition
+     *            The transition the instance left its node over.
+     */
+    synchronized void complete(String transition) {
+        if (!isDone()) {
+            transitionName = transition;
+            done.countDown();
+        }
+    }
+
+    /**
+     * @param cause
+     *            Why the instance is not resumed.
+     */
+    synchronized void fail(Throwable cause) {
+        if (!isDone()) {
+            failure = cause;
+            done.countDown();
+        }
+    }
+
+    /**
+     * Stop waiting for the instance when nobody waits any more.
+     */
+    private void giveUp(TimeoutException cause) {
+        synchronized (this) {
+            if (isDone() || waiters.get() > 0) {
+                return;
+            }
+            failure = cause;
+            done.countDown();
+        }
+        ResumeNotifier.INSTANCE.remove(this);
+    }
+
+    private String result() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return transitionName;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "ResumeFuture(" + processInstanceId + (isDone() ? ", done" : "") + ")";
+    }
+}
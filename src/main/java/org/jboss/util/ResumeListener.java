@@ -0,0 +1,19 @@
+package org.jboss.util;
+
+/**
+ * Notified in the JVM when an originating process instance was resumed by the Exception Framework, see
+ * {@link ResumeNotifier}.
+ */
+public interface ResumeListener {
+
+    /**
+     * Called on the thread that committed the trigger; keep it short and do not throw.
+     *
+     * @param processInstanceId
+     *            The id of the originating process instance.
+     * @param transitionName
+     *            The transition it left its node over, {@link RetryRouting#RETRY_TRANSITION_NAME} for a retry, or
+     *            <code>null</code> for the default transition.
+     */
+    void resumed(long processInstanceId, String transitionName);
+}
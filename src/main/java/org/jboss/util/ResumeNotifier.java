@@ -0,0 +1,146 @@
+package org.jboss.util;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.apache.log4j.Logger;
+import org.jbpm.JbpmContext;
+
+/**
+ * Push notification, within the JVM, of originating process instances resumed by the Exception Framework, so callers
+ * (e.g. front-end request threads) can wait for a round trip without polling the database.
+ * <p>
+ * Waiters get a {@link ResumeFuture} per originating process instance and listeners are told about every instance. Both
+ * are notified once the transaction that triggered the instance committed; nothing is kept for instances nobody waits
+ * for. When the trigger fails the future fails with its cause, and when the last waiter times out the future is given
+ * up, so no future is kept for an instance that is not going to be resumed. Only triggers within this JVM are seen, so a
+ * caller in another node of a cluster still has to poll.
+ */
+public enum ResumeNotifier {
+    /** The notifier singleton instance. */
+    INSTANCE;
+
+    private static final Logger LOGGER = Logger.getLogger(ResumeNotifier.class);
+
+    private final ConcurrentMap<Long, ResumeFuture> futures = new ConcurrentHashMap<Long, ResumeFuture>();
+    private final List<ResumeListener> listeners = new CopyOnWriteArrayList<ResumeListener>();
+
+    /**
+     * Wait for an originating process instance to be resumed. Ask before its task can be resolved (e.g. right after the
+     * failure), a trigger that committed earlier is not remembered.
+     *
+     * @param processInstanceId
+     *            The id of the originating process instance.
+     * @return The future for the instance, shared by all callers waiting for it.
+     */
+    public ResumeFuture await(long processInstanceId) {
+        Long key = Long.valueOf(processInstanceId);
+        ResumeFuture future = futures.get(key);
+        if (future == null) {
+            future = new ResumeFuture(processInstanceId);
+            ResumeFuture existing = futures.putIfAbsent(key, future);
+            if (existing != null) {
+                future = existing;
+            }
+        }
+        return future;
+    }
+
+    /**
+     * @param listener
+     *            Told about every originating process instance resumed from now on.
+     */
+    public void addListener(ResumeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener
+     *            A listener added before.
+     */
+    public void removeListener(ResumeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Notify waiters and listeners once the current transaction commits.
+     *
+     * @param jbpmCtx
+     *            The context the originating process instance was triggered in.
+     * @param processInstanceId
+     *            The id of the originating process instance.
+     * @param transitionName
+     *            The transition it left its node over, or <code>null</code> for the default transition.
+     */
+    public void resumeAfterCommit(JbpmContext jbpmCtx, final long processInstanceId, final String transitionName) {
+        if (listeners.isEmpty() && !futures.containsKey(Long.valueOf(processInstanceId))) {
+            return;
+        }
+        jbpmCtx.getSession().getTransaction().registerSynchronization(new Synchronization() {
+            public void beforeCompletion() {
+            }
+
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    resumed(processInstanceId, transitionName);
+                }
+            }
+        });
+    }
+
+    /**
+     * Fail the waiters for an originating process instance once the current transaction completed, unless it resumed the
+     * instance; for a trigger that failed or was skipped.
+     *
+     * @param jbpmCtx
+     *            The context the originating process instance was to be triggered in.
+     * @param processInstanceId
+     *            The id of the originating process instance.
+     * @param cause
+     *            Why the instance is not resumed.
+     */
+    public void failAfterCompletion(JbpmContext jbpmCtx, final long processInstanceId, final Throwable cause) {
+        if (!futures.containsKey(Long.valueOf(processInstanceId))) {
+            return;
+        }
+        // Registered after a resumeAfterCommit of the same transaction, so a committed resume completes first.
+        jbpmCtx.getSession().getTransaction().registerSynchronization(new Synchronization() {
+            public void beforeCompletion() {
+            }
+
+            public void afterCompletion(int status) {
+                ResumeFuture future = futures.remove(Long.valueOf(processInstanceId));
+                if (future != null) {
+                    future.fail(cause);
+                }
+            }
+        });
+    }
+
+    /**
+     * @param future
+     *            A future that will not be completed any more.
+     */
+    void remove(ResumeFuture future) {
+        futures.remove(Long.valueOf(future.getProcessInstanceId()), future);
+    }
+
+    private void resumed(long processInstanceId, String transitionName) {
+        ResumeFuture future = futures.remove(Long.valueOf(processInstanceId));
+        if (future != null) {
+            future.complete(transitionName);
+        }
+        for (ResumeListener listener : listeners) {
+            try {
+                listener.resumed(processInstanceId, transitionName);
+            } catch (RuntimeException ex) {
+                LOGGER.error("Resume listener " + listener + " failed for process instance " + processInstanceId + ".", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.jboss.util;
+
+import java.util.Date;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+import org.jboss.handler.StartExceptionFrameworkHandler;
+import org.jbpm.graph.def.Transition;
+import org.jbpm.graph.exe.ExecutionContext;
+import org.jbpm.graph.exe.Token;
+import org.jbpm.job.Timer;
+
+/**
+ * Exponential backoff with jitter for automatic retries. The waiting period is not spent in a thread: a persisted jBPM
+ * timer on the waiting token takes its leaving transition once due, so pending retries cost a row each and are picked up
+ * by the regular JobExecutor polling.
+ * <p>
+ * The delay for attempt <i>n</i> (starting at 0) is <code>initial * 2^n</code>, capped at the maximum, of which up to the
+ * jitter percentage is taken off at random to spread retries that failed together:
+ *
+ * <pre>
+ * &lt;long name=&quot;exception.framework.retry.initial.delay&quot; value=&quot;1000&quot; /&gt;
+ * &lt;long name=&quot;exception.framework.retry.max.delay&quot; value=&quot;300000&quot; /&gt;
+ * &lt;int  name=&quot;exception.framework.retry.jitter&quot; value=&quot;50&quot; /&gt;
+ * &lt;int  name=&quot;exception.framework.retry.max.attempts&quot; value=&quot;5&quot; /&gt;
+ * </pre>
+ */
+public enum RetryBackoff {
+    /** The backoff singleton instance. */
+    INSTANCE;
+
+    /** Configuration entry for the delay (in ms) before the first retry. */
+    public static final String INITIAL_DELAY_KEY = "exception.framework.retry.initial.delay";
+    /** Configuration entry for the maximum delay (in ms) before a retry. */
+    public static final String MAX_DELAY_KEY = "exception.framework.retry.max.delay";
+    /** Configuration entry for the percentage of the delay that is randomized. */
+    public static final String JITTER_KEY = "exception.framework.retry.jitter";
+    /** Configuration entry for the number of automatic retries before an exception goes to a human task. */
+    public static final String MAX_ATTEMPTS_KEY = "exception.framework.retry.max.attempts";
+
+    /** Name of the timers, to recognize them in the job table. */
+    public static final String TIMER_NAME = "Retry backoff";
+
+    private static final Logger LOGGER = Logger.getLogger(RetryBackoff.class);
+
+    private final long initialDelay = FrameworkConfig.getLong(INITIAL_DELAY_KEY, 1000L);
+    private final long maxDelay = FrameworkConfig.getLong(MAX_DELAY_KEY, 300000L);
+    private final int jitter = Math.max(0, Math.min(100, FrameworkConfig.getInt(JITTER_KEY, 50)));
+    private final int maxAttempts = FrameworkConfig.getInt(MAX_ATTEMPTS_KEY, 5);
+
+    private final Random random = new Random();
+
+    /**
+     * @param attempt
+     *            The number of retries done before, 0 for the first retry.
+     * @return The delay (in ms) before the retry.
+     */
+    public long getDelay(int attempt) {
+        long delay = initialDelay;
+        for (int i = 0; i < attempt && delay < maxDelay; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxDelay);
+        long randomized = delay * jitter / 100;
+        if (randomized > 0) {
+            delay -= (long) (random.nextDouble() * randomized);
+        }
+        return delay;
+    }
+
+    /**
+     * @param executionContext
+     *            The context of the Exception Framework instance.
+     * @return The number of automatic retries in a row done before for the originating process.
+     */
+    public int getAttempt(ExecutionContext executionContext) {
+        Object attempt = executionContext.getVariable(StartExceptionFrameworkHandler.EXCEPTION_RETRY_ATTEMPT_KEY);
+        return attempt instanceof Integer ? ((Integer) attempt).intValue() : 0;
+    }
+
+    /**
+     * @param attempt
+     *            The number of retries done before.
+     * @return Whether no more automatic retries are to be done.
+     */
+    public boolean isExhausted(int attempt) {
+        return attempt >= maxAttempts;
+    }
+
+    /**
+     * Have the token take the default leaving transition of its node after the backoff delay, by means of a persisted timer
+     * created in the current transaction.
+     *
+     * @param executionContext
+     *            The context of the token waiting for the retry.
+     * @param attempt
+     *            The number of retries done before.
+     * @return Whether a timer was scheduled; if not, the caller has to move the token along itself.
+     */
+    public boolean schedule(ExecutionContext executionContext, int attempt) {
+        Token token = executionContext.getToken();
+        Transition transition = token.getNode().getDefaultLeavingTransition();
+        if (transition == null || transition.getName() == null) {
+            LOGGER.error("Node " + token.getNode().getName() + " needs a named leaving transition for a retry backoff timer.");
+            return false;
+        }
+
+        long delay = getDelay(attempt);
+        Timer timer = new Timer(token);
+        timer.setName(TIMER_NAME);
+        timer.setDueDate(new Date(System.currentTimeMillis() + delay));
+        timer.setTransitionName(transition.getName());
+        executionContext.getJbpmContext().getServices().getSchedulerService().createTimer(timer);
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Scheduled retry " + (attempt + 1) + " for token " + token.getId() + " in " + delay + " ms.");
+        }
+        return true;
+    }
+}
@@ -0,0 +1,54 @@
+package org.jboss.util;
+
+import org.jboss.handler.TriggerOriginatingProcessHandler;
+import org.jbpm.graph.def.Node;
+import org.jbpm.graph.exe.ExecutionContext;
+import org.jbpm.graph.exe.Token;
+
+/**
+ * Routing of a retry back to the node an exception originated from, per token and without touching the (shared, cached)
+ * process definitions: the Exception Framework instance records the decision in its own context and the originating token
+ * re-enters its current node instead of following a loop-back transition.
+ */
+public final class RetryRouting {
+    /** Name of the (virtual) transition that leads back to the originating node. */
+    public static final String RETRY_TRANSITION_NAME = "Retry";
+
+    /** Utility class. */
+    private RetryRouting() {
+    }
+
+    /**
+     * Record in the Exception Framework instance that the originating node is to be retried.
+     *
+     * @param executionContext
+     *            The context of the Exception Framework instance.
+     */
+    public static void requestRetry(ExecutionContext executionContext) {
+        executionContext.setVariable(TriggerOriginatingProcessHandler.EXCEPTION_ORIGINATING_NODE_LEAVE_TRANSITION_KEY,
+                RETRY_TRANSITION_NAME);
+    }
+
+    /**
+     * @param token
+     *            The originating token.
+     * @param transitionName
+     *            The transition requested for the originating token.
+     * @return Whether the request is a retry that has to be routed by {@link #retry(Token)}, i.e. the node of the token has
+     *         no real transition with that name.
+     */
+    public static boolean isRetry(Token token, String transitionName) {
+        return RETRY_TRANSITION_NAME.equals(transitionName) && !token.getNode().hasLeavingTransition(transitionName);
+    }
+
+    /**
+     * Have the token enter its current node again, as if it took a transition looping back to it.
+     *
+     * @param token
+     *            The originating token, waiting in the node that threw the exception.
+     */
+    public static void retry(Token token) {
+        Node node = token.getNode();
+        node.enter(new ExecutionContext(token));
+    }
+}
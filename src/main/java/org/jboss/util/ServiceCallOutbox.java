@@ -0,0 +1,213 @@
+package org.jboss.util;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Session;
+import org.jboss.handler.AbstractExceptionActionHandler;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+
+/**
+ * Transactional outbox for asynchronous service calls.
+ * <p>
+ * Instead of dispatching a service call after the transaction of the State node completed, an entry is saved within that
+ * transaction: rolled back work never becomes visible and committed work survives a crash. A single dispatcher thread claims
+ * entries in batches and dispatches them like any other service call; a service call removes its entry in the transaction
+ * that signals the token. Claims that are not acknowledged in time are picked up again, up to a maximum number of attempts.
+ * The claim timeout is kept well above the time a service call may wait in between (breaker open, in place retries), and
+ * a service call checks its entry still exists once it holds the lock on its token, so one that was dispatched twice is
+ * only performed by the first to get there.
+ * The dispatcher starts with the jBPM configuration (see {@link ExceptionFrameworkServiceFactory}), so entries left
+ * pending or claimed by a previous run are dispatched after a restart.
+ * <p>
+ * Enabled by setting <code>exception.framework.dispatch.mode</code> to <code>outbox</code> in <code>jbpm.cfg.xml</code>.
+ */
+public enum ServiceCallOutbox {
+    /** The outbox singleton instance. */
+    INSTANCE;
+
+    /** Configuration entry for the way asynchronous service calls are dispatched: synchronization or outbox. */
+    public static final String DISPATCH_MODE_KEY = "exception.framework.dispatch.mode";
+    /** Configuration entry for the time (in ms) between two polls of the outbox. */
+    public static final String POLL_INTERVAL_KEY = "exception.framework.outbox.poll.interval";
+    /** Configuration entry for the maximum number of entries claimed per poll. */
+    public static final String BATCH_SIZE_KEY = "exception.framework.outbox.batch.size";
+    /** Configuration entry for the time (in ms) after which an unacknowledged claim is dispatched again. */
+    public static final String CLAIM_TIMEOUT_KEY = "exception.framework.outbox.claim.timeout";
+    /** Configuration entry for the number of dispatch attempts before an entry is left for manual inspection. */
+    public static final String MAX_ATTEMPTS_KEY = "exception.framework.outbox.max.attempts";
+
+    private static final String DISPATCH_MODE_OUTBOX = "outbox";
+
+    private static final String CLAIMABLE_QUERY = "select e from org.jboss.util.ServiceCallOutboxEntry e "
+            + "where (e.claimed is null or e.claimed < :staleBefore) and e.attempts < :maxAttempts order by e.id";
+
+    private static final Logger LOGGER = Logger.getLogger(ServiceCallOutbox.class);
+
+    private final boolean enabled = DISPATCH_MODE_OUTBOX.equalsIgnoreCase(FrameworkConfig.getString(DISPATCH_MODE_KEY,
+            "synchronization"));
+    private final long pollInterval = FrameworkConfig.getLong(POLL_INTERVAL_KEY, 500L);
+    private final int batchSize = FrameworkConfig.getInt(BATCH_SIZE_KEY, 50);
+    private final long claimTimeout = claimTimeout(FrameworkConfig.getLong(CLAIM_TIMEOUT_KEY, 300000L));
+    private final int maxAttempts = FrameworkConfig.getInt(MAX_ATTEMPTS_KEY, 5);
+
+    private Thread dispatcher;
+
+    /**
+     * @return Whether asynchronous service calls go through the outbox.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Save a pending service call within the current transaction and make sure the dispatcher runs.
+     *
+     * @param jbpmCtx
+     *            The context of the transaction in which the State node was entered.
+     * @param processInstanceId
+     *            The id of the process instance.
+     * @param tokenId
+     *            The id of the waiting token.
+     * @param handlerClassName
+     *            The handler performing the service call.
+     */
+    public void add(JbpmContext jbpmCtx, long processInstanceId, long tokenId, String handlerClassName) {
+        jbpmCtx.getSession().save(new ServiceCallOutboxEntry(processInstanceId, tokenId, handlerClassName));
+        start();
+    }
+
+    /**
+     * Remove an entry in the transaction that completes its service call.
+     *
+     * @param jbpmCtx
+     *            The context of the completing transaction.
+     * @param entryId
+     *            The id of the entry.
+     */
+    public void acknowledge(JbpmContext jbpmCtx, long entryId) {
+        Session session = jbpmCtx.getSession();
+        Object entry = session.get(ServiceCallOutboxEntry.class, Long.valueOf(entryId));
+        if (entry != null) {
+            session.delete(entry);
+        }
+    }
+
+    /**
+     * Check an entry within the transaction of its service call, once the token is locked: a claim dispatched again
+     * while the service call was still queued or waiting finds it acknowledged by the first.
+     *
+     * @param jbpmCtx
+     *            The context of the service call.
+     * @param entryId
+     *            The id of the entry.
+     * @return Whether the entry still exists.
+     */
+    public boolean isPending(JbpmContext jbpmCtx, long entryId) {
+        return jbpmCtx.getSession().get(ServiceCallOutboxEntry.class, Long.valueOf(entryId)) != null;
+    }
+
+    /**
+     * Start the dispatcher thread, if not already running.
+     */
+    public synchronized void start() {
+        if (dispatcher == null) {
+            dispatcher = new Thread(new Dispatcher(), "ExceptionFrameworkOutboxDispatcher");
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+            LOGGER.info("Started outbox dispatcher, polling every " + pollInterval + " ms, claim timeout " + claimTimeout
+                    + " ms.");
+        }
+    }
+
+    /**
+     * Stop the dispatcher thread; entries that are claimed but not yet handled are picked up again after a restart.
+     */
+    public synchronized void stop() {
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+            dispatcher = null;
+        }
+    }
+
+    /**
+     * Claim the next batch of entries in a transaction of its own and dispatch them.
+     *
+     * @return The number of entries dispatched.
+     */
+    int dispatchBatch() {
+        List<?> entries;
+        JbpmContext jbpmCtx = JbpmConfiguration.getInstance().createJbpmContext();
+        try {
+            Date now = new Date();
+            entries = jbpmCtx.getSession().createQuery(CLAIMABLE_QUERY)
+                    .setTimestamp("staleBefore", new Date(now.getTime() - claimTimeout))
+                    .setInteger("maxAttempts", maxAttempts)
+                    .setMaxResults(batchSize)
+                    .list();
+            for (Object entry : entries) {
+                ((ServiceCallOutboxEntry) entry).claim(now);
+            }
+        } catch (RuntimeException ex) {
+            // Most likely another dispatcher claimed (part of) the same batch.
+            jbpmCtx.setRollbackOnly();
+            throw ex;
+        } finally {
+            jbpmCtx.close();
+        }
+
+        for (Object o : entries) {
+            ServiceCallOutboxEntry entry = (ServiceCallOutboxEntry) o;
+            if (entry.getAttempts() >= maxAttempts) {
+                LOGGER.error("Last dispatch attempt for " + entry + ", it will not be retried after this.");
+            }
+            try {
+                new AbstractExceptionActionHandler.ServiceRunner(entry.getProcessInstanceId(), entry.getTokenId(), entry
+                        .getHandlerClassName(), Long.valueOf(entry.getId())).dispatch();
+            } catch (RejectedExecutionException ex) {
+                LOGGER.warn("Service call pool rejected " + entry + ", it is dispatched again after the claim timeout.");
+            }
+        }
+        return entries.size();
+    }
+
+    /**
+     * @return The configured claim timeout, raised to twice the time a service call can wait for the circuit breaker
+     *         and its in place retries.
+     */
+    private static long claimTimeout(long configured) {
+        long waiting = InPlaceRetry.INSTANCE.getMaxTotalDelay();
+        if (CircuitBreaker.isEnabled()) {
+            waiting += FrameworkConfig.getLong(CircuitBreaker.OPEN_DURATION_KEY, 30000L);
+        }
+        return Math.max(configured, 2 * waiting);
+    }
+
+    /**
+     * Polls the outbox; keeps polling without delay as long as full batches are found.
+     */
+    private class Dispatcher implements Runnable {
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    if (dispatchBatch() < batchSize) {
+                        Thread.sleep(pollInterval);
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException ex) {
+                    LOGGER.error("Outbox dispatch failed, retrying after " + pollInterval + " ms.", ex);
+                    try {
+                        Thread.sleep(pollInterval);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            LOGGER.info("Outbox dispatcher stopped.");
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.jboss.util;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * A pending asynchronous service call, written in the same transaction as the State node that requires it (see
+ * <code>exception.framework.hbm.xml</code>).
+ */
+public class ServiceCallOutboxEntry implements Serializable {
+    /** Serial version UID. */
+    private static final long serialVersionUID = 1L;
+
+    private long id;
+    private int version;
+    private long processInstanceId;
+    private long tokenId;
+    private String handlerClassName;
+    private Date created;
+    private Date claimed;
+    private int attempts;
+
+    /** Default constructor required by Hibernate. */
+    protected ServiceCallOutboxEntry() {
+    }
+
+    /**
+     * @param processInstanceId
+     *            The id of the process instance.
+     * @param tokenId
+     *            The id of the token waiting in the State node.
+     * @param handlerClassName
+     *            The name of the handler class performing the service call.
+     */
+    public ServiceCallOutboxEntry(long processInstanceId, long tokenId, String handlerClassName) {
+        this.processInstanceId = processInstanceId;
+        this.tokenId = tokenId;
+        this.handlerClassName = handlerClassName;
+        this.created = new Date();
+    }
+
+    /**
+     * Mark this entry as handed to the dispatcher.
+     *
+     * @param now
+     *            The claim time.
+     */
+    void claim(Date now) {
+        claimed = now;
+        attempts++;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getProcessInstanceId() {
+        return processInstanceId;
+    }
+
+    public long getTokenId() {
+        return tokenId;
+    }
+
+    public String getHandlerClassName() {
+        return handlerClassName;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public Date getClaimed() {
+        return claimed;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "ServiceCallOutboxEntry(" + id + ", token " + tokenId + ", " + handlerClassName + ")";
+    }
+}
@@ -0,0 +1,66 @@
+package org.jboss.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter that spreads its updates over a number of cells, picked by thread, so threads counting at the same time do not
+ * contend for one cache line; reading sums the cells. Updates do not allocate.
+ */
+public final class StripedCounter {
+    /** Longs per cell, so two cells never share a (64 byte) cache line. */
+    private static final int PADDING = 8;
+
+    private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    /**
+     * @param delta
+     *            The amount to add.
+     */
+    public void add(long delta) {
+        cells.addAndGet(index(), delta);
+    }
+
+    /** Add one. */
+    public void increment() {
+        cells.incrementAndGet(index());
+    }
+
+    /**
+     * @return The sum of the cells; not an atomic snapshot while updates are going on.
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    /** Set the counter back to zero. */
+    public void reset() {
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            cells.set(i, 0);
+        }
+    }
+
+    private static int index() {
+        return ((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+    }
+
+    /** @return The power of two at or above twice the number of processors, at most 64. */
+    private static int stripes(int processors) {
+        int stripes = 1;
+        while (stripes < processors * 2 && stripes < 64) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return String.valueOf(sum());
+    }
+}
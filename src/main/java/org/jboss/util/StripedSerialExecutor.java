@@ -0,0 +1,216 @@
+package org.jboss.util;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Executes tasks with the same key one after the other, in submission order, while tasks with different keys run in
+ * parallel on the underlying executor. There is no global lock: each key has a queue of its own, which only exists while it
+ * has work.
+ * <p>
+ * A worker runs the tasks of a key until the key has no more work, handing the queue back to the executor after a
+ * budget of tasks so other keys get their turn. The hand back goes through a separate executor that never blocks nor
+ * runs the queue in the worker; when it has no room the worker just keeps draining.
+ * <p>
+ * When the executor rejects the queue of a key, its tasks are persisted as jobs where possible (see
+ * {@link PersistableServiceCall}).
+ */
+public class StripedSerialExecutor {
+    private static final Logger LOGGER = Logger.getLogger(StripedSerialExecutor.class);
+
+    /** Number of tasks a worker runs for a key before handing the queue back. */
+    private static final int DRAIN_BUDGET = 16;
+
+    private final Executor executor;
+    private final Executor resubmitter;
+    private final ConcurrentMap<Long, SerialQueue> queues = new ConcurrentHashMap<Long, SerialQueue>();
+
+    /**
+     * @param executor
+     *            The executor that runs the tasks.
+     */
+    public StripedSerialExecutor(Executor executor) {
+        this(executor, executor);
+    }
+
+    /**
+     * @param executor
+     *            The executor that runs the tasks.
+     * @param resubmitter
+     *            Takes back the queue of a key from a worker that used up its budget; must throw a
+     *            <code>RejectedExecutionException</code> instead of blocking or running the queue itself.
+     */
+    public StripedSerialExecutor(Executor executor, Executor resubmitter) {
+        this.executor = executor;
+        this.resubmitter = resubmitter;
+    }
+
+    /**
+     * @param key
+     *            The key to serialize on, e.g. a process instance id.
+     * @param command
+     *            The task.
+     */
+    public void execute(long key, Runnable command) {
+        Long stripe = Long.valueOf(key);
+        while (true) {
+            SerialQueue queue = queues.get(stripe);
+            if (queue == null) {
+                SerialQueue created = new SerialQueue(stripe);
+                queue = queues.putIfAbsent(stripe, created);
+                if (queue == null) {
+                    queue = created;
+                }
+            }
+            if (queue.add(command)) {
+                return;
+            }
+            // The queue was retired meanwhile, a new one is needed.
+        }
+    }
+
+    /**
+     * @return The number of keys with queued or running tasks.
+     */
+    public int getActiveKeys() {
+        return queues.size();
+    }
+
+    /**
+     * The tasks of one key; submitted to the executor as a single task while it has work.
+     */
+    private final class SerialQueue implements PersistableServiceCall {
+        private final Long key;
+        private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+        /** Guarded by this. */
+        private boolean active;
+        /** Guarded by this; set once the queue is removed from the map. */
+        private boolean retired;
+
+        SerialQueue(Long key) {
+            this.key = key;
+        }
+
+        /**
+         * @return <code>false</code> if this queue is retired and the task was not added.
+         */
+        boolean add(Runnable command) {
+            boolean schedule;
+            synchronized (this) {
+                if (retired) {
+                    return false;
+                }
+                tasks.add(command);
+                schedule = !active;
+                active = true;
+            }
+            if (schedule) {
+                submit();
+            }
+            return true;
+        }
+
+        public void run() {
+            RuntimeException failure = null;
+            int budget = DRAIN_BUDGET;
+            while (true) {
+                Runnable task = poll();
+                if (task != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException ex) {
+                        // Reported once the queue is handed on, the other tasks of the key still have to run.
+                        if (failure == null) {
+                            failure = ex;
+                        } else {
+                            LOGGER.error("Task for key " + key + " failed.", ex);
+                        }
+                    }
+                }
+                if (!hasMore()) {
+                    break;
+                }
+                if (--budget == 0) {
+                    if (resubmit()) {
+                        break;
+                    }
+                    budget = DRAIN_BUDGET;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        /**
+         * Hand the queued tasks to the job table, when the executor is not able to accept this queue.
+         */
+        public void persistAsJob() {
+            do {
+                Runnable task;
+                while ((task = poll()) != null) {
+                    if (task instanceof PersistableServiceCall) {
+                        ((PersistableServiceCall) task).persistAsJob();
+                    } else {
+                        LOGGER.error("Unable to persist task " + task + " for key " + key + ", dropping it.");
+                    }
+                }
+            } while (hasMore());
+        }
+
+        private synchronized Runnable poll() {
+            return tasks.poll();
+        }
+
+        /**
+         * @return Whether there are more tasks; if not, this queue is deactivated and retired.
+         */
+        private boolean hasMore() {
+            synchronized (this) {
+                if (!tasks.isEmpty()) {
+                    return true;
+                }
+                active = false;
+                retired = true;
+            }
+            queues.remove(key, this);
+            return false;
+        }
+
+        /**
+         * Hand this queue back to the executor, so other keys get their turn.
+         *
+         * @return <code>false</code> when there is no room; the caller keeps draining.
+         */
+        private boolean resubmit() {
+            try {
+                resubmitter.execute(this);
+                return true;
+            } catch (RejectedExecutionException ex) {
+                return false;
+            }
+        }
+
+        private void submit() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException ex) {
+                // Tasks of other submitters are queued here too, so do not just fail the current one.
+                LOGGER.error("Executor rejected the tasks for key " + key + ", persisting them as jobs.");
+                persistAsJob();
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public String toString() {
+            return "SerialQueue(" + key + ")";
+        }
+    }
+}
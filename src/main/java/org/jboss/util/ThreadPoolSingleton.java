@@ -1,37 +1,202 @@
 package org.jboss.util;
 
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
 /**
- * Ensures this is a singleton implementation of the ThreadPool for service calls. 
+ * Ensures this is a singleton implementation of the ThreadPool for service calls.
+ * <p>
+ * The pool size, the capacity of the queue and the policy applied when the queue is full are read from
+ * <code>jbpm.cfg.xml</code>, e.g.:
+ *
+ * <pre>
+ * &lt;int    name=&quot;exception.framework.pool.size&quot; value=&quot;10&quot; /&gt;
+ * &lt;int    name=&quot;exception.framework.pool.queue.capacity&quot; value=&quot;1000&quot; /&gt;
+ * &lt;string name=&quot;exception.framework.pool.overflow.policy&quot; value=&quot;block&quot; /&gt;
+ * &lt;long   name=&quot;exception.framework.pool.overflow.timeout&quot; value=&quot;30000&quot; /&gt;
+ * </pre>
+ *
+ * Service calls submitted for a process instance are run one after the other per instance by default (see
+ * {@link StripedSerialExecutor}), so they do not contend for the same rows.
+ * <p>
+ * With the executor mode set to <code>virtual</code> (requires a Java 21+ runtime) each service call runs on its own
+ * virtual thread instead; the number of service calls holding a <code>JbpmContext</code> at the same time is then capped
+ * by <code>exception.framework.context.permits</code> to protect the connection pool.
  */
 public enum ThreadPoolSingleton {
     /** The Threadpool singleton instance. */
     INSTANCE;
 
+    /** Configuration entry for the number of threads. */
+    public static final String POOL_SIZE_KEY = "exception.framework.pool.size";
+    /** Configuration entry for the maximum number of queued service calls. */
+    public static final String QUEUE_CAPACITY_KEY = "exception.framework.pool.queue.capacity";
+    /** Configuration entry for the {@link OverflowPolicy} (case insensitive name). */
+    public static final String OVERFLOW_POLICY_KEY = "exception.framework.pool.overflow.policy";
+    /** Configuration entry for the time (in ms) a caller blocks with {@link OverflowPolicy#BLOCK}. */
+    public static final String OVERFLOW_TIMEOUT_KEY = "exception.framework.pool.overflow.timeout";
+    /** Configuration entry to run the service calls of one process instance one after the other. */
+    public static final String SERIAL_PER_INSTANCE_KEY = "exception.framework.pool.serial.per.instance";
+    /** Configuration entry for the {@link ExecutorMode} (case insensitive name). */
+    public static final String EXECUTOR_MODE_KEY = "exception.framework.executor.mode";
+    /** Configuration entry for the number of concurrent <code>JbpmContext</code>s with {@link ExecutorMode#VIRTUAL}. */
+    public static final String CONTEXT_PERMITS_KEY = "exception.framework.context.permits";
+
     private static final Logger LOGGER = Logger.getLogger(ThreadPoolSingleton.class);
 
-    private final Integer numberThreads = 10;
-    private Executor exec = new HandleableThreadPoolExecutor();
+    /**
+     * What to do with a service call when all threads are busy and the queue is full.
+     */
+    public enum OverflowPolicy {
+        /** Log and throw a <code>RejectedExecutionException</code>. */
+        ABORT,
+        /** Run the service call in the thread that submits it. */
+        CALLER_RUNS,
+        /** Store the service call as a job in the jBPM job table, to be picked up by the JobExecutor. */
+        PERSIST_JOB,
+        /** Wait for room in the queue for the configured timeout, then abort. */
+        BLOCK
+    }
+
+    /**
+     * The kind of threads service calls run on.
+     */
+    public enum ExecutorMode {
+        /** A fixed pool of platform threads with a bounded queue. */
+        POOLED,
+        /** A virtual thread per service call, falls back to {@link #POOLED} on runtimes without virtual threads. */
+        VIRTUAL
+    }
+
+    private final int queueCapacity = FrameworkConfig.getInt(QUEUE_CAPACITY_KEY, 1000);
+    private volatile OverflowPolicy overflowPolicy = toPolicy(FrameworkConfig.getString(OVERFLOW_POLICY_KEY,
+            OverflowPolicy.BLOCK.name()));
+    private volatile long overflowTimeout = FrameworkConfig.getLong(OVERFLOW_TIMEOUT_KEY, 30000L);
+    private final ThreadPoolExecutor exec = new HandleableThreadPoolExecutor(FrameworkConfig.getInt(POOL_SIZE_KEY, 10));
+    private final ExecutorService virtualExec = newVirtualThreadExecutor(FrameworkConfig.getString(EXECUTOR_MODE_KEY,
+            ExecutorMode.POOLED.name()));
+    private final StripedSerialExecutor stripes = FrameworkConfig.getBoolean(SERIAL_PER_INSTANCE_KEY, true)
+            ? new StripedSerialExecutor(new Executor() {
+                public void execute(Runnable command) {
+                    executeServiceCall(command);
+                }
+            }, new Executor() {
+                public void execute(Runnable command) {
+                    resubmitServiceCall(command);
+                }
+            }) : null;
+    private final Semaphore contextPermits = new Semaphore(FrameworkConfig.getInt(CONTEXT_PERMITS_KEY, 50), true);
+    /** Service calls running on virtual threads, which have no pool to ask. */
+    private final AtomicInteger virtualActive = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
 
     private UncaughtExceptionHandler handler;
 
     /**
      * This is what we do!
-     * 
+     *
+     * @param command
+     *            The runnable command.
+     */
+    public void executeServiceCall(final Runnable command) {
+        if (virtualExec == null) {
+            exec.execute(command);
+        } else {
+            virtualExec.execute(new Runnable() {
+                public void run() {
+                    virtualActive.incrementAndGet();
+                    try {
+                        command.run();
+                    } catch (RuntimeException ex) {
+                        // Virtual threads cannot be given a handler up front.
+                        UncaughtExceptionHandler ueh = handler;
+                        if (ueh == null) {
+                            throw ex;
+                        }
+                        ueh.uncaughtException(Thread.currentThread(), ex);
+                    } finally {
+                        virtualActive.decrementAndGet();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Queue a service call again from the thread running it, without the overflow policy: a worker must neither block
+     * on nor run tasks recursively in the pool it belongs to.
+     *
+     * @param command
+     *            The runnable command.
+     * @throws RejectedExecutionException
+     *             When the queue is full.
+     */
+    private void resubmitServiceCall(Runnable command) {
+        if (virtualExec != null) {
+            executeServiceCall(command);
+        } else if (exec.isShutdown() || !exec.getQueue().offer(command)) {
+            throw new RejectedExecutionException();
+        }
+    }
+
+    /**
+     * Execute a service call for a process instance; service calls for the same instance run one after the other (unless
+     * disabled in the configuration), service calls for different instances in parallel.
+     *
+     * @param processInstanceId
+     *            The id of the process instance the service call is for.
      * @param command
      *            The runnable command.
      */
-    public void executeServiceCall(Runnable command) {
-        exec.execute(command);
+    public void executeServiceCall(long processInstanceId, Runnable command) {
+        if (stripes == null) {
+            executeServiceCall(command);
+        } else {
+            stripes.execute(processInstanceId, command);
+        }
+    }
+
+    /**
+     * Acquire a permit before opening a <code>JbpmContext</code> for a service call; only limits anything with
+     * {@link ExecutorMode#VIRTUAL}, as the pool size already does so otherwise. Always pair with
+     * {@link #releaseContextPermit()}.
+     *
+     * @throws InterruptedException
+     *             When interrupted while waiting for a permit.
+     */
+    public void acquireContextPermit() throws InterruptedException {
+        if (virtualExec != null) {
+            contextPermits.acquire();
+        }
+    }
+
+    /**
+     * Release a permit acquired by {@link #acquireContextPermit()}.
+     */
+    public void releaseContextPermit() {
+        if (virtualExec != null) {
+            contextPermits.release();
+        }
+    }
+
+    /**
+     * @return The mode service calls are actually executed in.
+     */
+    public ExecutorMode getExecutorMode() {
+        return virtualExec == null ? ExecutorMode.POOLED : ExecutorMode.VIRTUAL;
     }
 
     /**
@@ -43,15 +208,124 @@ public enum ThreadPoolSingleton {
         handler = ueh;
     }
 
+    /**
+     * Resize the pool at runtime; idle threads above the new size are released, busy ones finish their service call first.
+     *
+     * @param poolSize
+     *            The new number of threads, at least 1.
+     */
+    public synchronized void setPoolSize(int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1, was " + poolSize);
+        }
+        if (poolSize > exec.getMaximumPoolSize()) {
+            exec.setMaximumPoolSize(poolSize);
+            exec.setCorePoolSize(poolSize);
+        } else {
+            exec.setCorePoolSize(poolSize);
+            exec.setMaximumPoolSize(poolSize);
+        }
+        LOGGER.info("Service call pool resized to " + poolSize + " threads.");
+    }
+
+    /**
+     * @return The configured number of threads.
+     */
+    public int getPoolSize() {
+        return exec.getCorePoolSize();
+    }
+
+    /**
+     * @return The number of service calls running.
+     */
+    public int getActiveCount() {
+        return virtualExec == null ? exec.getActiveCount() : virtualActive.get();
+    }
+
+    /**
+     * @return The number of service calls waiting in the queue of the pool.
+     */
+    public int getQueueDepth() {
+        return exec.getQueue().size();
+    }
+
+    /**
+     * @return The number of service calls rejected since startup.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return The maximum number of queued service calls.
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @return The policy applied when the queue is full.
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @param policy
+     *            The policy to apply from now on when the queue is full.
+     */
+    public void setOverflowPolicy(OverflowPolicy policy) {
+        overflowPolicy = policy;
+    }
+
+    /**
+     * @param timeout
+     *            The time (in ms) to wait for room in the queue with {@link OverflowPolicy#BLOCK}.
+     */
+    public void setOverflowTimeout(long timeout) {
+        overflowTimeout = timeout;
+    }
+
+    /** Called while the enum constant is initialized, hence before <code>LOGGER</code> is available. */
+    private static OverflowPolicy toPolicy(String name) {
+        try {
+            return OverflowPolicy.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            Logger.getLogger(ThreadPoolSingleton.class).error(
+                    "Unknown overflow policy '" + name + "', using " + OverflowPolicy.BLOCK + ".");
+            return OverflowPolicy.BLOCK;
+        }
+    }
+
+    /**
+     * Called while the enum constant is initialized, hence before <code>LOGGER</code> is available.
+     *
+     * @return A virtual thread per task executor, or <code>null</code> when not configured or not supported.
+     */
+    private static ExecutorService newVirtualThreadExecutor(String mode) {
+        if (!ExecutorMode.VIRTUAL.name().equalsIgnoreCase(mode.trim())) {
+            return null;
+        }
+        try {
+            // Looked up reflectively, this code base still compiles for older runtimes.
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception ex) {
+            Logger.getLogger(ThreadPoolSingleton.class).warn(
+                    "Virtual threads not supported by this runtime, using " + ExecutorMode.POOLED + " mode.");
+            return null;
+        }
+    }
+
     /**
      * ThreadPoolExecutor that allows for setting an <code>UncaughtExceptionHandler</code> to each thread that is used to execute a
      * given <code>Runnable</code>.
      */
     private class HandleableThreadPoolExecutor extends ThreadPoolExecutor {
-        /** Default constructor that creates a 'fixed thread pool'. */
-        HandleableThreadPoolExecutor() {
-            super(numberThreads, numberThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
-            setRejectedExecutionHandler(new DefaultRejectedExecutionHandler());
+        /** Constructor that creates a 'fixed thread pool' with a bounded queue. */
+        HandleableThreadPoolExecutor(int numberThreads) {
+            super(numberThreads, numberThreads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity));
+            setRejectedExecutionHandler(new OverflowRejectedExecutionHandler());
         }
 
         /** {@inheritDoc} */
@@ -67,10 +341,45 @@ public enum ThreadPoolSingleton {
     }
 
     /**
-     * Default implementation for the <code>RejectedExecutionHandler</code>.
+     * Implementation for the <code>RejectedExecutionHandler</code> that applies the configured {@link OverflowPolicy}.
      */
-    private static class DefaultRejectedExecutionHandler implements RejectedExecutionHandler {
+    private class OverflowRejectedExecutionHandler implements RejectedExecutionHandler {
         public void rejectedExecution(Runnable r, ThreadPoolExecutor tpe) {
+            if (tpe.isShutdown()) {
+                abort(r, tpe);
+            }
+            OverflowPolicy policy = overflowPolicy;
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Queue full, applying overflow policy " + policy + " to task " + r);
+            }
+            switch (policy) {
+            case CALLER_RUNS:
+                r.run();
+                break;
+            case PERSIST_JOB:
+                if (r instanceof PersistableServiceCall) {
+                    ((PersistableServiceCall) r).persistAsJob();
+                } else {
+                    abort(r, tpe);
+                }
+                break;
+            case BLOCK:
+                try {
+                    if (!tpe.getQueue().offer(r, overflowTimeout, TimeUnit.MILLISECONDS)) {
+                        abort(r, tpe);
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    abort(r, tpe);
+                }
+                break;
+            default:
+                abort(r, tpe);
+            }
+        }
+
+        private void abort(Runnable r, ThreadPoolExecutor tpe) {
+            rejected.incrementAndGet();
             LOGGER.error(tpe + " unable to handle task " + r);
             throw new RejectedExecutionException();
         }
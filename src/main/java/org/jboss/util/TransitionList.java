@@ -0,0 +1,137 @@
+package org.jboss.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.jbpm.graph.def.Transition;
+
+/**
+ * Compact string form of a list of transitions, to be stored as a plain string variable instead of a serialized list of
+ * Hibernate mapped <code>Transition</code> objects.
+ * <p>
+ * The format is <code>id:name,id:name,...</code>, where backslash, colon and comma in a name are escaped with a backslash
+ * and an unnamed transition has an empty name.
+ */
+public final class TransitionList {
+    private static final char ESCAPE = '\\';
+    private static final char ID_SEPARATOR = ':';
+    private static final char ENTRY_SEPARATOR = ',';
+
+    /** Utility class. */
+    private TransitionList() {
+    }
+
+    /**
+     * @param transitions
+     *            The transitions, e.g. the leaving transitions of a node.
+     * @param virtualNames
+     *            Names of transitions that do not exist in the definition (e.g. a retry), added with id 0.
+     * @return The compact form, an empty string for no transitions.
+     */
+    public static String encode(Collection<?> transitions, String... virtualNames) {
+        StringBuilder sb = new StringBuilder();
+        if (transitions != null) {
+            for (Object o : transitions) {
+                Transition transition = (Transition) o;
+                append(sb, transition.getId(), transition.getName());
+            }
+        }
+        for (String name : virtualNames) {
+            append(sb, 0L, name);
+        }
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, long id, String name) {
+        if (sb.length() > 0) {
+            sb.append(ENTRY_SEPARATOR);
+        }
+        sb.append(id).append(ID_SEPARATOR);
+        if (name != null) {
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (c == ESCAPE || c == ID_SEPARATOR || c == ENTRY_SEPARATOR) {
+                    sb.append(ESCAPE);
+                }
+                sb.append(c);
+            }
+        }
+    }
+
+    /**
+     * @param encoded
+     *            The compact form, as created by {@link #encode(Collection, String...)}.
+     * @return The transitions in their original order.
+     */
+    public static List<Entry> decode(String encoded) {
+        if (encoded == null || encoded.length() == 0) {
+            return Collections.emptyList();
+        }
+        List<Entry> entries = new ArrayList<Entry>();
+        int i = 0;
+        while (i <= encoded.length()) {
+            int idEnd = encoded.indexOf(ID_SEPARATOR, i);
+            if (idEnd < 0) {
+                throw new IllegalArgumentException("Malformed transition list: " + encoded);
+            }
+            long id = Long.parseLong(encoded.substring(i, idEnd));
+            StringBuilder name = new StringBuilder();
+            i = idEnd + 1;
+            while (i < encoded.length() && encoded.charAt(i) != ENTRY_SEPARATOR) {
+                char c = encoded.charAt(i);
+                if (c == ESCAPE && i + 1 < encoded.length()) {
+                    c = encoded.charAt(++i);
+                }
+                name.append(c);
+                i++;
+            }
+            entries.add(new Entry(id, name.length() == 0 ? null : name.toString()));
+            // Skip the separator; past the end when this was the last entry.
+            i++;
+        }
+        return entries;
+    }
+
+    /**
+     * @param encoded
+     *            The compact form, as created by {@link #encode(Collection, String...)}.
+     * @return The names of the transitions, <code>null</code> for unnamed ones.
+     */
+    public static List<String> decodeNames(String encoded) {
+        List<Entry> entries = decode(encoded);
+        List<String> names = new ArrayList<String>(entries.size());
+        for (Entry entry : entries) {
+            names.add(entry.getName());
+        }
+        return names;
+    }
+
+    /**
+     * A transition in the list.
+     */
+    public static final class Entry {
+        private final long id;
+        private final String name;
+
+        Entry(long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public String toString() {
+            return id + ":" + name;
+        }
+    }
+}
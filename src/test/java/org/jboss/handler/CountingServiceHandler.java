@@ -0,0 +1,47 @@
+package org.jboss.handler;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jbpm.graph.exe.ExecutionContext;
+
+/**
+ * Service call that counts how often it was performed per token, and fails
+ * when the process variable FAIL_ACTION is set.
+ */
+public class CountingServiceHandler extends AbstractExceptionActionHandler {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Process variable making the service call fail. */
+	public static final String FAIL_ACTION_KEY = "FAIL_ACTION";
+
+	private static final ConcurrentMap<Long, AtomicInteger> INVOCATIONS = new ConcurrentHashMap<Long, AtomicInteger>();
+
+	public void doPerformAction(ExecutionContext executionContext) throws Exception {
+		Long tokenId = Long.valueOf(executionContext.getToken().getId());
+		AtomicInteger count = INVOCATIONS.get(tokenId);
+		if (count == null) {
+			AtomicInteger created = new AtomicInteger();
+			count = INVOCATIONS.putIfAbsent(tokenId, created);
+			if (count == null) {
+				count = created;
+			}
+		}
+		count.incrementAndGet();
+
+		if (executionContext.getVariable(FAIL_ACTION_KEY) != null) {
+			throw new IllegalStateException("Failing service call.");
+		}
+	}
+
+	/**
+	 * @param tokenId The id of a token.
+	 * @return The number of times the service call was performed for the token.
+	 */
+	public static int getInvocations(long tokenId) {
+		AtomicInteger count = INVOCATIONS.get(Long.valueOf(tokenId));
+		return count == null ? 0 : count.get();
+	}
+}
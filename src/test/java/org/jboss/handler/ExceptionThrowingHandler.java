@@ -5,6 +5,9 @@ import java.util.Iterator;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.jboss.util.ExceptionClassifier;
+import org.jboss.util.RetryRouting;
+import org.jboss.util.TransitionList;
 import org.jbpm.graph.def.Action;
 import org.jbpm.graph.def.ActionHandler;
 import org.jbpm.graph.def.Transition;
@@ -24,13 +27,12 @@ public class ExceptionThrowingHandler implements ActionHandler {
 	public static final String EXCEPTION_ORIGINATING_PROCESS_NAME_KEY = "EXCEPTION_ORIGINATING_PROCESS_NAME";
 	public static final String EXCEPTION_ORIGINATING_NODE_TRANSITION_LIST_KEY = "EXCEPTION_ORIGINATING_NODE_TRANSITION_LIST";
 	public static final String EXCEPTION_ORIGINATING_PROCESS_ID_KEY = "EXCEPTION_ORIGINATING_PROCESS_ID";
+	public static final String EXCEPTION_CLASS_CHAIN_KEY = "EXCEPTION_CLASS_CHAIN";
 
 	private boolean leaveNode = true;
 	
 	private String transitionName;
 	
-	private static String retryTransitionName = "Retry";
-	
 	/** Set to false to use custom exception framework. */
 	private boolean useJbpmExceptionHandler = false;
 	
@@ -113,11 +115,11 @@ public class ExceptionThrowingHandler implements ActionHandler {
 	
 	
     /**
-     * This method is used to handle exceptions.
+     * This method is used to handle exceptions; package visible for the benchmarks.
      * 
      * @param executionContext Current execution context.
      */
-	private void handleException(ExecutionContext executionContext) {
+	void handleException(ExecutionContext executionContext) {
         getLogger().info("Start exception handling for custom jBPM exception framework.");
 
         // Save the current node in the context to make a retry possible.
@@ -125,19 +127,21 @@ public class ExceptionThrowingHandler implements ActionHandler {
         executionContext.setVariable(EXCEPTION_ORIGINATING_PROCESS_NAME_KEY, executionContext.getProcessDefinition().getName());
         executionContext.setVariable(EXCEPTION_ORIGINATING_PROCESS_ID_KEY, executionContext.getProcessInstance().getId());
         
+        // Save the classes of the exception and its causes, for classifying it in the exception framework.
+        executionContext.setVariable(EXCEPTION_CLASS_CHAIN_KEY, ExceptionClassifier.toClassChain(executionContext.getException()));
+        
         // Also save the transitions that we will want to provide a choice of (all outgoing transitions
-        // plus a retry transition that loops back to the same node. First we add the loopback transition
-        // to the existing list (note, adding to back of list, do not want it to become the default!).
-        Transition retryTransition = new Transition();
-        retryTransition.setName(retryTransitionName);
-        retryTransition.setTo(executionContext.getNode());
-        executionContext.getNode().addLeavingTransition(retryTransition);
-        executionContext.setVariable(EXCEPTION_ORIGINATING_NODE_TRANSITION_LIST_KEY, executionContext.getNode().getLeavingTransitions());
+        // plus a retry that loops back to the same node). The retry is routed per token (see RetryRouting),
+        // so it is only added to the list, not to the node (note, adding to back of list, do not want it
+        // to become the default!). The list is stored in its compact string form, see TransitionList.
+        executionContext.setVariable(EXCEPTION_ORIGINATING_NODE_TRANSITION_LIST_KEY, 
+        		TransitionList.encode(executionContext.getNode().getLeavingTransitions(), RetryRouting.RETRY_TRANSITION_NAME));
         
         if (getLogger().isDebugEnabled()) {
         	getLogger().debug("The EXCEPTION_ORIGINATING_NODE_NAME_KEY is set to: " + executionContext.getNode().getName());
         	getLogger().debug("The EXCEPTION_ORIGINATING_PROCESS_NAME_KEY is set to: " + executionContext.getProcessDefinition().getName());
         	getLogger().debug("The EXCEPTION_ORIGINATING_PROCESS_ID_KEY is set to: " + executionContext.getProcessInstance().getId());
+        	getLogger().debug("The EXCEPTION_CLASS_CHAIN_KEY is set to: " + executionContext.getVariable(EXCEPTION_CLASS_CHAIN_KEY));
         	getLogger().debug("The following transitions have been pushed into the context: ");
         	int i = 0;
         	for (Iterator iterator = executionContext.getNode().getLeavingTransitions().iterator(); iterator.hasNext();) {
@@ -0,0 +1,22 @@
+package org.jboss.handler;
+
+import org.jbpm.graph.def.ActionHandler;
+import org.jbpm.graph.exe.ExecutionContext;
+
+/**
+ * Transition action that fails when the process variable FAIL_SIGNAL is set,
+ * so the signal of a token fails after its service call succeeded.
+ */
+public class FailingSignalHandler implements ActionHandler {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Process variable making the signal fail. */
+	public static final String FAIL_SIGNAL_KEY = "FAIL_SIGNAL";
+
+	public void execute(ExecutionContext executionContext) throws Exception {
+		if (executionContext.getVariable(FAIL_SIGNAL_KEY) != null) {
+			throw new IllegalStateException("Failing signal.");
+		}
+	}
+}
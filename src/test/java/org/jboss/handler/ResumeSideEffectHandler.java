@@ -0,0 +1,49 @@
+package org.jboss.handler;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jbpm.graph.def.ActionHandler;
+import org.jbpm.graph.exe.ExecutionContext;
+
+/**
+ * Transition action standing in for a side effect outside the transaction:
+ * counts how often it ran per process instance, and marks the transaction for
+ * rollback when the process variable FAIL_RESUME is set.
+ */
+public class ResumeSideEffectHandler implements ActionHandler {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Process variable making the transaction roll back. */
+	public static final String FAIL_RESUME_KEY = "FAIL_RESUME";
+
+	private static final ConcurrentMap<Long, AtomicInteger> INVOCATIONS = new ConcurrentHashMap<Long, AtomicInteger>();
+
+	public void execute(ExecutionContext executionContext) throws Exception {
+		Long processInstanceId = Long.valueOf(executionContext.getProcessInstance().getId());
+		AtomicInteger count = INVOCATIONS.get(processInstanceId);
+		if (count == null) {
+			AtomicInteger created = new AtomicInteger();
+			count = INVOCATIONS.putIfAbsent(processInstanceId, created);
+			if (count == null) {
+				count = created;
+			}
+		}
+		count.incrementAndGet();
+
+		if (executionContext.getVariable(FAIL_RESUME_KEY) != null) {
+			executionContext.getJbpmContext().setRollbackOnly();
+		}
+	}
+
+	/**
+	 * @param processInstanceId The id of a process instance.
+	 * @return The number of times the action ran for the process instance.
+	 */
+	public static int getInvocations(long processInstanceId) {
+		AtomicInteger count = INVOCATIONS.get(Long.valueOf(processInstanceId));
+		return count == null ? 0 : count.get();
+	}
+}
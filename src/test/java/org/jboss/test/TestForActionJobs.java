@@ -0,0 +1,72 @@
+package org.jboss.test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.jboss.handler.CountingServiceHandler;
+import org.jboss.handler.FailingSignalHandler;
+import org.jboss.util.ActionJobs;
+import org.jbpm.graph.def.Action;
+import org.jbpm.graph.def.Event;
+import org.jbpm.graph.def.Node;
+import org.jbpm.graph.def.ProcessDefinition;
+import org.junit.Test;
+
+/**
+ * Tests for finding the action of the process definition a job is to run,
+ * instead of making one up.
+ */
+public class TestForActionJobs {
+
+	private static final ProcessDefinition DEFINITION = ProcessDefinition.parseXmlString(
+			"<process-definition xmlns=\"urn:jbpm.org:jpdl-3.1\" name=\"Action Jobs\">"
+			+ "<event type=\"process-end\">"
+			+ "<action class=\"" + FailingSignalHandler.class.getName() + "\" />"
+			+ "</event>"
+			+ "<start-state name=\"start\">"
+			+ "<transition to=\"wait\" />"
+			+ "</start-state>"
+			+ "<state name=\"wait\">"
+			+ "<event type=\"node-enter\">"
+			+ "<action class=\"" + CountingServiceHandler.class.getName() + "\" />"
+			+ "</event>"
+			+ "<transition to=\"end\" />"
+			+ "</state>"
+			+ "<end-state name=\"end\" />"
+			+ "</process-definition>");
+
+	/**
+	 * The action of an event of the node itself is found.
+	 */
+	@Test
+	public void testNodeEventAction() {
+		Node wait = DEFINITION.getNode("wait");
+		Action expected = (Action) wait.getEvent(Event.EVENTTYPE_NODE_ENTER).getActions().get(0);
+
+		assertThat(ActionJobs.findAction(wait, CountingServiceHandler.class.getName()), is(sameInstance(expected)));
+	}
+
+	/**
+	 * The action of an event of the process definition containing the node
+	 * is found.
+	 */
+	@Test
+	public void testContainingElementAction() {
+		Action expected = (Action) DEFINITION.getEvent(Event.EVENTTYPE_PROCESS_END).getActions().get(0);
+
+		assertThat(ActionJobs.findAction(DEFINITION.getNode("wait"), FailingSignalHandler.class.getName()),
+				is(sameInstance(expected)));
+	}
+
+	/**
+	 * Without an action for the handler there is nothing to find, a job
+	 * makes one up.
+	 */
+	@Test
+	public void testNoAction() {
+		assertThat(ActionJobs.findAction(DEFINITION.getNode("end"), CountingServiceHandler.class.getName()),
+				is(nullValue()));
+	}
+}
@@ -0,0 +1,99 @@
+package org.jboss.test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.handler.AbstractExceptionActionHandler.ServiceRunner;
+import org.jboss.handler.CountingServiceHandler;
+import org.jboss.handler.FailingSignalHandler;
+import org.jboss.util.BatchingServiceDispatcher;
+import org.jboss.util.ProcessDefinitionReference;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+import org.jbpm.graph.exe.ProcessInstance;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for the execution of chunks of service calls by the batching
+ * dispatcher.
+ */
+public class TestForBatchingServiceDispatcher {
+
+	/** The global jBPM configuration. */
+	private static JbpmConfiguration jbpmConf = JbpmConfiguration.getInstance();
+
+	public static final String PROCESS_NAME = "Batched Process";
+
+	private static final int INSTANCES = 5;
+	private static final int FAILING_ACTION = 1;
+	private static final int FAILING_SIGNAL = 3;
+
+	@BeforeClass
+	public static final void oneTimeSetup() throws Exception {
+		new ProcessDefinitionReference("<process-definition xmlns=\"urn:jbpm.org:jpdl-3.1\" name=\""
+				+ PROCESS_NAME + "\">"
+				+ "<start-state name=\"start\">"
+				+ "<transition to=\"wait\" />"
+				+ "</start-state>"
+				+ "<state name=\"wait\">"
+				+ "<transition to=\"end\" name=\"wait_to_end\">"
+				+ "<action class=\"org.jboss.handler.FailingSignalHandler\" />"
+				+ "</transition>"
+				+ "</state>"
+				+ "<end-state name=\"end\" />"
+				+ "</process-definition>").parseAndDeployProcess();
+	}
+
+	/**
+	 * A failing action or signal only rolls back its own token, the chunk
+	 * commits the others; no service call is performed twice.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testFailingTokensDoNotRepeatServiceCalls() throws Exception {
+		long[] processInstanceIds = new long[INSTANCES];
+		long[] tokenIds = new long[INSTANCES];
+		List<ServiceRunner> chunk = new ArrayList<ServiceRunner>();
+		for (int i = 0; i < INSTANCES; i++) {
+			ProcessInstance processInstance;
+			JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+			try {
+				processInstance = jbpmCtx.newProcessInstanceForUpdate(PROCESS_NAME);
+				if (i == FAILING_ACTION) {
+					processInstance.getContextInstance().setVariable(CountingServiceHandler.FAIL_ACTION_KEY, "true");
+				}
+				if (i == FAILING_SIGNAL) {
+					processInstance.getContextInstance().setVariable(FailingSignalHandler.FAIL_SIGNAL_KEY, "true");
+				}
+				processInstance.signal();
+			} finally {
+				jbpmCtx.close();
+			}
+			processInstanceIds[i] = processInstance.getId();
+			tokenIds[i] = processInstance.getRootToken().getId();
+			chunk.add(new ServiceRunner(processInstanceIds[i], tokenIds[i], CountingServiceHandler.class.getName()));
+		}
+
+		BatchingServiceDispatcher.INSTANCE.executeChunk(chunk);
+
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			for (int i = 0; i < INSTANCES; i++) {
+				assertThat("Service calls for token " + tokenIds[i], CountingServiceHandler.getInvocations(tokenIds[i]), is(1));
+				ProcessInstance processInstance = jbpmCtx.getProcessInstance(processInstanceIds[i]);
+				if (i == FAILING_ACTION || i == FAILING_SIGNAL) {
+					assertThat(processInstance.getRootToken().getNode().getName(), is("wait"));
+				} else {
+					assertThat(processInstance.hasEnded(), is(true));
+				}
+			}
+		} finally {
+			jbpmCtx.close();
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package org.jboss.test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.util.CircuitBreaker;
+import org.jboss.util.CircuitBreaker.State;
+import org.junit.Test;
+
+/**
+ * Tests for the circuit breaker guarding the service calls of a handler.
+ */
+public class TestForCircuitBreaker {
+
+	private static final long OPEN_DURATION = 200;
+
+	private CircuitBreaker newBreaker() {
+		return new CircuitBreaker("test", 10, 4, 50, OPEN_DURATION, 2);
+	}
+
+	/**
+	 * The breaker opens once the failure rate crosses the threshold, not
+	 * before the minimum number of calls.
+	 */
+	@Test
+	public void testOpensOnFailureRate() {
+		CircuitBreaker breaker = newBreaker();
+		breaker.recordSuccess();
+		breaker.recordFailure();
+		breaker.recordFailure();
+		assertThat(breaker.getState(), is(State.CLOSED));
+
+		breaker.recordFailure();
+		assertThat(breaker.getState(), is(State.OPEN));
+		assertThat(breaker.allowCall(), is(false));
+	}
+
+	/**
+	 * Parked calls are probed after the open period and all resumed once the
+	 * probe succeeds.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testParkedCallsResumeAfterProbe() throws Exception {
+		final CircuitBreaker breaker = newBreaker();
+		for (int i = 0; i < 4; i++) {
+			breaker.recordFailure();
+		}
+		final CountDownLatch resumed = new CountDownLatch(2);
+		for (int i = 0; i < 2; i++) {
+			assertThat(breaker.park(Integer.valueOf(i), new Runnable() {
+				public void run() {
+					// Dispatched again: either the probe or resumed after it.
+					if (breaker.allowCall()) {
+						breaker.recordSuccess();
+					}
+					resumed.countDown();
+				}
+			}), is(true));
+		}
+		assertThat("Parked capacity not respected.", breaker.park(Integer.valueOf(3), new Runnable() {
+			public void run() {
+			}
+		}), is(false));
+
+		assertThat("Parked calls not resumed.", resumed.await(OPEN_DURATION * 20, TimeUnit.MILLISECONDS), is(true));
+		assertThat(breaker.getState(), is(State.CLOSED));
+		assertThat(breaker.getParkedCount(), is(0));
+	}
+
+	/**
+	 * A failing probe opens the breaker for another period.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testFailingProbeOpensAgain() throws Exception {
+		CircuitBreaker breaker = newBreaker();
+		for (int i = 0; i < 4; i++) {
+			breaker.recordFailure();
+		}
+		Thread.sleep(OPEN_DURATION + 50);
+
+		assertThat(breaker.allowCall(), is(true));
+		assertThat(breaker.getState(), is(State.HALF_OPEN));
+		assertThat("Only one probe at a time.", breaker.allowCall(), is(false));
+
+		breaker.recordFailure();
+		assertThat(breaker.getState(), is(State.OPEN));
+		assertThat(breaker.allowCall(), is(false));
+	}
+}
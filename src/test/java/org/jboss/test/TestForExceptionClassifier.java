@@ -0,0 +1,91 @@
+package org.jboss.test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Properties;
+
+import org.jboss.util.ExceptionClassifier;
+import org.jboss.util.ExceptionClassifier.Classification;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the classification of exceptions into retry or human task.
+ */
+public class TestForExceptionClassifier {
+
+	private ExceptionClassifier classifier;
+
+	@Before
+	public void setUp() {
+		Properties classification = new Properties();
+		classification.setProperty("java.net.SocketException", "retry");
+		classification.setProperty("java.lang.IllegalArgumentException", "human_task");
+		classification.setProperty("java.net.SocketTimeoutException", "transient");
+		classifier = new ExceptionClassifier(classification);
+	}
+
+	/**
+	 * A configured class matches its subclasses, anything else gets the default.
+	 */
+	@Test
+	public void testClassHierarchy() {
+		assertThat(classifier.classify(new SocketException()), is(Classification.RETRY));
+		assertThat(classifier.classify(new ConnectException()), is(Classification.RETRY));
+		assertThat(classifier.classify(new IllegalStateException()), is(Classification.HUMAN_TASK));
+	}
+
+	/**
+	 * The outermost exception in the cause chain that matches decides.
+	 */
+	@Test
+	public void testCauseChain() {
+		Exception wrapped = new RuntimeException(new ConnectException());
+		assertThat(classifier.classify(wrapped), is(Classification.RETRY));
+
+		Exception overruled = new IllegalArgumentException(new ConnectException());
+		assertThat(classifier.classify(overruled), is(Classification.HUMAN_TASK));
+	}
+
+	/**
+	 * The class chain stored in the process context classifies the same as the exception itself.
+	 */
+	@Test
+	public void testClassChain() {
+		Exception wrapped = new RuntimeException(new ConnectException());
+		String classChain = ExceptionClassifier.toClassChain(wrapped);
+
+		assertThat(classChain, is("java.lang.RuntimeException,java.net.ConnectException"));
+		assertThat(classifier.classify(classChain), is(Classification.RETRY));
+		assertThat(classifier.classify("com.example.UnknownException"), is(Classification.HUMAN_TASK));
+	}
+
+	/**
+	 * The default can be configured.
+	 */
+	@Test
+	public void testDefault() {
+		Properties classification = new Properties();
+		classification.setProperty(ExceptionClassifier.DEFAULT_KEY, "retry");
+		classification.setProperty("java.lang.IllegalStateException", "human_task");
+		ExceptionClassifier retrying = new ExceptionClassifier(classification);
+
+		assertThat(retrying.classify(new RuntimeException()), is(Classification.RETRY));
+		assertThat(retrying.classify(new IllegalStateException()), is(Classification.HUMAN_TASK));
+	}
+
+	/**
+	 * Transient exceptions are retried like retry ones.
+	 */
+	@Test
+	public void testTransient() {
+		assertThat(classifier.classify(new SocketTimeoutException()), is(Classification.TRANSIENT));
+		assertThat(ExceptionClassifier.isRetryable(Classification.TRANSIENT), is(true));
+		assertThat(ExceptionClassifier.isRetryable(Classification.RETRY), is(true));
+		assertThat(ExceptionClassifier.isRetryable(Classification.HUMAN_TASK), is(false));
+	}
+}
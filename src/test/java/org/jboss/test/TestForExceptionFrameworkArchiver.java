@@ -0,0 +1,68 @@
+package org.jboss.test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+import java.util.Date;
+
+import org.jboss.util.ExceptionFrameworkArchiver;
+import org.jboss.util.FrameworkFixture;
+import org.jboss.util.LoadDriver;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for the archiving of ended Exception Framework instances.
+ */
+public class TestForExceptionFrameworkArchiver {
+
+	/** The global jBPM configuration. */
+	private static JbpmConfiguration jbpmConf = JbpmConfiguration.getInstance();
+
+	public static final String ORIGINATING_PROCESS_NAME = "Archived Originator Process";
+
+	private static final String ENDED_FRAMEWORK_QUERY = "select count(pi) from org.jbpm.graph.exe.ProcessInstance pi "
+			+ "where pi.processDefinition.name = 'Exception Framework' and pi.end < :endedBefore";
+	private static final String SUMMARY_QUERY = "select count(s) from org.jboss.util.ExceptionFrameworkSummary s "
+			+ "where s.originatingProcessName = :name and s.resolvedBy = 'EXPERT'";
+
+	@BeforeClass
+	public static final void oneTimeSetup() throws Exception {
+		FrameworkFixture.setUp(jbpmConf, ORIGINATING_PROCESS_NAME);
+	}
+
+	@AfterClass
+	public static final void oneTimeTearDown() throws Exception {
+		FrameworkFixture.tearDown(jbpmConf);
+	}
+
+	/**
+	 * Ended Exception Framework instances are replaced by their summaries.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testArchive() throws Exception {
+		new LoadDriver(jbpmConf, ORIGINATING_PROCESS_NAME, 5, 1, 1.0).run(60000L);
+		Date endedBefore = new Date(System.currentTimeMillis() + 1000);
+
+		ExceptionFrameworkArchiver.INSTANCE.archive(endedBefore);
+
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			Number remaining = (Number) jbpmCtx.getSession().createQuery(ENDED_FRAMEWORK_QUERY)
+					.setTimestamp("endedBefore", endedBefore).uniqueResult();
+			assertThat("Ended instances not archived.", remaining.longValue(), is(0L));
+
+			Number summaries = (Number) jbpmCtx.getSession().createQuery(SUMMARY_QUERY)
+					.setString("name", ORIGINATING_PROCESS_NAME).uniqueResult();
+			assertThat("No summaries of the archived instances.", summaries.longValue(), is(not(0L)));
+		} finally {
+			jbpmCtx.close();
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package org.jboss.test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.handler.ResumeSideEffectHandler;
+import org.jboss.util.ExceptionTaskResolver;
+import org.jboss.util.ExceptionTaskResolver.Filter;
+import org.jboss.util.ExceptionTaskResolver.Resolution;
+import org.jboss.util.ExceptionTaskResolver.Result;
+import org.jboss.util.FrameworkFixture;
+import org.jboss.util.ProcessAwaiter;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+import org.jbpm.graph.exe.ProcessInstance;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for the bulk resolution of Exception Framework tasks. Every
+ * originating instance gets a process definition of its own, so its failure
+ * is not grouped with the others into one task; the instances of a test share
+ * a node name, by which the test selects its tasks.
+ */
+public class TestForExceptionTaskResolver {
+
+	/** The global jBPM configuration. */
+	private static JbpmConfiguration jbpmConf = JbpmConfiguration.getInstance();
+
+	public static final String ORIGINATING_PROCESS_NAME = "Resolver Originator Process";
+
+	private static final String CAUSE = IllegalStateException.class.getName();
+
+	@BeforeClass
+	public static final void oneTimeSetup() throws Exception {
+		FrameworkFixture.setUp(jbpmConf, ORIGINATING_PROCESS_NAME);
+	}
+
+	@AfterClass
+	public static final void oneTimeTearDown() throws Exception {
+		FrameworkFixture.tearDown(jbpmConf);
+	}
+
+	/**
+	 * The filter selects open tasks by originating process, node and root
+	 * cause.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testFilter() throws Exception {
+		String node = "filter state";
+		startFailing("filter", node, 2, false);
+		ExceptionTaskResolver resolver = new ExceptionTaskResolver(jbpmConf, 1, 10);
+
+		assertThat(resolver.findTasks(new Filter().atNode(node)).size(), is(2));
+		assertThat(resolver.findTasks(new Filter().atNode(node).causedBy(CAUSE)).size(), is(2));
+		assertThat(resolver.findTasks(new Filter().forProcess(ORIGINATING_PROCESS_NAME + " filter 1").atNode(node)
+				.causedBy(CAUSE)).size(), is(1));
+		assertThat(resolver.findTasks(new Filter().forProcess(ORIGINATING_PROCESS_NAME + " filter 2")).size(), is(0));
+		assertThat(resolver.findTasks(new Filter().atNode(node).causedBy(IllegalArgumentException.class.getName()))
+				.size(), is(0));
+	}
+
+	/**
+	 * Retried originating processes enter their node again and move on, once
+	 * each.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testRetry() throws Exception {
+		assertResolvedOnce("retry", Resolution.RETRY);
+	}
+
+	/**
+	 * Continued originating processes leave their node over the default
+	 * transition, once each.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testContinue() throws Exception {
+		assertResolvedOnce("continue", Resolution.CONTINUE);
+	}
+
+	/**
+	 * A task whose originating process rolls back fails on its own: the other
+	 * tasks of its chunk are resolved, and no originating process is resumed
+	 * twice.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testFailingTaskIsolated() throws Exception {
+		String node = "isolated state";
+		List<Long> passing = startFailing("isolated", node, 3, false);
+		List<Long> failing = startFailing("isolated failing", node, 1, true);
+		// One chunk for all four tasks.
+		ExceptionTaskResolver resolver = new ExceptionTaskResolver(jbpmConf, 1, 10);
+
+		Result result = resolver.resolve(new Filter().atNode(node), Resolution.RETRY, null);
+
+		assertThat(result.getTotal(), is(4));
+		assertThat(result.getResolved(), is(3));
+		assertThat(result.getFailed(), is(1));
+		for (Long id : passing) {
+			ProcessAwaiter.awaitEnd(jbpmConf, id.longValue(), ProcessAwaiter.DEFAULT_TIMEOUT);
+			assertThat(ResumeSideEffectHandler.getInvocations(id.longValue()), is(1));
+		}
+		long failingId = failing.get(0).longValue();
+		assertThat(ResumeSideEffectHandler.getInvocations(failingId), is(1));
+		assertThat(resolver.findTasks(new Filter().atNode(node)).size(), is(1));
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			ProcessInstance procInst = jbpmCtx.getProcessInstance(failingId);
+			assertThat(procInst.getRootToken().getNode().getName(), is(node));
+		} finally {
+			jbpmCtx.close();
+		}
+	}
+
+	private void assertResolvedOnce(String label, Resolution resolution) throws Exception {
+		String node = label + " state";
+		List<Long> ids = startFailing(label, node, 3, false);
+		// Two worker threads, with a chunk of two tasks and one of one.
+		ExceptionTaskResolver resolver = new ExceptionTaskResolver(jbpmConf, 2, 2);
+
+		Result result = resolver.resolve(new Filter().atNode(node).causedBy(CAUSE), resolution, null);
+
+		assertThat(result.getTotal(), is(3));
+		assertThat(result.getResolved(), is(3));
+		for (Long id : ids) {
+			ProcessAwaiter.awaitEnd(jbpmConf, id.longValue(), ProcessAwaiter.DEFAULT_TIMEOUT);
+			assertThat(ResumeSideEffectHandler.getInvocations(id.longValue()), is(1));
+		}
+		assertThat(resolver.findTasks(new Filter().atNode(node)).size(), is(0));
+	}
+
+	/**
+	 * Start originating instances failing in the given node, each of its own
+	 * process definition, and wait for their tasks.
+	 * 
+	 * @return The ids of the instances.
+	 */
+	private List<Long> startFailing(String label, String node, int count, boolean failResume) throws Exception {
+		List<Long> ids = new ArrayList<Long>();
+		for (int i = 0; i < count; i++) {
+			String processName = ORIGINATING_PROCESS_NAME + " " + label + " " + i;
+			FrameworkFixture.deployOriginatingProcess(jbpmConf, processName, node,
+					ResumeSideEffectHandler.class.getName());
+			ProcessInstance procInst;
+			JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+			try {
+				procInst = jbpmCtx.newProcessInstanceForUpdate(processName);
+				if (failResume) {
+					procInst.getContextInstance().setVariable(ResumeSideEffectHandler.FAIL_RESUME_KEY, "true");
+				}
+				procInst.signal();
+			} finally {
+				jbpmCtx.close();
+			}
+			ids.add(Long.valueOf(procInst.getId()));
+		}
+		for (Long id : ids) {
+			ProcessAwaiter.awaitHumanTask(jbpmConf, id.longValue(), ProcessAwaiter.DEFAULT_TIMEOUT);
+		}
+		return ids;
+	}
+}
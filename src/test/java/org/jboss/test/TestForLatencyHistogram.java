@@ -0,0 +1,66 @@
+package org.jboss.test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.jboss.util.LatencyHistogram;
+import org.jboss.util.StripedCounter;
+import org.junit.Test;
+
+/**
+ * Tests for the counters and histograms behind the JMX metrics.
+ */
+public class TestForLatencyHistogram {
+
+	private static final long MILLI = 1000000L;
+
+	/**
+	 * Percentiles are within a factor two of the real value and never above
+	 * the maximum.
+	 */
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i * MILLI);
+		}
+		assertThat(histogram.getCount(), is(100L));
+		assertThat(histogram.getMaxMillis(), is(100.0));
+		assertThat(histogram.getMeanMillis(), is(50.5));
+
+		double p50 = histogram.getPercentileMillis(50);
+		assertTrue("p50 was " + p50, p50 >= 50 && p50 <= 100);
+		assertThat(histogram.getPercentileMillis(99), is(100.0));
+
+		histogram.reset();
+		assertThat(histogram.getCount(), is(0L));
+		assertThat(histogram.getPercentileMillis(99), is(0.0));
+	}
+
+	/**
+	 * Concurrent updates are all counted.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testStripedCounter() throws Exception {
+		final StripedCounter counter = new StripedCounter();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						counter.increment();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertThat(counter.sum(), is(80000L));
+	}
+}
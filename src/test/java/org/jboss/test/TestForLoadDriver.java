@@ -0,0 +1,55 @@
+package org.jboss.test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.apache.log4j.Logger;
+import org.jboss.util.FrameworkFixture;
+import org.jboss.util.LoadDriver;
+import org.jbpm.JbpmConfiguration;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Runs the load driver against the in-memory database. Small by default, to
+ * find where the framework saturates run it with e.g.
+ * <code>-Dload.instances=5000 -Dload.threads=20 -Dload.failure.rate=0.2</code>.
+ */
+public class TestForLoadDriver {
+
+	/** The global jBPM configuration. */
+	private static JbpmConfiguration jbpmConf = JbpmConfiguration.getInstance();
+
+	public static final String ORIGINATING_PROCESS_NAME = "Originator Process";
+
+	private static final Logger LOGGER = Logger.getLogger(TestForLoadDriver.class);
+
+	@BeforeClass
+	public static final void oneTimeSetup() throws Exception {
+		FrameworkFixture.setUp(jbpmConf, ORIGINATING_PROCESS_NAME);
+	}
+
+	@AfterClass
+	public static final void oneTimeTearDown() throws Exception {
+		FrameworkFixture.tearDown(jbpmConf);
+	}
+
+	/**
+	 * All instances end, the failed ones after their task was resolved.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testLoad() throws Exception {
+		int instances = Integer.getInteger("load.instances", 20).intValue();
+		LoadDriver driver = new LoadDriver(jbpmConf, ORIGINATING_PROCESS_NAME, instances,
+				Integer.getInteger("load.threads", 4).intValue(),
+				Double.parseDouble(System.getProperty("load.failure.rate", "0.25")));
+
+		LoadDriver.Result result = driver.run(Long.getLong("load.timeout", 120000L).longValue());
+		LOGGER.info("Load: " + result);
+
+		assertThat(result.getInstances(), is(instances));
+	}
+}
@@ -7,7 +7,6 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
 import java.util.Collection;
-import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.collections.CollectionUtils;
@@ -15,10 +14,11 @@ import org.apache.log4j.Appender;
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import org.jboss.util.ProcessDefinitionCache;
+import org.jboss.util.ProcessAwaiter;
 import org.jboss.util.ProcessDefinitionReference;
 import org.jbpm.JbpmConfiguration;
 import org.jbpm.JbpmContext;
-import org.jbpm.db.GraphSession;
 import org.jbpm.graph.def.ProcessDefinition;
 import org.jbpm.graph.exe.ProcessInstance;
 import org.jbpm.taskmgmt.exe.TaskInstance;
@@ -93,12 +93,14 @@ public class TestForNodeExceptionHandling {
 	@Test
     public void testForNodeExceptionHandling() throws Exception {
          // deploy process first.
+        long originatorId;
         JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
         try {
             // Create an instance of the jBPM process.
             ProcessDefinition procDef = getTestProcess().parseAndDeployProcess();
             ProcessInstance procInst = new ProcessInstance(procDef);
             jbpmCtx.save(procInst);
+            originatorId = procInst.getId();
         } finally {
             // Close the transaction.
             jbpmCtx.close();
@@ -107,25 +109,24 @@ public class TestForNodeExceptionHandling {
         // signal process to start.
         jbpmCtx = jbpmConf.createJbpmContext();
 		try {
-			long processInstanceId = getProcessId(ORIGINATING_PROCESS_NAME);
-			ProcessInstance procInst = jbpmCtx.getProcessInstance(processInstanceId);
+			ProcessInstance procInst = jbpmCtx.getProcessInstance(originatorId);
 			assertThat("No exception process instance returned.", procInst, is(not(nullValue())));
 			procInst.signal();
 		} finally {
 			jbpmCtx.close();
 		}
 
-        Thread.sleep(5000);
+        // Wait for the exception framework to arrive in its Human Task.
+        long frameworkId = ProcessAwaiter.awaitHumanTask(jbpmConf, originatorId, ProcessAwaiter.DEFAULT_TIMEOUT);
         
         // In Human Task and need to end which will cause the flow to signal back
         // to the originating process.
-        endTask();
+        endTask(frameworkId);
 		
 		// Test that originating process is in end state.
         jbpmCtx = jbpmConf.createJbpmContext();
 		try {
-			long processInstanceId = getProcessId(ORIGINATING_PROCESS_NAME);
-			ProcessInstance procInst = jbpmCtx.getProcessInstance(processInstanceId);
+			ProcessInstance procInst = jbpmCtx.getProcessInstance(originatorId);
 			assertThat("No exception process instance returned.", procInst, is(not(nullValue())));
 			assertThat("Exception process not ended.", procInst.hasEnded(), is(true));
 		} finally {
@@ -135,8 +136,7 @@ public class TestForNodeExceptionHandling {
         // Test that it is in end state now for exception framework.
 		jbpmCtx = jbpmConf.createJbpmContext();
 		try {
-			long processInstanceId = getProcessId(EXCEPTION_FRAMEWORK_PROCESS_NAME);
-			ProcessInstance procInst = jbpmCtx.getProcessInstance(processInstanceId);
+			ProcessInstance procInst = jbpmCtx.getProcessInstance(frameworkId);
 			assertThat("No exception process instance returned.", procInst, is(not(nullValue())));
 			assertThat("Exception process in unexpected state.", procInst.hasEnded(), is(true));
 		} finally {
@@ -168,19 +168,18 @@ public class TestForNodeExceptionHandling {
 			// Create an instance of the jBPM exception framework process.
 			String frameworkXml = "process/processdefinition.xml";
 			ProcessDefinition procDef = ProcessDefinition.parseXmlResource(frameworkXml);
-			jbpmCtx.deployProcessDefinition(procDef);
+			ProcessDefinitionCache.INSTANCE.deployProcessDefinition(jbpmCtx, procDef);
 		} finally {
 			// Close the transaction.
 			jbpmCtx.close();
 		}
     }
     
-    private void endTask() {
+    private void endTask(long frameworkId) {
 		// Open the transaction.
 		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
 		 try {
-			 long processInstanceId = getProcessId(EXCEPTION_FRAMEWORK_PROCESS_NAME);
-			 ProcessInstance procInst = jbpmCtx.getProcessInstance(processInstanceId);
+			 ProcessInstance procInst = jbpmCtx.getProcessInstance(frameworkId);
 			 assertThat("No exception process instance returned.", procInst, is(not(nullValue())));
 
 			 Collection<TaskInstance> taskInsts = procInst.getTaskMgmtInstance().getUnfinishedTasks(procInst.getRootToken());
@@ -198,29 +197,6 @@ public class TestForNodeExceptionHandling {
     }
     
     
-	private long getProcessId (String processName) {
-		long procId;
-		
-		// Open the transaction.
-		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
-		 try {
-			 // Get our process instance back.
-			 GraphSession graphSession = jbpmCtx.getGraphSession();
-		     ProcessDefinition processDefinition = graphSession.findLatestProcessDefinition(processName);
-		     assertThat("No process definition found.", processDefinition, is(not(nullValue())));
-
-		     // Now, we search for all process instances of this process definition.
-		     List processInstances = graphSession.findProcessInstances(processDefinition.getId());
-		     ProcessInstance procInst = (ProcessInstance) processInstances.get(0);
-		     procId = procInst.getId();
-		 } finally {
-			 // Tear down the pojo persistence context.
-		     jbpmCtx.close();
-		 }			
-
-		 return procId;
-	}
-	
     private TaskInstance getIndicatedTaskInstance(Collection<TaskInstance> taskInsts, final String actorId, final String taskName,
             final Set<String> pooledActors, final String swimlane) {
         TaskInstance indicated = null;
@@ -0,0 +1,210 @@
+package org.jboss.test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.jboss.util.ProcessDefinitionReference;
+import org.jboss.util.ProcessLogBuffer;
+import org.jboss.util.ProcessLogPolicy;
+import org.jboss.util.ProcessLogSnapshot;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+import org.jbpm.graph.exe.ProcessInstance;
+import org.jbpm.logging.log.MessageLog;
+import org.jbpm.logging.log.ProcessLog;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for the process log policies and the buffer of the buffered policy.
+ */
+public class TestForProcessLogPolicy {
+
+	/** The global jBPM configuration. */
+	private static JbpmConfiguration jbpmConf = JbpmConfiguration.getInstance();
+
+	public static final String PROCESS_NAME = "Logged Process";
+
+	/** Not an existing process instance. */
+	private static final long PROCESS_INSTANCE_ID = -1L;
+
+	private static final String LOGS_QUERY = "select count(l) from org.jbpm.logging.log.ProcessLog l "
+			+ "where l.token.processInstance.id = :id";
+
+	@BeforeClass
+	public static final void oneTimeSetup() throws Exception {
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			new ProcessDefinitionReference("<process-definition xmlns=\"urn:jbpm.org:jpdl-3.1\" name=\""
+					+ PROCESS_NAME + "\">"
+					+ "<start-state name=\"start\">"
+					+ "<transition to=\"wait1\" />"
+					+ "</start-state>"
+					+ "<state name=\"wait1\">"
+					+ "<transition to=\"wait2\" />"
+					+ "</state>"
+					+ "<state name=\"wait2\">"
+					+ "<transition to=\"end\" />"
+					+ "</state>"
+					+ "<end-state name=\"end\" />"
+					+ "</process-definition>").parseAndDeployProcess();
+		} finally {
+			jbpmCtx.close();
+		}
+	}
+
+	/**
+	 * The framework process logs its summary only (see jbpm.cfg.xml), other
+	 * processes log everything.
+	 */
+	@Test
+	public void testConfiguredPolicies() {
+		assertThat(ProcessLogPolicy.forProcess("Exception Framework"), is(ProcessLogPolicy.SUMMARY));
+		assertThat(ProcessLogPolicy.forProcess("Originator Process"), is(ProcessLogPolicy.FULL));
+	}
+
+	/**
+	 * Logs put back after a rollback come before those buffered since.
+	 */
+	@Test
+	public void testRestoreKeepsOrder() {
+		List<ProcessLogSnapshot> first;
+		List<ProcessLogSnapshot> second;
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			SessionFactory sessionFactory = jbpmCtx.getSession().getSessionFactory();
+			first = ProcessLogSnapshot.copyOf(sessionFactory,
+					Arrays.<ProcessLog> asList(new MessageLog("first"), new MessageLog("second")));
+			second = ProcessLogSnapshot.copyOf(sessionFactory, Arrays.<ProcessLog> asList(new MessageLog("third")));
+		} finally {
+			jbpmCtx.close();
+		}
+
+		ProcessLogBuffer.INSTANCE.append(PROCESS_INSTANCE_ID, first);
+		List<ProcessLogSnapshot> taken = ProcessLogBuffer.INSTANCE.take(PROCESS_INSTANCE_ID);
+		ProcessLogBuffer.INSTANCE.append(PROCESS_INSTANCE_ID, second);
+		ProcessLogBuffer.INSTANCE.restore(PROCESS_INSTANCE_ID, taken);
+
+		assertThat(ProcessLogBuffer.INSTANCE.take(PROCESS_INSTANCE_ID),
+				is(Arrays.asList(first.get(0), first.get(1), second.get(0))));
+		assertThat(ProcessLogBuffer.INSTANCE.take(PROCESS_INSTANCE_ID), is(nullValue()));
+	}
+
+	/**
+	 * Logs buffered over several transactions are written, against the
+	 * session of the last one, when the instance ends: as many as the full
+	 * policy writes along the way.
+	 */
+	@Test
+	public void testBufferedLogsWrittenWhenInstanceEnds() {
+		ProcessLogPolicy.setPolicy(PROCESS_NAME, ProcessLogPolicy.FULL);
+		long fullId = runToEnd(false);
+		ProcessLogPolicy.setPolicy(PROCESS_NAME, ProcessLogPolicy.BUFFERED);
+		try {
+			long bufferedId = runToEnd(true);
+
+			assertThat(ProcessLogBuffer.INSTANCE.take(bufferedId), is(nullValue()));
+			assertThat(countLogs(bufferedId), is(countLogs(fullId)));
+		} finally {
+			ProcessLogPolicy.setPolicy(PROCESS_NAME, ProcessLogPolicy.FULL);
+		}
+	}
+
+	/**
+	 * Logs of an instance that stopped logging are written out before it
+	 * ends; the transaction ending it writes only its own, so in the end the
+	 * instance has as many logs as under the full policy.
+	 */
+	@Test
+	public void testStaleLogsWrittenOut() {
+		ProcessLogPolicy.setPolicy(PROCESS_NAME, ProcessLogPolicy.FULL);
+		long fullId = runToEnd(false);
+		ProcessLogPolicy.setPolicy(PROCESS_NAME, ProcessLogPolicy.BUFFERED);
+		try {
+			ProcessInstance processInstance;
+			JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+			try {
+				processInstance = jbpmCtx.newProcessInstanceForUpdate(PROCESS_NAME);
+				processInstance.getContextInstance().setVariable("customer", "ACME");
+				processInstance.signal();
+			} finally {
+				jbpmCtx.close();
+			}
+			long id = processInstance.getId();
+			assertThat(countLogs(id), is(0));
+
+			ProcessLogBuffer.INSTANCE.writeOut(System.currentTimeMillis() + 1);
+			assertThat(ProcessLogBuffer.INSTANCE.take(id), is(nullValue()));
+			int written = countLogs(id);
+			assertTrue(written > 0);
+
+			for (int i = 0; i < 2; i++) {
+				jbpmCtx = jbpmConf.createJbpmContext();
+				try {
+					jbpmCtx.loadProcessInstanceForUpdate(id).signal();
+				} finally {
+					jbpmCtx.close();
+				}
+			}
+			assertThat(countLogs(id), is(countLogs(fullId)));
+		} finally {
+			ProcessLogPolicy.setPolicy(PROCESS_NAME, ProcessLogPolicy.FULL);
+		}
+	}
+
+	/**
+	 * Start an instance with a variable and signal it to its end, one
+	 * transaction per wait state.
+	 * 
+	 * @return The id of the instance.
+	 */
+	private long runToEnd(boolean buffered) {
+		ProcessInstance processInstance;
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			processInstance = jbpmCtx.newProcessInstanceForUpdate(PROCESS_NAME);
+			processInstance.getContextInstance().setVariable("customer", "ACME");
+			processInstance.signal();
+		} finally {
+			jbpmCtx.close();
+		}
+		long id = processInstance.getId();
+
+		jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			jbpmCtx.loadProcessInstanceForUpdate(id).signal();
+		} finally {
+			jbpmCtx.close();
+		}
+		if (buffered) {
+			assertThat(countLogs(id), is(0));
+		}
+
+		jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			processInstance = jbpmCtx.loadProcessInstanceForUpdate(id);
+			processInstance.signal();
+			assertTrue(processInstance.hasEnded());
+		} finally {
+			jbpmCtx.close();
+		}
+		return id;
+	}
+
+	private int countLogs(long processInstanceId) {
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			return ((Number) jbpmCtx.getSession().createQuery(LOGS_QUERY)
+					.setLong("id", processInstanceId)
+					.uniqueResult()).intValue();
+		} finally {
+			jbpmCtx.close();
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package org.jboss.test;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jboss.util.ResumeFuture;
+import org.jboss.util.ResumeNotifier;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+import org.junit.Test;
+
+/**
+ * Tests for the completion of the futures of waiters for resumed originating
+ * process instances. The ids are made up, no instances are needed.
+ */
+public class TestForResumeNotifier {
+
+	/** The global jBPM configuration. */
+	private static JbpmConfiguration jbpmConf = JbpmConfiguration.getInstance();
+
+	/**
+	 * A committed resume completes the future with its transition, also when
+	 * a failure was registered after it.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testResumeCompletesAfterCommit() throws Exception {
+		ResumeFuture future = ResumeNotifier.INSTANCE.await(-1);
+		assertThat(ResumeNotifier.INSTANCE.await(-1), is(sameInstance(future)));
+
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			ResumeNotifier.INSTANCE.resumeAfterCommit(jbpmCtx, -1, "retry");
+			ResumeNotifier.INSTANCE.failAfterCompletion(jbpmCtx, -1, new IllegalStateException("Not resumed."));
+			assertThat("Completed before commit.", future.isDone(), is(false));
+		} finally {
+			jbpmCtx.close();
+		}
+
+		assertThat(future.get(1, TimeUnit.SECONDS), is("retry"));
+		assertThat(ResumeNotifier.INSTANCE.await(-1), is(not(sameInstance(future))));
+	}
+
+	/**
+	 * A trigger that rolled back fails the future with its cause.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testFailedTriggerFailsFuture() throws Exception {
+		ResumeFuture future = ResumeNotifier.INSTANCE.await(-2);
+		IllegalStateException cause = new IllegalStateException("Originating process instance -2 not found.");
+
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			ResumeNotifier.INSTANCE.resumeAfterCommit(jbpmCtx, -2, null);
+			ResumeNotifier.INSTANCE.failAfterCompletion(jbpmCtx, -2, cause);
+			jbpmCtx.setRollbackOnly();
+		} finally {
+			jbpmCtx.close();
+		}
+
+		try {
+			future.get(1, TimeUnit.SECONDS);
+			fail("Future of a failed trigger completed normally.");
+		} catch (ExecutionException ex) {
+			assertThat(ex.getCause(), is(sameInstance((Throwable) cause)));
+		}
+	}
+
+	/**
+	 * When the last waiter times out, the future is removed from the notifier
+	 * and fails for later callers.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testTimeoutGivesUpFuture() throws Exception {
+		ResumeFuture future = ResumeNotifier.INSTANCE.await(-3);
+		try {
+			future.get(10, TimeUnit.MILLISECONDS);
+			fail("Future completed without a resume.");
+		} catch (TimeoutException ex) {
+			// Expected.
+		}
+
+		assertThat(future.isDone(), is(true));
+		assertThat(ResumeNotifier.INSTANCE.await(-3), is(not(sameInstance(future))));
+		try {
+			future.get();
+			fail("Given up future completed normally.");
+		} catch (ExecutionException ex) {
+			assertThat(ex.getCause(), is(instanceOf(TimeoutException.class)));
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package org.jboss.test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.jboss.util.FrameworkConfig;
+import org.jboss.util.RetryBackoff;
+import org.junit.Test;
+
+/**
+ * Tests for the backoff periods of automatic retries.
+ */
+public class TestForRetryBackoff {
+
+	/**
+	 * Delays double per attempt up to the maximum, less at most the jitter
+	 * percentage.
+	 */
+	@Test
+	public void testExponentialDelayWithJitter() {
+		long initial = FrameworkConfig.getLong(RetryBackoff.INITIAL_DELAY_KEY, 1000L);
+		long max = FrameworkConfig.getLong(RetryBackoff.MAX_DELAY_KEY, 300000L);
+		int jitter = FrameworkConfig.getInt(RetryBackoff.JITTER_KEY, 50);
+
+		long expected = initial;
+		for (int attempt = 0; attempt < 30; attempt++) {
+			long base = Math.min(expected, max);
+			for (int i = 0; i < 100; i++) {
+				long delay = RetryBackoff.INSTANCE.getDelay(attempt);
+				assertThat("Delay " + delay + " above " + base + " for attempt " + attempt, delay <= base, is(true));
+				assertThat("Delay " + delay + " too far below " + base + " for attempt " + attempt,
+						delay >= base - base * jitter / 100, is(true));
+			}
+			expected = Math.min(expected * 2, max);
+		}
+	}
+}
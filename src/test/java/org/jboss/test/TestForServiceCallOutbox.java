@@ -0,0 +1,149 @@
+package org.jboss.test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Date;
+
+import org.jboss.handler.AbstractExceptionActionHandler.ServiceRunner;
+import org.jboss.handler.CountingServiceHandler;
+import org.jboss.util.ProcessAwaiter;
+import org.jboss.util.ProcessDefinitionReference;
+import org.jboss.util.ServiceCallOutbox;
+import org.jboss.util.ServiceCallOutboxEntry;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+import org.jbpm.graph.exe.ProcessInstance;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for the durable dispatch of service calls through the outbox.
+ */
+public class TestForServiceCallOutbox {
+
+	/** The global jBPM configuration. */
+	private static JbpmConfiguration jbpmConf = JbpmConfiguration.getInstance();
+
+	public static final String PROCESS_NAME = "Outbox Process";
+
+	private static final String STALE_CLAIM_UPDATE = "update org.jboss.util.ServiceCallOutboxEntry e "
+			+ "set e.claimed = :claimed where e.id = :id";
+	private static final String ENTRIES_QUERY = "select count(e) from org.jboss.util.ServiceCallOutboxEntry e "
+			+ "where e.processInstanceId in (:ids)";
+
+	@BeforeClass
+	public static final void oneTimeSetup() throws Exception {
+		new ProcessDefinitionReference("<process-definition xmlns=\"urn:jbpm.org:jpdl-3.1\" name=\""
+				+ PROCESS_NAME + "\">"
+				+ "<start-state name=\"start\">"
+				+ "<transition to=\"wait\" />"
+				+ "</start-state>"
+				+ "<state name=\"wait\">"
+				+ "<transition to=\"end\" name=\"wait_to_end\" />"
+				+ "</state>"
+				+ "<end-state name=\"end\" />"
+				+ "</process-definition>").parseAndDeployProcess();
+	}
+
+	@AfterClass
+	public static final void oneTimeTearDown() throws Exception {
+		ServiceCallOutbox.INSTANCE.stop();
+	}
+
+	/**
+	 * Entries left pending, or claimed by a dispatcher that went away, are
+	 * dispatched once the dispatcher starts again.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testPendingEntriesDispatchedAfterRestart() throws Exception {
+		// The previous run went away with one entry pending and one claimed.
+		ServiceCallOutbox.INSTANCE.stop();
+		long pendingId = startWaiting();
+		long claimedId = startWaiting();
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			ProcessInstance pending = jbpmCtx.getProcessInstance(pendingId);
+			jbpmCtx.getSession().save(new ServiceCallOutboxEntry(pendingId, pending.getRootToken().getId(),
+					CountingServiceHandler.class.getName()));
+			ProcessInstance claimed = jbpmCtx.getProcessInstance(claimedId);
+			ServiceCallOutboxEntry entry = new ServiceCallOutboxEntry(claimedId, claimed.getRootToken().getId(),
+					CountingServiceHandler.class.getName());
+			jbpmCtx.getSession().save(entry);
+			jbpmCtx.getSession().flush();
+			jbpmCtx.getSession().createQuery(STALE_CLAIM_UPDATE)
+					.setTimestamp("claimed", new Date(0))
+					.setLong("id", entry.getId())
+					.executeUpdate();
+		} finally {
+			jbpmCtx.close();
+		}
+
+		// Restart.
+		ServiceCallOutbox.INSTANCE.start();
+
+		ProcessAwaiter.awaitEnd(jbpmConf, pendingId, ProcessAwaiter.DEFAULT_TIMEOUT);
+		ProcessAwaiter.awaitEnd(jbpmConf, claimedId, ProcessAwaiter.DEFAULT_TIMEOUT);
+		jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			Number remaining = (Number) jbpmCtx.getSession().createQuery(ENTRIES_QUERY)
+					.setParameterList("ids", new Long[] { Long.valueOf(pendingId), Long.valueOf(claimedId) })
+					.uniqueResult();
+			assertThat(remaining.intValue(), is(0));
+		} finally {
+			jbpmCtx.close();
+		}
+	}
+
+	/**
+	 * A claim dispatched again while its first dispatch is still on its way
+	 * is only performed once: the second finds the entry acknowledged.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testClaimDispatchedTwicePerformedOnce() throws Exception {
+		ServiceCallOutbox.INSTANCE.stop();
+		long processInstanceId = startWaiting();
+		long tokenId;
+		ServiceCallOutboxEntry entry;
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			tokenId = jbpmCtx.getProcessInstance(processInstanceId).getRootToken().getId();
+			entry = new ServiceCallOutboxEntry(processInstanceId, tokenId, CountingServiceHandler.class.getName());
+			jbpmCtx.getSession().save(entry);
+		} finally {
+			jbpmCtx.close();
+		}
+
+		Long entryId = Long.valueOf(entry.getId());
+		new ServiceRunner(processInstanceId, tokenId, CountingServiceHandler.class.getName(), entryId).run();
+		new ServiceRunner(processInstanceId, tokenId, CountingServiceHandler.class.getName(), entryId).run();
+
+		assertThat(CountingServiceHandler.getInvocations(tokenId), is(1));
+		jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			assertThat(jbpmCtx.getProcessInstance(processInstanceId).hasEnded(), is(true));
+		} finally {
+			jbpmCtx.close();
+		}
+	}
+
+	/**
+	 * @return The id of a new instance waiting in its State node.
+	 */
+	private long startWaiting() {
+		ProcessInstance processInstance;
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			processInstance = jbpmCtx.newProcessInstanceForUpdate(PROCESS_NAME);
+			processInstance.signal();
+		} finally {
+			jbpmCtx.close();
+		}
+		return processInstance.getId();
+	}
+}
@@ -7,18 +7,21 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
 import java.util.Collection;
-import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.log4j.Appender;
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import org.jboss.util.ProcessDefinitionCache;
+import org.jboss.util.ProcessAwaiter;
 import org.jboss.util.ProcessDefinitionReference;
+import org.jboss.util.ResumeFuture;
+import org.jboss.util.ResumeNotifier;
 import org.jbpm.JbpmConfiguration;
 import org.jbpm.JbpmContext;
-import org.jbpm.db.GraphSession;
 import org.jbpm.graph.def.ProcessDefinition;
 import org.jbpm.graph.exe.ProcessInstance;
 import org.jbpm.taskmgmt.exe.TaskInstance;
@@ -93,12 +96,14 @@ public class TestForStateExceptionHandling {
 	@Test
     public void testForStateExceptionHandling() throws Exception {
          // deploy process first.
+        long originatorId;
         JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
         try {
             // Create an instance of the jBPM process.
             ProcessDefinition procDef = getTestProcess().parseAndDeployProcess();
             ProcessInstance procInst = new ProcessInstance(procDef);
             jbpmCtx.save(procInst);
+            originatorId = procInst.getId();
         } finally {
             // Close the transaction.
             jbpmCtx.close();
@@ -107,25 +112,26 @@ public class TestForStateExceptionHandling {
         // signal process to start.
         jbpmCtx = jbpmConf.createJbpmContext();
 		try {
-			long processInstanceId = getProcessId(ORIGINATING_PROCESS_NAME);
-			ProcessInstance procInst = jbpmCtx.getProcessInstance(processInstanceId);
+			ProcessInstance procInst = jbpmCtx.getProcessInstance(originatorId);
 			assertThat("No exception process instance returned.", procInst, is(not(nullValue())));
 			procInst.signal();
 		} finally {
 			jbpmCtx.close();
 		}
 
-        Thread.sleep(5000);
+        // Wait for the exception framework to arrive in its Human Task.
+        long frameworkId = ProcessAwaiter.awaitHumanTask(jbpmConf, originatorId, ProcessAwaiter.DEFAULT_TIMEOUT);
+        ResumeFuture resumed = ResumeNotifier.INSTANCE.await(originatorId);
         
         // In Human Task and need to end which will cause the flow to signal back
         // to the originating process.
-        endTask();
+        endTask(frameworkId);
+        assertThat("Resumed over unexpected transition.", resumed.get(ProcessAwaiter.DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS), is(nullValue()));
 		
 		// Test that originating process is in end state.
         jbpmCtx = jbpmConf.createJbpmContext();
 		try {
-			long processInstanceId = getProcessId(ORIGINATING_PROCESS_NAME);
-			ProcessInstance procInst = jbpmCtx.getProcessInstance(processInstanceId);
+			ProcessInstance procInst = jbpmCtx.getProcessInstance(originatorId);
 			assertThat("No exception process instance returned.", procInst, is(not(nullValue())));
 			assertThat("Exception process not ended.", procInst.hasEnded(), is(true));
 		} finally {
@@ -135,8 +141,7 @@ public class TestForStateExceptionHandling {
         // Test that it is in end state now for exception framework.
 		jbpmCtx = jbpmConf.createJbpmContext();
 		try {
-			long processInstanceId = getProcessId(EXCEPTION_FRAMEWORK_PROCESS_NAME);
-			ProcessInstance procInst = jbpmCtx.getProcessInstance(processInstanceId);
+			ProcessInstance procInst = jbpmCtx.getProcessInstance(frameworkId);
 			assertThat("No exception process instance returned.", procInst, is(not(nullValue())));
 			assertThat("Exception process in unexpected state.", procInst.hasEnded(), is(true));
 		} finally {
@@ -170,19 +175,18 @@ public class TestForStateExceptionHandling {
 			// Create an instance of the jBPM exception framework process.
 			String frameworkXml = "process/processdefinition.xml";
 			ProcessDefinition procDef = ProcessDefinition.parseXmlResource(frameworkXml);
-			jbpmCtx.deployProcessDefinition(procDef);
+			ProcessDefinitionCache.INSTANCE.deployProcessDefinition(jbpmCtx, procDef);
 		} finally {
 			// Close the transaction.
 			jbpmCtx.close();
 		}
     }
     
-    private void endTask() {
+    private void endTask(long frameworkId) {
 		// Open the transaction.
 		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
 		 try {
-			 long processInstanceId = getProcessId(EXCEPTION_FRAMEWORK_PROCESS_NAME);
-			 ProcessInstance procInst = jbpmCtx.getProcessInstance(processInstanceId);
+			 ProcessInstance procInst = jbpmCtx.getProcessInstance(frameworkId);
 			 assertThat("No exception process instance returned.", procInst, is(not(nullValue())));
 
 			 Collection<TaskInstance> taskInsts = procInst.getTaskMgmtInstance().getUnfinishedTasks(procInst.getRootToken());
@@ -200,29 +204,6 @@ public class TestForStateExceptionHandling {
     }
     
     
-	private long getProcessId (String processName) {
-		long procId;
-		
-		// Open the transaction.
-		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
-		 try {
-			 // Get our process instance back.
-			 GraphSession graphSession = jbpmCtx.getGraphSession();
-		     ProcessDefinition processDefinition = graphSession.findLatestProcessDefinition(processName);
-		     assertThat("No process definition found.", processDefinition, is(not(nullValue())));
-
-		     // Now, we search for all process instances of this process definition.
-		     List processInstances = graphSession.findProcessInstances(processDefinition.getId());
-		     ProcessInstance procInst = (ProcessInstance) processInstances.get(0);
-		     procId = procInst.getId();
-		 } finally {
-			 // Tear down the pojo persistence context.
-		     jbpmCtx.close();
-		 }			
-
-		 return procId;
-	}
-	
     private TaskInstance getIndicatedTaskInstance(Collection<TaskInstance> taskInsts, final String actorId, final String taskName,
             final Set<String> pooledActors, final String swimlane) {
         TaskInstance indicated = null;
@@ -0,0 +1,130 @@
+package org.jboss.test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.util.StripedSerialExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the per key serial execution of service calls.
+ */
+public class TestForStripedSerialExecutor {
+
+	private static final int KEYS = 5;
+	private static final int TASKS_PER_KEY = 200;
+
+	private ExecutorService pool;
+
+	@Before
+	public void setUp() {
+		pool = Executors.newFixedThreadPool(8);
+	}
+
+	@After
+	public void tearDown() {
+		pool.shutdownNow();
+	}
+
+	/**
+	 * Tasks for one key must never overlap and must run in submission order,
+	 * while all tasks get executed.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testTasksPerKeyRunSerially() throws Exception {
+		StripedSerialExecutor executor = new StripedSerialExecutor(pool);
+		final CountDownLatch done = new CountDownLatch(KEYS * TASKS_PER_KEY);
+		final AtomicInteger[] running = new AtomicInteger[KEYS];
+		final AtomicInteger overlaps = new AtomicInteger();
+		final List<List<Integer>> order = new ArrayList<List<Integer>>();
+		for (int key = 0; key < KEYS; key++) {
+			running[key] = new AtomicInteger();
+			order.add(Collections.synchronizedList(new ArrayList<Integer>()));
+		}
+
+		for (int i = 0; i < TASKS_PER_KEY; i++) {
+			for (int key = 0; key < KEYS; key++) {
+				final int k = key;
+				final int sequence = i;
+				executor.execute(k, new Runnable() {
+					public void run() {
+						if (running[k].incrementAndGet() > 1) {
+							overlaps.incrementAndGet();
+						}
+						order.get(k).add(Integer.valueOf(sequence));
+						Thread.yield();
+						running[k].decrementAndGet();
+						done.countDown();
+					}
+				});
+			}
+		}
+
+		assertThat("Not all tasks executed.", done.await(30, TimeUnit.SECONDS), is(true));
+		assertThat("Tasks for the same key overlapped.", overlaps.get(), is(0));
+		for (int key = 0; key < KEYS; key++) {
+			List<Integer> executed = order.get(key);
+			for (int i = 0; i < TASKS_PER_KEY; i++) {
+				assertThat("Tasks for key " + key + " out of order.", executed.get(i), is(Integer.valueOf(i)));
+			}
+		}
+	}
+
+	/**
+	 * A worker that cannot hand its queue back keeps draining it, instead of
+	 * going through the executor (and its overflow policy) again.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testDrainsWhenResubmissionRejected() throws Exception {
+		final AtomicInteger submissions = new AtomicInteger();
+		StripedSerialExecutor executor = new StripedSerialExecutor(new Executor() {
+			public void execute(Runnable command) {
+				submissions.incrementAndGet();
+				pool.execute(command);
+			}
+		}, new Executor() {
+			public void execute(Runnable command) {
+				throw new RejectedExecutionException();
+			}
+		});
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(TASKS_PER_KEY);
+		executor.execute(0, new Runnable() {
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		for (int i = 0; i < TASKS_PER_KEY; i++) {
+			executor.execute(0, new Runnable() {
+				public void run() {
+					done.countDown();
+				}
+			});
+		}
+		release.countDown();
+
+		assertThat("Not all tasks executed.", done.await(30, TimeUnit.SECONDS), is(true));
+		assertThat("Queue was submitted again.", submissions.get(), is(1));
+	}
+}
@@ -0,0 +1,80 @@
+package org.jboss.test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.util.RetryRouting;
+import org.jboss.util.TransitionList;
+import org.jboss.util.TransitionList.Entry;
+import org.jbpm.graph.def.Transition;
+import org.junit.Test;
+
+/**
+ * Tests for the compact string form of transition lists.
+ */
+public class TestForTransitionList {
+
+	/**
+	 * Names with separators and escape characters, unnamed transitions and
+	 * the virtual retry come back as they went in, in order.
+	 */
+	@Test
+	public void testRoundTrip() {
+		List<String> names = Arrays.asList("to end", "a,b", "key:value", "back\\slash", "trailing\\", ",:\\", null,
+				"\\,", "last");
+		List<Transition> transitions = new ArrayList<Transition>();
+		for (String name : names) {
+			transitions.add(new Transition(name));
+		}
+
+		String encoded = TransitionList.encode(transitions, RetryRouting.RETRY_TRANSITION_NAME);
+		List<Entry> entries = TransitionList.decode(encoded);
+
+		List<String> expected = new ArrayList<String>(names);
+		expected.add(RetryRouting.RETRY_TRANSITION_NAME);
+		assertThat(TransitionList.decodeNames(encoded), is(expected));
+		assertThat(entries.size(), is(expected.size()));
+		// The virtual retry does not exist in the definition.
+		assertThat(entries.get(entries.size() - 1).getId(), is(0L));
+	}
+
+	/**
+	 * An unnamed transition is stored with an empty name and comes back
+	 * unnamed, also as the only or the last entry.
+	 */
+	@Test
+	public void testUnnamed() {
+		List<Transition> unnamed = Collections.singletonList(new Transition());
+
+		assertThat(TransitionList.encode(unnamed), is("0:"));
+		assertThat(TransitionList.decodeNames(TransitionList.encode(unnamed)), is(Arrays.asList((String) null)));
+		assertThat(TransitionList.decodeNames(TransitionList.encode(unnamed, RetryRouting.RETRY_TRANSITION_NAME)),
+				is(Arrays.asList(null, RetryRouting.RETRY_TRANSITION_NAME)));
+		assertThat(TransitionList.decodeNames(TransitionList.encode(null, "first", null)),
+				is(Arrays.asList("first", null)));
+	}
+
+	/**
+	 * No transitions encode to an empty string, which decodes to an empty
+	 * list like <code>null</code> does.
+	 */
+	@Test
+	public void testEmpty() {
+		assertThat(TransitionList.encode(Collections.emptyList()), is(""));
+		assertThat(TransitionList.decode("").isEmpty(), is(true));
+		assertThat(TransitionList.decode(null).isEmpty(), is(true));
+	}
+
+	/**
+	 * An entry without id separator is rejected.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testMalformed() {
+		TransitionList.decode("0:first,second");
+	}
+}
@@ -0,0 +1,88 @@
+package org.jboss.util;
+
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+import org.jbpm.graph.def.ProcessDefinition;
+
+/**
+ * Shared setup of the tests that run originating processes through the
+ * Exception Framework: the job executor, the framework process and an
+ * originating process failing on entering its wait state.
+ */
+public final class FrameworkFixture {
+
+	/** Utility class. */
+	private FrameworkFixture() {
+	}
+
+	/**
+	 * Start the job executor and deploy the Exception Framework process and an
+	 * originating process.
+	 * 
+	 * @param jbpmConf
+	 *            The jBPM configuration.
+	 * @param originatingProcessName
+	 *            The name of the originating process, see
+	 *            {@link #deployOriginatingProcess(JbpmConfiguration, String, String, String)}.
+	 */
+	public static void setUp(JbpmConfiguration jbpmConf, String originatingProcessName) {
+		jbpmConf.startJobExecutor();
+
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			ProcessDefinitionCache.INSTANCE.deployProcessDefinition(jbpmCtx,
+					ProcessDefinition.parseXmlResource("process/processdefinition.xml"));
+		} finally {
+			jbpmCtx.close();
+		}
+		deployOriginatingProcess(jbpmConf, originatingProcessName, "state1", null);
+	}
+
+	/**
+	 * Deploy an originating process: its wait state throws on node-enter, and
+	 * state_to_end leads from it to the end.
+	 * 
+	 * @param jbpmConf
+	 *            The jBPM configuration.
+	 * @param name
+	 *            The name of the process.
+	 * @param nodeName
+	 *            The name of the wait state.
+	 * @param leaveActionClass
+	 *            The class of an action on state_to_end, run when the process
+	 *            is resumed; may be <code>null</code>.
+	 */
+	public static void deployOriginatingProcess(JbpmConfiguration jbpmConf, String name, String nodeName,
+			String leaveActionClass) {
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			new ProcessDefinitionReference("<process-definition xmlns=\"urn:jbpm.org:jpdl-3.1\" name=\""
+					+ name + "\">"
+					+ "<start-state name=\"start\">"
+					+ "<transition to=\"" + nodeName + "\" />"
+					+ "</start-state>"
+					+ "<state name=\"" + nodeName + "\">"
+					+ "<event type=\"node-enter\">"
+					+ "<action class=\"org.jboss.handler.ExceptionThrowingHandler\" />"
+					+ "</event>"
+					+ "<transition to=\"end\" name=\"state_to_end\">"
+					+ (leaveActionClass == null ? "" : "<action class=\"" + leaveActionClass + "\" />")
+					+ "</transition>"
+					+ "</state>"
+					+ "<end-state name=\"end\" />"
+					+ "</process-definition>").parseAndDeployProcess();
+		} finally {
+			jbpmCtx.close();
+		}
+	}
+
+	/**
+	 * Stop the job executor.
+	 * 
+	 * @param jbpmConf
+	 *            The jBPM configuration.
+	 */
+	public static void tearDown(JbpmConfiguration jbpmConf) {
+		jbpmConf.getJobExecutor().stop();
+	}
+}
@@ -0,0 +1,261 @@
+package org.jboss.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+import org.jbpm.graph.exe.ProcessInstance;
+import org.jbpm.taskmgmt.exe.TaskInstance;
+
+/**
+ * Load driver for the exception framework: starts a number of originating
+ * process instances concurrently, of which a configurable share fails,
+ * resolves the Human Tasks that come up and waits for all instances to end.
+ * Reports the throughput and the latency from failure to resume, to find where
+ * the framework saturates.
+ * <p>
+ * The originating process is expected to fail in its first wait state through
+ * the <code>ExceptionThrowingHandler</code>; instances that are not to fail
+ * get its marker variable set up front, so the handler passes.
+ */
+public class LoadDriver {
+	/** Variable that makes the ExceptionThrowingHandler pass when set. */
+	private static final String EXCEPTION_THROWN_KEY = "EXCEPTION_THROWN";
+	/** Actor the Human Task of the framework is assigned to. */
+	private static final String ACTOR_ID = "EXPERT";
+	/** Number of ids per query when checking which instances ended. */
+	private static final int CHUNK_SIZE = 500;
+	private static final long POLL_INTERVAL = 50;
+
+	private static final String UNFINISHED_QUERY = "select count(pi) from org.jbpm.graph.exe.ProcessInstance pi "
+			+ "where pi.id in (:ids) and pi.end is null";
+	private static final String DURATIONS_QUERY = "select pi.start, pi.end from org.jbpm.graph.exe.ProcessInstance pi "
+			+ "where pi.id in (:ids)";
+
+	private static final Logger LOGGER = Logger.getLogger(LoadDriver.class);
+
+	private final JbpmConfiguration jbpmConf;
+	private final String processName;
+	private final int instances;
+	private final int threads;
+	private final double failureRate;
+
+	/**
+	 * @param jbpmConf The jBPM configuration, with a running JobExecutor.
+	 * @param processName The name of the (deployed) originating process.
+	 * @param instances The number of instances to start.
+	 * @param threads The number of threads starting instances.
+	 * @param failureRate The share of instances that fails, between 0 and 1.
+	 */
+	public LoadDriver(JbpmConfiguration jbpmConf, String processName, int instances, int threads, double failureRate) {
+		this.jbpmConf = jbpmConf;
+		this.processName = processName;
+		this.instances = instances;
+		this.threads = threads;
+		this.failureRate = failureRate;
+	}
+
+	/**
+	 * Run the load and wait for all instances to end.
+	 *
+	 * @param timeout The time (in ms) to wait for all instances.
+	 * @return The measurements.
+	 * @throws InterruptedException When interrupted, or when not all instances ended in time.
+	 */
+	public Result run(long timeout) throws InterruptedException {
+		final List<Long> failing = Collections.synchronizedList(new ArrayList<Long>());
+		final List<Long> passing = Collections.synchronizedList(new ArrayList<Long>());
+		final Random random = new Random(42);
+		final CountDownLatch started = new CountDownLatch(instances);
+
+		long start = System.currentTimeMillis();
+		ExecutorService starters = Executors.newFixedThreadPool(threads);
+		try {
+			for (int i = 0; i < instances; i++) {
+				final boolean fail;
+				synchronized (random) {
+					fail = random.nextDouble() < failureRate;
+				}
+				starters.execute(new Runnable() {
+					public void run() {
+						try {
+							(fail ? failing : passing).add(Long.valueOf(startInstance(fail)));
+						} catch (RuntimeException ex) {
+							LOGGER.error("Could not start instance.", ex);
+						} finally {
+							started.countDown();
+						}
+					}
+				});
+			}
+			if (!started.await(timeout, TimeUnit.MILLISECONDS)) {
+				throw new IllegalStateException("Not all instances started in time.");
+			}
+		} finally {
+			starters.shutdown();
+		}
+
+		List<Long> all = new ArrayList<Long>(failing);
+		all.addAll(passing);
+		long deadline = start + timeout;
+		int resolved = 0;
+		while (countUnfinished(all) > 0) {
+			resolved += resolveTasks();
+			if (System.currentTimeMillis() > deadline) {
+				throw new IllegalStateException(countUnfinished(all) + " of " + all.size() + " instances did not end in time.");
+			}
+			Thread.sleep(POLL_INTERVAL);
+		}
+		long elapsed = System.currentTimeMillis() - start;
+
+		return new Result(all.size(), failing.size(), resolved, elapsed, durations(failing));
+	}
+
+	private long startInstance(boolean fail) {
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			ProcessInstance procInst = jbpmCtx.newProcessInstanceForUpdate(processName);
+			if (!fail) {
+				procInst.getContextInstance().setVariable(EXCEPTION_THROWN_KEY, "pass");
+			}
+			procInst.signal();
+			return procInst.getId();
+		} finally {
+			jbpmCtx.close();
+		}
+	}
+
+	/**
+	 * @return The number of Human Tasks ended.
+	 */
+	private int resolveTasks() {
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			// Open tasks by actor, an indexed query.
+			List<?> tasks = jbpmCtx.getTaskMgmtSession().findTaskInstances(ACTOR_ID);
+			for (Object task : tasks) {
+				((TaskInstance) task).end();
+			}
+			return tasks.size();
+		} finally {
+			jbpmCtx.close();
+		}
+	}
+
+	private long countUnfinished(List<Long> ids) {
+		long unfinished = 0;
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			for (int i = 0; i < ids.size(); i += CHUNK_SIZE) {
+				unfinished += ((Number) jbpmCtx.getSession().createQuery(UNFINISHED_QUERY)
+						.setParameterList("ids", ids.subList(i, Math.min(i + CHUNK_SIZE, ids.size())))
+						.uniqueResult()).longValue();
+			}
+		} finally {
+			jbpmCtx.close();
+		}
+		return unfinished;
+	}
+
+	/**
+	 * @return The times (in ms) from start (and so failure) to end of the instances, sorted.
+	 */
+	private long[] durations(List<Long> ids) {
+		long[] durations = new long[ids.size()];
+		int n = 0;
+		JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+		try {
+			for (int i = 0; i < ids.size(); i += CHUNK_SIZE) {
+				List<?> rows = jbpmCtx.getSession().createQuery(DURATIONS_QUERY)
+						.setParameterList("ids", ids.subList(i, Math.min(i + CHUNK_SIZE, ids.size())))
+						.list();
+				for (Object row : rows) {
+					Object[] dates = (Object[]) row;
+					durations[n++] = ((Date) dates[1]).getTime() - ((Date) dates[0]).getTime();
+				}
+			}
+		} finally {
+			jbpmCtx.close();
+		}
+		long[] sorted = new long[n];
+		System.arraycopy(durations, 0, sorted, 0, n);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * The measurements of a run.
+	 */
+	public static class Result {
+		private final int instances;
+		private final int failed;
+		private final int tasksResolved;
+		private final long elapsedMillis;
+		private final long[] failureToResumeMillis;
+
+		Result(int instances, int failed, int tasksResolved, long elapsedMillis, long[] failureToResumeMillis) {
+			this.instances = instances;
+			this.failed = failed;
+			this.tasksResolved = tasksResolved;
+			this.elapsedMillis = elapsedMillis;
+			this.failureToResumeMillis = failureToResumeMillis;
+		}
+
+		public int getInstances() {
+			return instances;
+		}
+
+		public int getFailed() {
+			return failed;
+		}
+
+		/**
+		 * @return The number of Human Tasks ended, fewer than failures when failures were grouped.
+		 */
+		public int getTasksResolved() {
+			return tasksResolved;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		/**
+		 * @return Instances ended per second.
+		 */
+		public double getThroughput() {
+			return elapsedMillis == 0 ? 0.0 : instances * 1000.0 / elapsedMillis;
+		}
+
+		/**
+		 * @param percentile The percentile, between 0 and 100.
+		 * @return The time (in ms) from failure to resume at the percentile, 0 without failures.
+		 */
+		public long getFailureToResumeMillis(double percentile) {
+			if (failureToResumeMillis.length == 0) {
+				return 0;
+			}
+			int index = (int) Math.ceil(failureToResumeMillis.length * percentile / 100.0) - 1;
+			return failureToResumeMillis[Math.max(0, Math.min(index, failureToResumeMillis.length - 1))];
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public String toString() {
+			return instances + " instances (" + failed + " failed, " + tasksResolved + " tasks) in " + elapsedMillis
+					+ " ms: " + String.format("%.1f", Double.valueOf(getThroughput())) + "/s; failure to resume p50 "
+					+ getFailureToResumeMillis(50) + " ms, p99 " + getFailureToResumeMillis(99) + " ms, p999 "
+					+ getFailureToResumeMillis(99.9) + " ms";
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package org.jboss.util;
+
+import org.jboss.handler.StartExceptionFrameworkHandler;
+import org.jbpm.JbpmConfiguration;
+import org.jbpm.JbpmContext;
+import org.jbpm.graph.exe.ProcessInstance;
+import org.jbpm.graph.exe.Token;
+
+/**
+ * Waiting for the asynchronous steps of the exception framework in tests, by
+ * polling on primary key lookups instead of sleeping for a fixed time.
+ */
+public final class ProcessAwaiter {
+	/** Time (in ms) a test waits for a step before failing. */
+	public static final long DEFAULT_TIMEOUT = 30000;
+
+	/** Name of the node of the Exception Framework process with the task. */
+	private static final String HUMAN_TASK_NODE_NAME = "Human Task";
+
+	private static final long POLL_INTERVAL = 20;
+
+	/** Utility class. */
+	private ProcessAwaiter() {
+	}
+
+	/**
+	 * Wait for the Exception Framework instance handling a failure of an
+	 * originating instance to arrive in its Human Task.
+	 * 
+	 * @param jbpmConf The jBPM configuration.
+	 * @param originatorId The id of the originating process instance.
+	 * @param timeout The time (in ms) to wait.
+	 * @return The id of the Exception Framework instance.
+	 * @throws InterruptedException When interrupted while waiting.
+	 */
+	public static long awaitHumanTask(JbpmConfiguration jbpmConf, long originatorId, long timeout)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (true) {
+			JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+			try {
+				// The originating instance holds the id of the root token of the framework instance.
+				Long tokenId = (Long) jbpmCtx.getProcessInstance(originatorId).getContextInstance().getVariable(
+						StartExceptionFrameworkHandler.EXCEPTION_FRAMEWORK_PROCESS_ID_KEY);
+				if (tokenId != null) {
+					Token token = jbpmCtx.getToken(tokenId.longValue());
+					if (token != null && token.getNode() != null
+							&& HUMAN_TASK_NODE_NAME.equals(token.getNode().getName())) {
+						return token.getProcessInstance().getId();
+					}
+				}
+			} finally {
+				jbpmCtx.close();
+			}
+			pause(deadline, "Exception Framework instance for process instance " + originatorId
+					+ " did not arrive in its Human Task");
+		}
+	}
+
+	/**
+	 * Wait for a process instance to end.
+	 * 
+	 * @param jbpmConf The jBPM configuration.
+	 * @param processInstanceId The id of the process instance.
+	 * @param timeout The time (in ms) to wait.
+	 * @throws InterruptedException When interrupted while waiting.
+	 */
+	public static void awaitEnd(JbpmConfiguration jbpmConf, long processInstanceId, long timeout)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (true) {
+			JbpmContext jbpmCtx = jbpmConf.createJbpmContext();
+			try {
+				ProcessInstance procInst = jbpmCtx.getProcessInstance(processInstanceId);
+				if (procInst != null && procInst.hasEnded()) {
+					return;
+				}
+			} finally {
+				jbpmCtx.close();
+			}
+			pause(deadline, "Process instance " + processInstanceId + " did not end");
+		}
+	}
+
+	private static void pause(long deadline, String failure) throws InterruptedException {
+		if (System.currentTimeMillis() > deadline) {
+			throw new AssertionError(failure + " in time.");
+		}
+		Thread.sleep(POLL_INTERVAL);
+	}
+}